@@ -0,0 +1,319 @@
+package eu.recentsopener;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Build;
+
+import androidx.core.content.ContextCompat;
+import androidx.core.content.pm.PackageInfoCompat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * AppMetadataCache is a process-wide in-memory LRU cache of the label, icon
+ * and launch intent of installed packages. Looking these up through
+ * PackageManager costs binder calls and Drawable decodes for data that
+ * almost never changes, and every screen used to repeat them on each
+ * refresh.
+ *
+ * Entries are keyed by package name and remember the versionCode and
+ * lastUpdateTime they were loaded for; a lookup with a PackageInfo of a
+ * different version reloads the entry. A receiver for
+ * PACKAGE_ADDED/REPLACED/CHANGED/REMOVED drops entries as soon as a
+ * package changes. Labels depend on the system locale, so entries also
+ * remember the locale they were loaded in; all entries are dropped on
+ * LOCALE_CHANGED, and an entry of another locale is never returned. The cache is bounded by an approximate memory budget in
+ * bytes; least recently used entries are evicted first.
+ *
+ * Icons are rasterised once to the list item icon size
+ * ({@code R.dimen.app_icon_size}) and persisted together with the label in an
+ * {@link IconDiskCache}. After a process restart, entries are therefore
+ * restored from small local files and the resources of other APKs are only
+ * touched when a package was installed or updated since the icon was cached.
+ */
+public final class AppMetadataCache {
+    /** Approximate memory budget for all cached entries. */
+    private static final long MAX_BYTES = 8L * 1024 * 1024;
+
+    /** Fixed per-entry overhead added to the size estimate. */
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    /** Cached metadata of one package. The label and icon are immutable. */
+    public static final class Entry {
+        public final String packageName;
+        public final String label;
+        public final Drawable icon;
+        final long versionCode;
+        final long lastUpdateTime;
+        /** Language tag of the locale the label was loaded in. */
+        final String locale;
+        final int sizeBytes;
+        /** Launch intent resolved on first use; null if the package has none. */
+        Intent launchIntent;
+        boolean launchIntentResolved;
+
+        Entry(String packageName, String label, Drawable icon, long versionCode, long lastUpdateTime,
+              String locale) {
+            this.packageName = packageName;
+            this.label = label;
+            this.icon = icon;
+            this.versionCode = versionCode;
+            this.lastUpdateTime = lastUpdateTime;
+            this.locale = locale;
+            this.sizeBytes = estimateSize(label, icon);
+        }
+
+        boolean matches(PackageInfo info) {
+            return versionCode == PackageInfoCompat.getLongVersionCode(info)
+                    && lastUpdateTime == info.lastUpdateTime
+                    && isCurrentLocale();
+        }
+
+        boolean isCurrentLocale() {
+            return locale.equals(currentLocale());
+        }
+    }
+
+    private static AppMetadataCache sInstance;
+
+    private final Context appContext;
+    private final IconDiskCache diskCache;
+    /** Edge length in pixels that icons are rasterised to. */
+    private final int iconSizePx;
+
+    /** Entries in access order, least recently used first. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+
+    private AppMetadataCache(Context context) {
+        appContext = context.getApplicationContext();
+        diskCache = new IconDiskCache(appContext);
+        iconSizePx = appContext.getResources().getDimensionPixelSize(R.dimen.app_icon_size);
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        ContextCompat.registerReceiver(appContext, new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Uri data = intent.getData();
+                if (data == null) {
+                    return;
+                }
+                String pkg = data.getSchemeSpecificPart();
+                invalidate(pkg);
+                if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())
+                        && !intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                    // Updates are detected by the version check on read; only
+                    // uninstalled packages need their file removed.
+                    diskCache.delete(pkg);
+                }
+            }
+        }, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
+        // Labels of another language are reloaded; the disk cache checks the locale on read
+        ContextCompat.registerReceiver(appContext, new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                clear();
+                RecentsRefresher.getInstance(appContext).requestRefresh();
+            }
+        }, new IntentFilter(Intent.ACTION_LOCALE_CHANGED), ContextCompat.RECEIVER_NOT_EXPORTED);
+    }
+
+    /** Returns the process-wide cache, creating it on first use. */
+    public static synchronized AppMetadataCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppMetadataCache(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the metadata for a package whose PackageInfo the caller already
+     * holds. The cached entry is used if it was loaded for the same version;
+     * otherwise label and icon are reloaded.
+     */
+    public Entry get(PackageInfo info) {
+        synchronized (this) {
+            Entry cached = entries.get(info.packageName);
+            if (cached != null && cached.matches(info)) {
+                Metrics.METADATA_MEMORY_HITS.inc();
+                return cached;
+            }
+        }
+        return load(info);
+    }
+
+    /**
+     * Returns the metadata for a package, or null if it is not installed. A
+     * cached entry is returned without any PackageManager call.
+     */
+    public Entry get(String packageName) {
+        synchronized (this) {
+            Entry cached = entries.get(packageName);
+            if (cached != null && cached.isCurrentLocale()) {
+                Metrics.METADATA_MEMORY_HITS.inc();
+                return cached;
+            }
+        }
+        try {
+            Metrics.PM_CALLS.inc();
+            return load(appContext.getPackageManager().getPackageInfo(packageName, 0));
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a launch intent for the package, preferring the leanback
+     * launcher. The resolved intent is cached with the package metadata; a
+     * fresh copy is returned on every call. Returns null if the package is not
+     * installed or cannot be launched.
+     */
+    public Intent getLaunchIntent(String packageName) {
+        Entry entry = get(packageName);
+        if (entry == null) {
+            return null;
+        }
+        synchronized (this) {
+            if (entry.launchIntentResolved) {
+                return entry.launchIntent != null ? new Intent(entry.launchIntent) : null;
+            }
+        }
+        // Attempt to acquire a TV‑optimised launch intent first. Some Android TV apps only
+        // declare a LEANBACK_LAUNCHER category and therefore getLaunchIntentForPackage()
+        // returns null.
+        PackageManager pm = appContext.getPackageManager();
+        Intent launchIntent = pm.getLeanbackLaunchIntentForPackage(packageName);
+        if (launchIntent == null) {
+            launchIntent = pm.getLaunchIntentForPackage(packageName);
+        }
+        synchronized (this) {
+            entry.launchIntent = launchIntent;
+            entry.launchIntentResolved = true;
+        }
+        return launchIntent != null ? new Intent(launchIntent) : null;
+    }
+
+    /** Drops all cached metadata, e.g. after the system locale changed. */
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    /** Returns the language tag of the current default locale. */
+    static String currentLocale() {
+        return Locale.getDefault().toLanguageTag();
+    }
+
+    /** Drops the cached metadata of a package. */
+    public synchronized void invalidate(String packageName) {
+        Entry removed = entries.remove(packageName);
+        if (removed != null) {
+            totalBytes -= removed.sizeBytes;
+        }
+    }
+
+    private Entry load(PackageInfo info) {
+        long versionCode = PackageInfoCompat.getLongVersionCode(info);
+        String locale = currentLocale();
+        String label;
+        Drawable icon;
+        IconDiskCache.Record record = diskCache.read(info.packageName, versionCode,
+                info.lastUpdateTime, iconSizePx, locale);
+        if (record != null) {
+            Metrics.METADATA_DISK_HITS.inc();
+            label = record.label;
+            icon = new BitmapDrawable(appContext.getResources(), record.icon);
+        } else {
+            Metrics.METADATA_MISSES.inc();
+            PackageManager pm = appContext.getPackageManager();
+            ApplicationInfo appInfo = info.applicationInfo;
+            if (appInfo != null) {
+                label = pm.getApplicationLabel(appInfo).toString();
+                Bitmap bitmap = rasterize(pm.getApplicationIcon(appInfo), iconSizePx);
+                diskCache.write(info.packageName, versionCode, info.lastUpdateTime, iconSizePx,
+                        locale, label, bitmap);
+                icon = new BitmapDrawable(appContext.getResources(), bitmap);
+            } else {
+                label = info.packageName;
+                icon = pm.getDefaultActivityIcon();
+            }
+        }
+        Entry entry = new Entry(info.packageName, label, icon, versionCode, info.lastUpdateTime,
+                locale);
+        put(entry);
+        return entry;
+    }
+
+    /**
+     * Draws a drawable into a square bitmap of the given size. TV apps often
+     * return banner-sized or adaptive icons; keeping only a bitmap of the
+     * displayed size bounds both the memory and the disk footprint.
+     */
+    private static Bitmap rasterize(Drawable drawable, int sizePx) {
+        Bitmap bitmap = Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Rect oldBounds = new Rect(drawable.getBounds());
+        drawable.setBounds(0, 0, sizePx, sizePx);
+        drawable.draw(canvas);
+        drawable.setBounds(oldBounds);
+        return bitmap;
+    }
+
+    private synchronized void put(Entry entry) {
+        Entry previous = entries.put(entry.packageName, entry);
+        if (previous != null) {
+            totalBytes -= previous.sizeBytes;
+        }
+        totalBytes += entry.sizeBytes;
+        // Evict least recently used entries until we are within budget
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > MAX_BYTES && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            if (eldest == entry) {
+                break;
+            }
+            it.remove();
+            totalBytes -= eldest.sizeBytes;
+        }
+    }
+
+    /**
+     * Estimates the memory held by a cached label and icon. Bitmap-backed icons
+     * report their allocation; other drawables are estimated from their
+     * intrinsic size at 4 bytes per pixel.
+     */
+    private static int estimateSize(String label, Drawable icon) {
+        int size = ENTRY_OVERHEAD_BYTES + (label != null ? label.length() * 2 : 0);
+        if (icon instanceof BitmapDrawable) {
+            Bitmap bitmap = ((BitmapDrawable) icon).getBitmap();
+            if (bitmap != null) {
+                return size + (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                        ? bitmap.getAllocationByteCount() : bitmap.getByteCount());
+            }
+        }
+        if (icon != null) {
+            int width = Math.max(icon.getIntrinsicWidth(), 1);
+            int height = Math.max(icon.getIntrinsicHeight(), 1);
+            size += width * height * 4;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,123 @@
+package eu.recentsopener;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ClickMatchCache remembers which view ID or label identified a button of
+ * the force-stop automation on this device. Entries are keyed by the
+ * package of the settings app showing the button, the current locale and
+ * the step (e.g. the Force stop button or the dialog confirmation), because
+ * each of these changes which candidate matches.
+ *
+ * {@link RecentsAccessibilityService#clickButtonByText} ranks the cached
+ * match first among the candidates of its kind (see {@link NodeMatcher}),
+ * so the button that worked before wins over other candidates. A cached
+ * label never outranks a view ID and only matches a node text equal to
+ * it. The matches are persisted in their own small preferences file, so
+ * they survive process restarts.
+ *
+ * Hit and miss counters are kept for the lifetime of the process: a hit is a
+ * button found by the cached match, a miss a button that was only found by
+ * trying all candidates.
+ */
+public final class ClickMatchCache {
+    private static final String PREF_NAME = "click_match_cache";
+    private static final String PREFIX_ID = "id:";
+    private static final String PREFIX_TEXT = "text:";
+
+    /** A remembered match: a view ID or a visible label. */
+    public static final class Match {
+        public final boolean byId;
+        public final String value;
+
+        Match(boolean byId, String value) {
+            this.byId = byId;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Match)) {
+                return false;
+            }
+            Match other = (Match) o;
+            return byId == other.byId && value.equals(other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode() * 31 + (byId ? 1 : 0);
+        }
+    }
+
+    private static ClickMatchCache sInstance;
+
+    private final SharedPreferences prefs;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private ClickMatchCache(Context context) {
+        prefs = context.getApplicationContext().getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    }
+
+    /** Returns the process-wide cache, creating it on first use. */
+    public static synchronized ClickMatchCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ClickMatchCache(context);
+        }
+        return sInstance;
+    }
+
+    /** Returns the remembered match for a step, or null if there is none. */
+    public Match get(String settingsPackage, String step) {
+        String stored = prefs.getString(key(settingsPackage, step), null);
+        if (stored == null) {
+            return null;
+        }
+        if (stored.startsWith(PREFIX_ID)) {
+            return new Match(true, stored.substring(PREFIX_ID.length()));
+        }
+        if (stored.startsWith(PREFIX_TEXT)) {
+            return new Match(false, stored.substring(PREFIX_TEXT.length()));
+        }
+        return null;
+    }
+
+    /** Remembers the match that found the button of a step. */
+    public void put(String settingsPackage, String step, Match match) {
+        if (match.equals(get(settingsPackage, step))) {
+            return;
+        }
+        prefs.edit()
+                .putString(key(settingsPackage, step), (match.byId ? PREFIX_ID : PREFIX_TEXT) + match.value)
+                .apply();
+    }
+
+    /** Counts a button found by the cached match. */
+    void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    /** Counts a button that was only found by trying all candidates. */
+    void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    /** Returns the number of buttons found by a cached match in this process. */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** Returns the number of buttons that needed a full search in this process. */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private static String key(String settingsPackage, String step) {
+        return settingsPackage + "|" + Locale.getDefault().toString() + "|" + step;
+    }
+}
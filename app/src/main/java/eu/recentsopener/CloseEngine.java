@@ -0,0 +1,274 @@
+package eu.recentsopener;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * CloseEngine decides how a package is closed, trying the cheapest way
+ * first:
+ *
+ * <ol>
+ *   <li>{@link Tier#ALREADY_STOPPED}: the package is flagged as stopped, so
+ *       there is nothing to do,</li>
+ *   <li>{@link Tier#KILL_BACKGROUND}: the package is not in the foreground
+ *       and {@link ActivityManager#killBackgroundProcesses} removed all of
+ *       its processes,</li>
+ *   <li>{@link Tier#SETTINGS}: the force-stop automation on the app details
+ *       page in the system settings ({@link ForceStopSequence}).</li>
+ * </ol>
+ *
+ * The kill is only accepted if it can be verified: the process list must
+ * no longer contain the package. Since Android 5.1 the process list only
+ * shows the caller's own processes on most devices, so a kill can never be
+ * verified there. This is detected once per process, and the kill tier is
+ * then skipped entirely instead of costing a kill call and the
+ * verification wait before every settings automation. An unverified kill
+ * falls back to the settings automation. Packages closed by a verified
+ * kill are reported as stopped to the recents list until they come to the
+ * foreground again, because a kill does not set the stopped flag.
+ *
+ * Per-tier counts and timings are kept for the lifetime of the process and
+ * logged after every close, so it can be seen how many closes skipped the
+ * round trip through the settings UI.
+ */
+public final class CloseEngine {
+    private static final String TAG = "CloseEngine";
+
+    /** Number of times the process list is checked after a kill. */
+    private static final int VERIFY_ATTEMPTS = 5;
+    /** Delay between two checks of the process list. */
+    private static final long VERIFY_INTERVAL_MS = 50L;
+
+    /** Way a package was closed. */
+    public enum Tier { ALREADY_STOPPED, KILL_BACKGROUND, SETTINGS }
+
+    /** Receives the result of {@link #tryFastClose} on the main thread. */
+    public interface FastCloseCallback {
+        /**
+         * @param tier the tier that closed the package, or null if the
+         *             settings automation is needed
+         */
+        void onFastCloseResult(Tier tier);
+    }
+
+    private static CloseEngine sInstance;
+
+    private final Context appContext;
+    private final ActivityManager activityManager;
+    private final Handler worker;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Packages closed by a verified kill and not in the foreground since. */
+    private final Set<String> killed = Collections.synchronizedSet(new HashSet<>());
+
+    /**
+     * Whether the process list shows processes of other apps, or null until
+     * checked. Only accessed on the worker thread.
+     */
+    private Boolean othersVisible;
+
+    private final Object statsLock = new Object();
+    private final int[] attempts = new int[Tier.values().length];
+    private final int[] successes = new int[Tier.values().length];
+    private final long[] totalMs = new long[Tier.values().length];
+
+    private CloseEngine(Context context) {
+        appContext = context.getApplicationContext();
+        activityManager = (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+        HandlerThread thread = new HandlerThread("CloseEngine", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        worker = new Handler(thread.getLooper());
+    }
+
+    /** Returns the process-wide engine, creating it on first use. */
+    public static synchronized CloseEngine getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CloseEngine(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Tries to close a package without the settings UI. Runs on a background
+     * thread and reports to the callback on the main thread.
+     */
+    public void tryFastClose(String packageName, FastCloseCallback callback) {
+        worker.post(() -> {
+            Tier tier = fastClose(packageName);
+            mainHandler.post(() -> callback.onFastCloseResult(tier));
+        });
+    }
+
+    /** Records a close through the settings automation. */
+    public void recordSettingsClose(String packageName, ForceStopSequence.Outcome outcome, long durationMs) {
+        record(Tier.SETTINGS, outcome == ForceStopSequence.Outcome.SUCCESS
+                || outcome == ForceStopSequence.Outcome.BUTTON_DISABLED, durationMs);
+        logStats(packageName, Tier.SETTINGS);
+    }
+
+    /**
+     * Returns true if the package was closed by a verified kill and has not
+     * been in the foreground since.
+     */
+    public boolean isKilled(String packageName) {
+        return killed.contains(packageName);
+    }
+
+    /** Called when a package comes to the foreground; it is running again. */
+    public void onForeground(String packageName) {
+        killed.remove(packageName);
+    }
+
+    /** Returns the number of closes attempted with a tier. */
+    public int getAttemptCount(Tier tier) {
+        synchronized (statsLock) {
+            return attempts[tier.ordinal()];
+        }
+    }
+
+    /** Returns the number of packages a tier closed. */
+    public int getSuccessCount(Tier tier) {
+        synchronized (statsLock) {
+            return successes[tier.ordinal()];
+        }
+    }
+
+    /** Returns the total time spent in a tier in milliseconds. */
+    public long getTotalMillis(Tier tier) {
+        synchronized (statsLock) {
+            return totalMs[tier.ordinal()];
+        }
+    }
+
+    /** Returns one line per tier with attempts, successes and average time. */
+    public String getStatsSummary() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (statsLock) {
+            for (Tier tier : Tier.values()) {
+                int i = tier.ordinal();
+                sb.append(tier).append(": ").append(successes[i]).append('/').append(attempts[i])
+                        .append(" closed, avg ")
+                        .append(attempts[i] > 0 ? totalMs[i] / attempts[i] : 0).append(" ms\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private Tier fastClose(String packageName) {
+        long startedAt = SystemClock.uptimeMillis();
+        if (isStopped(packageName)) {
+            record(Tier.ALREADY_STOPPED, true, SystemClock.uptimeMillis() - startedAt);
+            logStats(packageName, Tier.ALREADY_STOPPED);
+            return Tier.ALREADY_STOPPED;
+        }
+        // The foreground app cannot be killed as a background process
+        if (activityManager == null || !canVerifyKills()
+                || packageName.equals(RecentsEngine.getInstance(appContext).getLiveForeground())) {
+            return null;
+        }
+        boolean verified = false;
+        try {
+            activityManager.killBackgroundProcesses(packageName);
+            verified = verifyGone(packageName);
+        } catch (SecurityException e) {
+            Log.w(TAG, "Cannot kill " + packageName + ": " + e.getMessage());
+        }
+        record(Tier.KILL_BACKGROUND, verified, SystemClock.uptimeMillis() - startedAt);
+        if (verified) {
+            killed.add(packageName);
+            logStats(packageName, Tier.KILL_BACKGROUND);
+            return Tier.KILL_BACKGROUND;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the process list shows processes of other apps, so
+     * that a kill can be verified. Checked on first use only; the
+     * restriction does not change while the process runs.
+     */
+    private boolean canVerifyKills() {
+        if (othersVisible == null) {
+            boolean visible = false;
+            List<ActivityManager.RunningAppProcessInfo> processes = activityManager.getRunningAppProcesses();
+            if (processes != null) {
+                for (ActivityManager.RunningAppProcessInfo process : processes) {
+                    if (process.uid != Process.myUid()) {
+                        visible = true;
+                        break;
+                    }
+                }
+            }
+            othersVisible = visible;
+            if (!visible) {
+                Log.i(TAG, "Only our own processes are listed; skipping " + Tier.KILL_BACKGROUND);
+            }
+        }
+        return othersVisible;
+    }
+
+    /**
+     * Waits briefly for the processes of the package to disappear. Returns
+     * false if they remain.
+     */
+    private boolean verifyGone(String packageName) {
+        for (int attempt = 0; attempt < VERIFY_ATTEMPTS; attempt++) {
+            List<ActivityManager.RunningAppProcessInfo> processes = activityManager.getRunningAppProcesses();
+            if (processes == null) {
+                return false;
+            }
+            boolean running = false;
+            for (ActivityManager.RunningAppProcessInfo process : processes) {
+                if (process.pkgList != null) {
+                    for (String pkg : process.pkgList) {
+                        if (packageName.equals(pkg)) {
+                            running = true;
+                        }
+                    }
+                }
+            }
+            if (!running) {
+                return true;
+            }
+            SystemClock.sleep(VERIFY_INTERVAL_MS);
+        }
+        return false;
+    }
+
+    private boolean isStopped(String packageName) {
+        try {
+            ApplicationInfo info = appContext.getPackageManager().getApplicationInfo(packageName, 0);
+            return (info.flags & ApplicationInfo.FLAG_STOPPED) != 0;
+        } catch (PackageManager.NameNotFoundException e) {
+            // Uninstalled packages need no closing either
+            return true;
+        }
+    }
+
+    private void record(Tier tier, boolean success, long durationMs) {
+        synchronized (statsLock) {
+            attempts[tier.ordinal()]++;
+            if (success) {
+                successes[tier.ordinal()]++;
+            }
+            totalMs[tier.ordinal()] += durationMs;
+        }
+    }
+
+    private void logStats(String packageName, Tier tier) {
+        Log.d(TAG, packageName + " closed via " + tier + "\n" + getStatsSummary());
+    }
+}
@@ -0,0 +1,205 @@
+package eu.recentsopener;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CloseQueue force-stops a list of packages one after another through
+ * {@link RecentsAccessibilityService}. Each package is first offered to the
+ * {@link CloseEngine}, which closes it without any UI if it can. Otherwise
+ * the queue opens the app details page in the system settings and runs a
+ * {@link ForceStopSequence} on it. The next package is started as soon as
+ * the previous sequence has finished and the screen behind the details page
+ * is back, instead of in fixed time slots, so a bulk close takes as long as
+ * the device needs. If the screen does not visibly return, the queue moves
+ * on after the return time learned by the {@link DelayTuner}.
+ *
+ * After every package the recents list is refreshed, so closed apps
+ * disappear one by one, and the {@link Listener} is told about the progress.
+ * A queue can be cancelled at any time; the running sequence is then
+ * abandoned and the remaining packages are skipped.
+ *
+ * Instances are single use and must only be touched on the main thread.
+ */
+public final class CloseQueue {
+    private static final String TAG = "CloseQueue";
+
+    /** Receives the progress of a queue on the main thread. */
+    public interface Listener {
+        /**
+         * Called after a package has been handled.
+         *
+         * @param done  number of packages handled so far, including this one
+         * @param total number of packages in the queue
+         */
+        void onAppClosed(String packageName, ForceStopSequence.Outcome outcome, int done, int total);
+
+        /**
+         * Called once when the queue has finished or was cancelled.
+         *
+         * @param stopped number of packages that were force-stopped
+         */
+        void onQueueFinished(boolean cancelled, int stopped, int total);
+    }
+
+    private final RecentsAccessibilityService service;
+    private final List<String> packages;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private int index = -1;
+    private int stopped;
+    private boolean finished;
+    /** True between the end of a sequence and the start of the next package. */
+    private boolean awaitingReturn;
+    /** Uptime at which the last sequence pressed BACK. */
+    private long backPressedAt;
+    /** Uptime at which closing the current package started. */
+    private long packageStartedAt;
+
+    private final Runnable next = this::startNext;
+
+    /** Starts the next package if our screen did not visibly return in time. */
+    private final Runnable returnTimeout = () -> {
+        DelayTuner.getInstance(this.service).recordTimeout(DelayTuner.Phase.RETURN);
+        startNext();
+    };
+
+    CloseQueue(RecentsAccessibilityService service, List<String> packages, Listener listener) {
+        this.service = service;
+        this.packages = new ArrayList<>(packages);
+        this.listener = listener;
+    }
+
+    /** Starts closing the first package. */
+    void start() {
+        startNext();
+    }
+
+    /** Returns true until the queue has finished or was cancelled. */
+    public boolean isRunning() {
+        return !finished;
+    }
+
+    /** Returns the number of packages in the queue. */
+    public int size() {
+        return packages.size();
+    }
+
+    /**
+     * Cancels the queue. The running force-stop sequence is abandoned
+     * without pressing BACK and the remaining packages are skipped.
+     */
+    public void cancel() {
+        if (finished) {
+            return;
+        }
+        Log.d(TAG, "Cancelled after " + Math.max(index, 0) + " of " + packages.size());
+        finish(true);
+        service.cancelForceStop();
+    }
+
+    /**
+     * Called by the service for every window state change. Once our own
+     * screen is back after a sequence, the next package is started right away.
+     */
+    void onWindowStateChanged(String packageName) {
+        if (awaitingReturn && service.getPackageName().equals(packageName)) {
+            handler.removeCallbacks(returnTimeout);
+            DelayTuner.getInstance(service).record(DelayTuner.Phase.RETURN,
+                    SystemClock.uptimeMillis() - backPressedAt);
+            startNext();
+        }
+    }
+
+    private void startNext() {
+        awaitingReturn = false;
+        if (finished) {
+            return;
+        }
+        index++;
+        if (index >= packages.size()) {
+            finish(false);
+            return;
+        }
+        String pkg = packages.get(index);
+        packageStartedAt = SystemClock.uptimeMillis();
+        // Packages that can be closed without the settings UI skip the round trip
+        CloseEngine.getInstance(service).tryFastClose(pkg, tier -> {
+            if (finished) {
+                return;
+            }
+            if (tier != null) {
+                onSequenceFinished(pkg, ForceStopSequence.Outcome.SUCCESS, false);
+            } else {
+                closeViaSettings(pkg);
+            }
+        });
+    }
+
+    private void closeViaSettings(String pkg) {
+        Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
+        intent.setData(Uri.parse("package:" + pkg));
+        // Without CLEAR_TOP some devices refuse to open a new details page while
+        // an existing one is still on the task stack.
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        try {
+            service.startActivity(intent);
+        } catch (Exception e) {
+            Log.w(TAG, pkg + " cannot be opened in settings: " + e.getMessage());
+            onSequenceFinished(pkg, ForceStopSequence.Outcome.TIMEOUT, false);
+            return;
+        }
+        service.performForceStopSequence((outcome, durationMs) -> {
+            if (outcome == ForceStopSequence.Outcome.CANCELLED) {
+                // Replaced by a force stop started elsewhere; the queue cannot continue
+                if (!finished) {
+                    finish(true);
+                }
+            } else {
+                CloseEngine.getInstance(service).recordSettingsClose(pkg, outcome, durationMs);
+                onSequenceFinished(pkg, outcome, true);
+            }
+        });
+    }
+
+    private void onSequenceFinished(String pkg, ForceStopSequence.Outcome outcome, boolean pressedBack) {
+        if (finished) {
+            return;
+        }
+        if (outcome == ForceStopSequence.Outcome.SUCCESS) {
+            stopped++;
+        }
+        Metrics.CLOSE_MS.record(SystemClock.uptimeMillis() - packageStartedAt);
+        // Let the list drop the app now rather than after the whole queue
+        RecentsRefresher.getInstance(service).requestRefresh();
+        listener.onAppClosed(pkg, outcome, index + 1, packages.size());
+        if (pressedBack) {
+            // Opening the next page before the BACK press has been handled could let
+            // the press close the new page instead, so wait for our screen to return.
+            awaitingReturn = true;
+            backPressedAt = SystemClock.uptimeMillis();
+            handler.postDelayed(returnTimeout, DelayTuner.getInstance(service).getTimeout(DelayTuner.Phase.RETURN));
+        } else {
+            handler.post(next);
+        }
+    }
+
+    private void finish(boolean cancelled) {
+        finished = true;
+        awaitingReturn = false;
+        handler.removeCallbacks(next);
+        handler.removeCallbacks(returnTimeout);
+        DelayTuner.logSummary(service);
+        service.onCloseQueueFinished(this);
+        listener.onQueueFinished(cancelled, stopped, packages.size());
+    }
+}
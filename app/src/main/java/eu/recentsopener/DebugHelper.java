@@ -1,17 +1,35 @@
 package eu.recentsopener;
 
-import android.app.usage.UsageEvents;
 import android.app.usage.UsageStats;
 import android.app.usage.UsageStatsManager;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
 
+import eu.recentsopener.engine.ReplayEventSource;
+import eu.recentsopener.engine.UsageEventSource;
+
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * DebugHelper provides methods to generate a diagnostic report of usage
@@ -19,89 +37,377 @@ import java.util.Locale;
  * file in the app's external files directory so that the user can retrieve
  * it via a file manager. This helper is intended for troubleshooting cases
  * where certain apps do not appear in the recents list.
+ *
+ * The UsageEvents section uses the {@code timestamp,eventType,package}
+ * format read by {@link ReplayEventSource}, so a report can be replayed
+ * off the device to reproduce what the recents logic saw.
+ *
+ * Reports are written on a background thread as a stream: events go
+ * through one reused formatter and a buffered writer straight to the file,
+ * optionally gzip-compressed, and windows longer than the engine retains
+ * are queried from the system in chunks. A report stops taking events once
+ * the file reaches {@link #MAX_REPORT_BYTES}, and only the newest
+ * {@link #MAX_REPORTS} reports are kept, so even multi-day windows neither
+ * block the UI nor fill the storage.
  */
 public final class DebugHelper {
+    private static final String TAG = "DebugHelper";
+
+    /** Window of the report collected by a click on the button. */
+    public static final long DEFAULT_DURATION_MS = 1000L * 60 * 5;
+
+    /** Window of the long report, collected by a long press on the button. */
+    public static final long LONG_DURATION_MS = 1000L * 60 * 60 * 24 * 7;
+
+    /** Approximate size at which a report stops taking events. */
+    static final long MAX_REPORT_BYTES = 16L * 1024 * 1024;
+
+    /** Number of reports kept; older ones are deleted. */
+    static final int MAX_REPORTS = 10;
+
+    private static final String FILE_PREFIX = "debug_report_";
+
+    /** Length of one system query when a window exceeds the engine's retention. */
+    private static final long QUERY_CHUNK_MS = 1000L * 60 * 60 * 6;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Minimum time between two progress updates. */
+    private static final long PROGRESS_INTERVAL_MS = 250L;
+
+    /**
+     * Time format of whole seconds; {@link ReplayEventSource#REPORT_TIME_FORMAT}
+     * without the milliseconds, which are appended separately.
+     */
+    private static final String SECOND_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+    /** Receives the progress of a report on the main thread. */
+    public interface Listener {
+        /** @param percent share of the report's time window written so far */
+        void onProgress(int percent);
+
+        /** @param report the written file, or null if writing failed */
+        void onFinished(File report);
+    }
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "debug-report");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private static final AtomicBoolean sRunning = new AtomicBoolean(false);
+
     private DebugHelper() {
         // no instances
     }
 
+    /** Returns true while a report is being written. */
+    public static boolean isRunning() {
+        return sRunning.get();
+    }
+
     /**
      * Collects usage events and statistics for the last {@code durationMs}
-     * milliseconds and writes them to a file. The report includes the
-     * timestamp, event type and package name for each usage event,
-     * followed by a summary of aggregated usage stats (package name,
-     * lastTimeUsed, totalTimeInForeground). The list of excluded apps
-     * and the last/previous packages are also recorded. A toast message
-     * is shown indicating where the file was saved.
+     * milliseconds and writes them to a file in the background. The report
+     * includes the timestamp, event type and package name for each usage
+     * event, followed by a summary of aggregated usage stats (package name,
+     * lastTimeUsed, totalTimeInForeground). The list of excluded apps, the
+     * last/previous packages and the performance metrics are also recorded.
+     * A toast message is shown indicating where the file was saved.
      *
-     * @param context application context used for accessing system services and file system
+     * @param context    context used for accessing system services and file system
      * @param durationMs time range in milliseconds to include in the report
+     * @param compress   true to gzip the report
+     * @param listener   receives progress on the main thread; may be null
+     * @return false if another report is still being written
+     */
+    public static boolean collectDebugInfo(Context context, long durationMs, boolean compress,
+                                           Listener listener) {
+        if (!sRunning.compareAndSet(false, true)) {
+            return false;
+        }
+        Context appContext = context.getApplicationContext();
+        sExecutor.execute(() -> {
+            File report = null;
+            String error = null;
+            try {
+                report = writeReport(appContext, durationMs, compress, listener);
+                pruneReports(report.getParentFile());
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Debug report failed", e);
+                error = e.getMessage();
+            } finally {
+                sRunning.set(false);
+            }
+            File result = report;
+            String message = result != null
+                    ? appContext.getString(R.string.debug_report_saved, result.getAbsolutePath())
+                    : appContext.getString(R.string.debug_report_failed, error);
+            sMainHandler.post(() -> {
+                android.widget.Toast.makeText(appContext, message,
+                        android.widget.Toast.LENGTH_LONG).show();
+                if (listener != null) {
+                    listener.onFinished(result);
+                }
+            });
+        });
+        return true;
+    }
+
+    /**
+     * Collects an uncompressed report of the given window in the background.
+     *
+     * @see #collectDebugInfo(Context, long, boolean, Listener)
      */
     public static void collectDebugInfo(Context context, long durationMs) {
+        collectDebugInfo(context, durationMs, false, null);
+    }
+
+    /**
+     * Collects usage events and statistics for a default time range (5 minutes).
+     * This method calls {@link #collectDebugInfo(Context, long)} with a
+     * predefined duration. It is kept for backwards compatibility.
+     *
+     * @param context application context used for accessing system services and file system
+     */
+    public static void collectDebugInfo(Context context) {
+        collectDebugInfo(context, DEFAULT_DURATION_MS);
+    }
+
+    private static File writeReport(Context context, long durationMs, boolean compress,
+                                    Listener listener) throws IOException {
         long end = System.currentTimeMillis();
         long begin = end - durationMs;
-        UsageStatsManager usm = (UsageStatsManager) context.getSystemService(Context.USAGE_STATS_SERVICE);
         // Determine output directory: prefer external files, fall back to internal
         File dir = context.getExternalFilesDir(null);
         if (dir == null) {
             dir = context.getFilesDir();
         }
-        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
-        File outFile = new File(dir, "debug_report_" + timestamp + ".txt");
-        FileWriter writer = null;
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date(end));
+        File outFile = new File(dir, FILE_PREFIX + timestamp + (compress ? ".txt.gz" : ".txt"));
+        Progress progress = new Progress(listener, begin, end);
+        CountingOutputStream counter = new CountingOutputStream(new FileOutputStream(outFile));
+        boolean complete = false;
         try {
-            writer = new FileWriter(outFile);
-            writer.write("Debug report generated at " + new Date().toString() + "\n\n");
-            // Write excluded apps and history
-            writer.write("Excluded apps: " + PrefsHelper.getExcludedApps(context) + "\n");
-            writer.write("Last package: " + PrefsHelper.getLastPackage(context) + "\n");
-            writer.write("Previous package: " + PrefsHelper.getPreviousPackage(context) + "\n\n");
-            // Write usage events
-            writer.write("UsageEvents (last " + durationMs / 1000 + "s):\n");
-            UsageEvents events = usm.queryEvents(begin, end);
-            UsageEvents.Event event = new UsageEvents.Event();
-            while (events != null && events.hasNextEvent()) {
-                events.getNextEvent(event);
-                String time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US)
-                        .format(new Date(event.getTimeStamp()));
-                writer.write(time + "," + event.getEventType() + "," + event.getPackageName() + "\n");
-            }
-            writer.write("\nUsageStats (last " + durationMs / 1000 + "s):\n");
-            List<UsageStats> stats = usm.queryUsageStats(UsageStatsManager.INTERVAL_DAILY, begin, end);
-            if (stats != null) {
-                for (UsageStats s : stats) {
-                    writer.write(s.getPackageName() + "," + s.getLastTimeUsed() + "," + s.getTotalTimeInForeground() + "\n");
+            OutputStream stream = compress ? new GZIPOutputStream(counter, BUFFER_SIZE) : counter;
+            try (Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                writer.write("Debug report generated at " + new Date(end) + "\n\n");
+                // Write excluded apps and history
+                writer.write("Excluded apps: " + PrefsHelper.getExcludedApps(context) + "\n");
+                writer.write("Last package: " + PrefsHelper.getLastPackage(context) + "\n");
+                writer.write("Previous package: " + PrefsHelper.getPreviousPackage(context) + "\n\n");
+                // Write usage events
+                writer.write("UsageEvents (last " + durationMs / 1000 + "s):\n");
+                EventWriter events = new EventWriter(writer, counter, progress);
+                if (durationMs <= RecentsEngine.MAX_WINDOW_MS) {
+                    // Serve the report from the shared engine's event log
+                    RecentsEngine engine = RecentsEngine.getInstance(context);
+                    engine.sync(durationMs);
+                    engine.forEachEvent(durationMs, events::visit);
+                } else {
+                    // Windows longer than the engine retains are queried directly, in
+                    // chunks so that no single query result has to hold days of events
+                    LiveUsageEventSource source = LiveUsageEventSource.create(context);
+                    for (long from = begin; source != null && from < end && !events.isStopped();
+                         from += QUERY_CHUNK_MS) {
+                        source.readEvents(from, Math.min(end, from + QUERY_CHUNK_MS), events);
+                    }
                 }
+                events.throwFailure();
+                if (events.truncated) {
+                    writer.write("... truncated after " + events.written + " events\n");
+                }
+                writer.write("\nUsageStats (last " + durationMs / 1000 + "s):\n");
+                UsageStatsManager usm = (UsageStatsManager) context.getSystemService(Context.USAGE_STATS_SERVICE);
+                List<UsageStats> stats = usm != null
+                        ? usm.queryUsageStats(UsageStatsManager.INTERVAL_DAILY, begin, end) : null;
+                if (stats != null) {
+                    for (UsageStats s : stats) {
+                        if (counter.getCount() >= MAX_REPORT_BYTES) {
+                            writer.write("... truncated\n");
+                            break;
+                        }
+                        writer.write(s.getPackageName() + "," + s.getLastTimeUsed() + "," + s.getTotalTimeInForeground() + "\n");
+                    }
+                }
+                writer.write("\nPerformance metrics:\n");
+                writer.write(Metrics.report(context));
             }
-            writer.flush();
-            // Show a toast with the saved report path using string resources
-            String msg = context.getString(R.string.debug_report_saved, outFile.getAbsolutePath());
-            android.widget.Toast.makeText(context, msg,
-                    android.widget.Toast.LENGTH_LONG).show();
-        } catch (IOException e) {
-            String errMsg = context.getString(R.string.debug_report_failed, e.getMessage());
-            android.widget.Toast.makeText(context, errMsg,
-                    android.widget.Toast.LENGTH_LONG).show();
+            complete = true;
         } finally {
-            if (writer != null) {
-                try {
-                    writer.close();
-                } catch (IOException ignore) {
-                    // ignored
-                }
+            if (!complete) {
+                counter.close();
+                //noinspection ResultOfMethodCallIgnored
+                outFile.delete();
+            }
+        }
+        progress.finish();
+        Log.d(TAG, "Wrote " + outFile.getName() + ": " + outFile.length() + " bytes");
+        return outFile;
+    }
+
+    /** Deletes all but the newest {@link #MAX_REPORTS} reports in the directory. */
+    private static void pruneReports(File dir) {
+        File[] reports = dir != null ? dir.listFiles((d, name) -> name.startsWith(FILE_PREFIX)) : null;
+        if (reports == null || reports.length <= MAX_REPORTS) {
+            return;
+        }
+        // Names embed the creation time, so they sort oldest first
+        Arrays.sort(reports, (a, b) -> a.getName().compareTo(b.getName()));
+        for (int i = 0; i < reports.length - MAX_REPORTS; i++) {
+            if (!reports[i].delete()) {
+                Log.w(TAG, "Cannot delete " + reports[i]);
             }
         }
     }
 
     /**
-     * Collects usage events and statistics for a default time range (5 minutes).
-     * This method calls {@link #collectDebugInfo(Context, long)} with a
-     * predefined duration. It is kept for backwards compatibility.
-     *
-     * @param context application context used for accessing system services and file system
+     * Writes one line per event. The date part is formatted once per second
+     * and reused; the line is assembled in a reused buffer, so writing an
+     * event allocates nothing while the second does not change.
      */
-    public static void collectDebugInfo(Context context) {
-        // Default to last 5 minutes (300 seconds)
-        collectDebugInfo(context, 1000L * 60 * 5);
+    private static final class EventWriter implements UsageEventSource.Visitor {
+        private final Writer out;
+        private final CountingOutputStream counter;
+        private final Progress progress;
+        private final SimpleDateFormat secondFormat = new SimpleDateFormat(SECOND_FORMAT, Locale.US);
+        private final StringBuilder line = new StringBuilder(128);
+        private char[] chars = new char[128];
+        private long cachedSecond = Long.MIN_VALUE;
+        private String cachedPrefix;
+        private IOException failure;
+        boolean truncated;
+        long written;
+
+        EventWriter(Writer out, CountingOutputStream counter, Progress progress) {
+            this.out = out;
+            this.counter = counter;
+            this.progress = progress;
+        }
+
+        boolean isStopped() {
+            return failure != null || truncated;
+        }
+
+        void throwFailure() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        @Override
+        public void visit(long timestamp, int eventType, String packageName) {
+            if (isStopped()) {
+                return;
+            }
+            if (counter.getCount() >= MAX_REPORT_BYTES) {
+                truncated = true;
+                return;
+            }
+            long second = timestamp / 1000;
+            if (second != cachedSecond) {
+                cachedSecond = second;
+                cachedPrefix = secondFormat.format(new Date(second * 1000));
+            }
+            int millis = (int) (timestamp - second * 1000);
+            line.setLength(0);
+            line.append(cachedPrefix).append('.');
+            if (millis < 100) {
+                line.append('0');
+            }
+            if (millis < 10) {
+                line.append('0');
+            }
+            line.append(millis).append(',').append(eventType).append(',')
+                    .append(packageName).append('\n');
+            int length = line.length();
+            if (length > chars.length) {
+                chars = new char[length * 2];
+            }
+            line.getChars(0, length, chars, 0);
+            try {
+                out.write(chars, 0, length);
+            } catch (IOException e) {
+                failure = e;
+                return;
+            }
+            written++;
+            progress.update(timestamp);
+        }
+    }
+
+    /** Reports how far through the time window the report is, at a limited rate. */
+    private static final class Progress {
+        private final Listener listener;
+        private final long begin;
+        private final long span;
+        private long lastPostAt;
+        private int lastPercent = -1;
+
+        Progress(Listener listener, long begin, long end) {
+            this.listener = listener;
+            this.begin = begin;
+            this.span = Math.max(1L, end - begin);
+        }
+
+        void update(long timestamp) {
+            if (listener == null) {
+                return;
+            }
+            long now = SystemClock.uptimeMillis();
+            if (now - lastPostAt < PROGRESS_INTERVAL_MS) {
+                return;
+            }
+            lastPostAt = now;
+            // The statistics and metrics after the events take the last few percent
+            int percent = (int) Math.max(0L, Math.min(95L, (timestamp - begin) * 95 / span));
+            post(percent);
+        }
+
+        void finish() {
+            if (listener != null) {
+                post(100);
+            }
+        }
+
+        private void post(int percent) {
+            if (percent == lastPercent) {
+                return;
+            }
+            lastPercent = percent;
+            sMainHandler.post(() -> listener.onProgress(percent));
+        }
+    }
+
+    /** Counts the bytes that reach the file, i.e. after compression. */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
     }
-}
\ No newline at end of file
+}
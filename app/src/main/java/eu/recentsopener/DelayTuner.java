@@ -0,0 +1,134 @@
+package eu.recentsopener;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import eu.recentsopener.engine.WaitEstimator;
+
+/**
+ * DelayTuner learns how long the phases of the close automation take on
+ * this device and derives the time the automation waits for each phase
+ * before giving up. It replaces hand-tuned constants, which were too
+ * generous for fast devices (a failed step held up a bulk close for
+ * seconds) and too tight for slow ones.
+ *
+ * Each {@link Phase} has its own {@link WaitEstimator}: the wait follows
+ * the 95th percentile of the recent durations of completed phases, while
+ * timeouts only count towards a backoff that doubles the wait after
+ * repeated timeouts. A device that became slower than the learned wait
+ * therefore lets the phase complete again instead of timing out for good.
+ *
+ * Samples are persisted with their time, and the timeout counts alongside
+ * them, in their own small preferences file, so tuned waits survive
+ * restarts. All methods are thread-safe.
+ */
+public final class DelayTuner {
+    private static final String TAG = "DelayTuner";
+    private static final String PREF_NAME = "delay_tuner";
+    /** Suffix of the preference holding the consecutive timeouts of a phase. */
+    private static final String TIMEOUTS_SUFFIX = "_timeouts";
+
+    /** Phase of the close automation whose duration is measured. */
+    public enum Phase {
+        /** Opening the app details page until the Force stop button is shown. */
+        DETAILS_PAGE(5000L, 1000L, 10000L),
+        /** Clicking Force stop until the confirmation dialog is shown. */
+        CONFIRM_DIALOG(3000L, 500L, 6000L),
+        /** Confirming until the dialog is gone. */
+        DIALOG_CLOSE(1000L, 300L, 3000L),
+        /** Pressing BACK on the details page until our screen is back. */
+        RETURN(1000L, 300L, 3000L);
+
+        final long defaultMs;
+        final long minMs;
+        final long maxMs;
+
+        Phase(long defaultMs, long minMs, long maxMs) {
+            this.defaultMs = defaultMs;
+            this.minMs = minMs;
+            this.maxMs = maxMs;
+        }
+    }
+
+    private static DelayTuner sInstance;
+
+    private final SharedPreferences prefs;
+    private final WaitEstimator[] estimators = new WaitEstimator[Phase.values().length];
+
+    private DelayTuner(Context context) {
+        prefs = context.getApplicationContext().getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        for (Phase phase : Phase.values()) {
+            WaitEstimator estimator = new WaitEstimator(phase.defaultMs, phase.minMs, phase.maxMs);
+            estimator.parse(prefs.getString(phase.name(), null));
+            estimator.setConsecutiveTimeouts(prefs.getInt(phase.name() + TIMEOUTS_SUFFIX, 0));
+            estimators[phase.ordinal()] = estimator;
+        }
+    }
+
+    /** Returns the process-wide tuner, creating it on first use. */
+    public static synchronized DelayTuner getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DelayTuner(context);
+        }
+        return sInstance;
+    }
+
+    /** Records how long a phase took that completed; ends its backoff. */
+    public void record(Phase phase, long durationMs) {
+        String serialized;
+        synchronized (this) {
+            WaitEstimator estimator = estimators[phase.ordinal()];
+            estimator.record(durationMs, System.currentTimeMillis());
+            serialized = estimator.serialize();
+        }
+        prefs.edit().putString(phase.name(), serialized)
+                .putInt(phase.name() + TIMEOUTS_SUFFIX, 0).apply();
+    }
+
+    /**
+     * Records that a phase did not complete within its wait. No sample is
+     * recorded; repeated timeouts raise the wait through the backoff.
+     */
+    public void recordTimeout(Phase phase) {
+        int timeouts;
+        synchronized (this) {
+            WaitEstimator estimator = estimators[phase.ordinal()];
+            estimator.recordTimeout();
+            timeouts = estimator.getConsecutiveTimeouts();
+        }
+        prefs.edit().putInt(phase.name() + TIMEOUTS_SUFFIX, timeouts).apply();
+    }
+
+    /** Returns how long to wait for a phase before giving up. */
+    public synchronized long getTimeout(Phase phase) {
+        return estimators[phase.ordinal()].getTimeout(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the given percentile of the recent samples of a phase, or -1
+     * if there are none.
+     */
+    public synchronized long percentile(Phase phase, int percent) {
+        return estimators[phase.ordinal()].percentile(percent, System.currentTimeMillis());
+    }
+
+    /** Returns the learned percentiles and waits of all phases for logging. */
+    public synchronized String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        long now = System.currentTimeMillis();
+        for (Phase phase : Phase.values()) {
+            WaitEstimator estimator = estimators[phase.ordinal()];
+            sb.append(phase).append(": n=").append(estimator.getSampleCount(now))
+                    .append(", p50=").append(estimator.percentile(50, now))
+                    .append(" ms, p95=").append(estimator.percentile(95, now))
+                    .append(" ms, timeouts=").append(estimator.getConsecutiveTimeouts())
+                    .append(", wait=").append(estimator.getTimeout(now)).append(" ms\n");
+        }
+        return sb.toString();
+    }
+
+    static void logSummary(Context context) {
+        Log.d(TAG, getInstance(context).getSummary());
+    }
+}
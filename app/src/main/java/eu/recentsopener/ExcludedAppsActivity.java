@@ -38,14 +38,13 @@ public class ExcludedAppsActivity extends AppCompatActivity {
         }
         // Build a list of entries with icon and label for each excluded package
         PackageManager pm = getPackageManager();
+        AppMetadataCache metadata = AppMetadataCache.getInstance(this);
         List<ExcludedEntry> entries = new ArrayList<>();
         for (String pkg : excluded) {
-            try {
-                ApplicationInfo info = pm.getApplicationInfo(pkg, 0);
-                String label = pm.getApplicationLabel(info).toString();
-                Drawable icon = pm.getApplicationIcon(info);
-                entries.add(new ExcludedEntry(pkg, label, icon));
-            } catch (PackageManager.NameNotFoundException e) {
+            AppMetadataCache.Entry meta = metadata.get(pkg);
+            if (meta != null) {
+                entries.add(new ExcludedEntry(pkg, meta.label, meta.icon));
+            } else {
                 // fallback: use package name as label and default icon
                 entries.add(new ExcludedEntry(pkg, pkg, pm.getDefaultActivityIcon()));
             }
@@ -0,0 +1,246 @@
+package eu.recentsopener;
+
+import android.accessibilityservice.AccessibilityService;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.accessibility.AccessibilityEvent;
+
+/**
+ * ForceStopSequence drives the "Force stop" button of an app details page in
+ * the system settings. It is a small state machine advanced by
+ * TYPE_WINDOW_STATE_CHANGED and TYPE_WINDOW_CONTENT_CHANGED events that
+ * {@link RecentsAccessibilityService} forwards to it:
+ *
+ * <ol>
+ *   <li>{@link State#WAIT_BUTTON}: wait until the Force stop button is shown
+ *       and click it,</li>
+ *   <li>{@link State#WAIT_DIALOG}: wait for the confirmation dialog and
+ *       confirm it,</li>
+ *   <li>{@link State#WAIT_DIALOG_CLOSED}: wait until the dialog is gone and
+ *       go back to the previous screen.</li>
+ * </ol>
+ *
+ * Each step proceeds as soon as the UI shows what it waits for, so a close
+ * takes exactly as long as the settings app needs. Each step also has its
+ * own timeout after which the sequence gives up; the timeouts are learned
+ * from the measured step durations by the {@link DelayTuner}. The outcome is reported
+ * once through a {@link Callback}. Like the fixed-delay sequence it
+ * replaces, every sequence ends with a single BACK press.
+ *
+ * Instances are single use and must only be touched on the main thread.
+ */
+public final class ForceStopSequence {
+    private static final String TAG = "ForceStopSequence";
+
+    /**
+     * Time a disabled Force stop button must stay disabled before the app is
+     * considered stopped. Settings may show the button disabled at first and
+     * enable it once the app has answered whether it is still running.
+     */
+    private static final long DISABLED_SETTLE_MS = 400L;
+
+    /** Result of a sequence. */
+    public enum Outcome {
+        /** The app was force-stopped. */
+        SUCCESS,
+        /** The Force stop button was disabled; the app was not running. */
+        BUTTON_DISABLED,
+        /** A step did not complete within its timeout. */
+        TIMEOUT,
+        /** The sequence was cancelled or replaced by another one. */
+        CANCELLED
+    }
+
+    private enum State { WAIT_BUTTON, WAIT_DIALOG, WAIT_DIALOG_CLOSED, DONE }
+
+    /** Receives the outcome of a sequence on the main thread. */
+    public interface Callback {
+        void onForceStopFinished(Outcome outcome, long durationMs);
+    }
+
+    private final RecentsAccessibilityService service;
+    private final Callback callback;
+    private final DelayTuner tuner;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private State state = State.WAIT_BUTTON;
+    private final long startedAt = SystemClock.uptimeMillis();
+    private long stepStartedAt = startedAt;
+    /** Uptime since which the button has been seen disabled, or -1. */
+    private long disabledSince = -1L;
+    private boolean evaluatePending;
+
+    private final Runnable evaluate = new Runnable() {
+        @Override
+        public void run() {
+            evaluatePending = false;
+            step();
+        }
+    };
+
+    private final Runnable timeout = new Runnable() {
+        @Override
+        public void run() {
+            if (state == State.WAIT_DIALOG_CLOSED) {
+                // The stop was confirmed; only the dialog was slow to close,
+                // which the backoff of DIALOG_CLOSE gives more time next time
+                finish(Outcome.SUCCESS, true);
+            } else {
+                Log.w(TAG, "Timed out in " + state);
+                finish(Outcome.TIMEOUT, true);
+            }
+        }
+    };
+
+    ForceStopSequence(RecentsAccessibilityService service, Callback callback) {
+        this.service = service;
+        this.callback = callback;
+        this.tuner = DelayTuner.getInstance(service);
+    }
+
+    /** Starts waiting for the Force stop button; the page may already be shown. */
+    void start() {
+        handler.postDelayed(timeout, tuner.getTimeout(DelayTuner.Phase.DETAILS_PAGE));
+        scheduleEvaluate(0);
+    }
+
+    /** Returns true until an outcome has been reported. */
+    boolean isActive() {
+        return state != State.DONE;
+    }
+
+    /**
+     * Handles an event forwarded by the service. Window state and content
+     * changes are coalesced into one evaluation of the window tree.
+     */
+    void onEvent(AccessibilityEvent event) {
+        int type = event.getEventType();
+        if (type == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+                || type == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED) {
+            scheduleEvaluate(0);
+        }
+    }
+
+    /** Stops the sequence without pressing BACK and reports {@link Outcome#CANCELLED}. */
+    void cancel() {
+        if (state == State.DONE) {
+            return;
+        }
+        state = State.DONE;
+        handler.removeCallbacks(evaluate);
+        handler.removeCallbacks(timeout);
+        report(Outcome.CANCELLED);
+    }
+
+    private void scheduleEvaluate(long delayMs) {
+        if (evaluatePending && delayMs > 0) {
+            return;
+        }
+        handler.removeCallbacks(evaluate);
+        evaluatePending = true;
+        handler.postDelayed(evaluate, delayMs);
+    }
+
+    private void step() {
+        switch (state) {
+            case WAIT_BUTTON: {
+                int result = service.clickButtonByText(RecentsAccessibilityService.STEP_FORCE_STOP,
+                        RecentsAccessibilityService.FORCE_STOP_IDS, RecentsAccessibilityService.FORCE_STOP_TEXTS);
+                if (result == RecentsAccessibilityService.CLICK_DONE) {
+                    enter(State.WAIT_DIALOG);
+                } else if (result == RecentsAccessibilityService.CLICK_DISABLED) {
+                    long now = SystemClock.uptimeMillis();
+                    if (disabledSince < 0) {
+                        disabledSince = now;
+                    }
+                    if (now - disabledSince >= DISABLED_SETTLE_MS) {
+                        finish(Outcome.BUTTON_DISABLED, false);
+                    } else {
+                        // Content changes stop once the page is idle, so check again explicitly
+                        scheduleEvaluate(DISABLED_SETTLE_MS - (now - disabledSince));
+                    }
+                } else {
+                    disabledSince = -1L;
+                }
+                break;
+            }
+            case WAIT_DIALOG:
+                if (service.clickButtonByText(RecentsAccessibilityService.STEP_CONFIRM,
+                        RecentsAccessibilityService.CONFIRM_IDS,
+                        RecentsAccessibilityService.CONFIRM_TEXTS) == RecentsAccessibilityService.CLICK_DONE) {
+                    enter(State.WAIT_DIALOG_CLOSED);
+                }
+                break;
+            case WAIT_DIALOG_CLOSED:
+                if (!service.hasNodeWithViewId(RecentsAccessibilityService.CONFIRM_IDS)) {
+                    finish(Outcome.SUCCESS, false);
+                }
+                break;
+            case DONE:
+                break;
+        }
+    }
+
+    private void enter(State next) {
+        long now = SystemClock.uptimeMillis();
+        Log.d(TAG, state + " took " + (now - stepStartedAt) + " ms");
+        tuner.record(phaseOf(state), now - stepStartedAt);
+        Metrics.CLOSE_STEP_MS.record(now - stepStartedAt);
+        state = next;
+        stepStartedAt = now;
+        handler.removeCallbacks(timeout);
+        handler.postDelayed(timeout, tuner.getTimeout(phaseOf(next)));
+        // The next screen may already be up without another event following
+        scheduleEvaluate(0);
+    }
+
+    /**
+     * @param timedOut true if the current step did not complete but its
+     *                 timeout ended the sequence
+     */
+    private void finish(Outcome outcome, boolean timedOut) {
+        if (state == State.DONE) {
+            return;
+        }
+        long waited = SystemClock.uptimeMillis() - stepStartedAt;
+        if (timedOut) {
+            // Not a duration; repeated timeouts raise the wait through the backoff
+            tuner.recordTimeout(phaseOf(state));
+        } else if (outcome == Outcome.BUTTON_DISABLED) {
+            // The page was complete when the disabled button was first seen
+            tuner.record(phaseOf(state), disabledSince - stepStartedAt);
+            Metrics.CLOSE_STEP_MS.record(disabledSince - stepStartedAt);
+        } else {
+            tuner.record(phaseOf(state), waited);
+            Metrics.CLOSE_STEP_MS.record(waited);
+        }
+        state = State.DONE;
+        handler.removeCallbacks(evaluate);
+        handler.removeCallbacks(timeout);
+        service.performGlobalAction(AccessibilityService.GLOBAL_ACTION_BACK);
+        report(outcome);
+    }
+
+    private static DelayTuner.Phase phaseOf(State state) {
+        switch (state) {
+            case WAIT_DIALOG:
+                return DelayTuner.Phase.CONFIRM_DIALOG;
+            case WAIT_DIALOG_CLOSED:
+                return DelayTuner.Phase.DIALOG_CLOSE;
+            case WAIT_BUTTON:
+            default:
+                return DelayTuner.Phase.DETAILS_PAGE;
+        }
+    }
+
+    private void report(Outcome outcome) {
+        long duration = SystemClock.uptimeMillis() - startedAt;
+        Log.d(TAG, "Finished with " + outcome + " after " + duration + " ms");
+        service.onForceStopFinished(this);
+        if (callback != null) {
+            callback.onForceStopFinished(outcome, duration);
+        }
+    }
+}
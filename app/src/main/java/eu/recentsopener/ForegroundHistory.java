@@ -0,0 +1,125 @@
+package eu.recentsopener;
+
+import android.content.Context;
+import android.util.Log;
+
+import eu.recentsopener.engine.TransitionLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ForegroundHistory is the app's own record of foreground transitions,
+ * kept in a memory-mapped {@link TransitionLog} in the internal files
+ * directory. Whoever sees a transition appends it: the accessibility
+ * service through {@link RecentsEngine#reportForeground(String, long)} and
+ * every UsageEvents query of the {@link RecentsEngine}. The log survives
+ * process restarts and does not depend on how long the system retains
+ * usage events.
+ *
+ * Reads are served from memory without any binder call. The history is
+ * only complete once it has been seeded by a full UsageEvents sync in this
+ * process, because transitions may have happened while the process was not
+ * running, and only stays complete while the accessibility service reports
+ * new ones; see {@link #isCurrent()}. Callers fall back to the engine
+ * otherwise. Switches the service misses are caught up by an engine sync
+ * every {@link #RESYNC_INTERVAL_MS}.
+ *
+ * If the file cannot be opened the history stays empty and never reports
+ * itself current, so the app behaves as before.
+ */
+public final class ForegroundHistory {
+    private static final String TAG = "ForegroundHistory";
+
+    private static final String FILE_NAME = "foreground_transitions.log";
+
+    /** Number of transitions kept; 128 KiB of records. */
+    private static final int CAPACITY = 8192;
+
+    /** Interval of the UsageEvents sync while the history is current. */
+    static final long RESYNC_INTERVAL_MS = 1000L * 60 * 5;
+
+    private static ForegroundHistory sInstance;
+
+    /** The log, or null if it could not be opened. */
+    private final TransitionLog log;
+
+    private volatile boolean seeded;
+
+    private ForegroundHistory(Context context) {
+        File file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+        TransitionLog opened = null;
+        try {
+            opened = TransitionLog.open(file, CAPACITY);
+            Log.d(TAG, "Opened with " + opened.size() + " transitions");
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot open " + file, e);
+        }
+        log = opened;
+    }
+
+    /** Returns the process-wide history, creating it on first use. */
+    public static synchronized ForegroundHistory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForegroundHistory(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Records that a package moved to the foreground. Duplicates of a
+     * transition already logged by another source are dropped.
+     *
+     * @param source {@link TransitionLog#SOURCE_LIVE} or
+     *               {@link TransitionLog#SOURCE_USAGE_EVENTS}
+     */
+    public void append(String packageName, long timestamp, int source) {
+        if (log == null || packageName == null) {
+            return;
+        }
+        try {
+            if (log.append(packageName, timestamp, source)) {
+                Metrics.HISTORY_APPENDS.inc();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot append " + packageName, e);
+        }
+    }
+
+    /**
+     * Marks the history as complete up to now. Called after the engine has
+     * synced the full recents window, which appended every transition the
+     * system still knows about.
+     */
+    void markSeeded() {
+        seeded = log != null;
+    }
+
+    /**
+     * Returns true if the history holds every transition and can replace a
+     * UsageEvents query: it has been seeded in this process and the
+     * accessibility service is connected to report new transitions.
+     */
+    public boolean isCurrent() {
+        return seeded && RecentsAccessibilityService.isServiceEnabled();
+    }
+
+    /**
+     * Returns the packages that moved to the foreground within the window,
+     * most recent first, excluding this app. Performs no IPC.
+     */
+    public List<String> getMru(long windowMs) {
+        if (log == null) {
+            return Collections.emptyList();
+        }
+        Metrics.HISTORY_READS.inc();
+        return log.getMru(System.currentTimeMillis() - windowMs);
+    }
+
+    /** Returns the number of transitions held. */
+    public int size() {
+        return log != null ? log.size() : 0;
+    }
+}
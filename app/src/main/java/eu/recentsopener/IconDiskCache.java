@@ -0,0 +1,155 @@
+package eu.recentsopener;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * IconDiskCache persists the label and a pre-scaled icon bitmap of each
+ * package in the app's cache directory. On a cold start the recents list can
+ * then render its first frame from small local files instead of loading
+ * banner-sized drawables from the resources of every listed APK.
+ *
+ * Each package is stored in its own file with a small binary header followed
+ * by the PNG encoded bitmap:
+ *
+ * <pre>
+ *   int    magic
+ *   int    format version
+ *   long   versionCode
+ *   long   lastUpdateTime
+ *   int    icon size in pixels
+ *   UTF    locale the label was loaded in (BCP 47 language tag)
+ *   UTF    label
+ *   int    PNG length, followed by the PNG bytes
+ * </pre>
+ *
+ * A file is only used if version, update time, icon size and locale all
+ * match the caller's expectation; stale files are deleted on read, so a
+ * label of another language is reloaded after the system locale changed.
+ * Files are written to a temporary name first and renamed so that a crash
+ * never leaves a partially written entry behind. All methods perform file
+ * I/O and should be called off the main thread where possible.
+ */
+public final class IconDiskCache {
+    private static final String TAG = "IconDiskCache";
+
+    private static final int MAGIC = 0x52534943; // "RSIC"
+    private static final int FORMAT_VERSION = 2;
+    private static final String DIR_NAME = "icons";
+    private static final String SUFFIX = ".icn";
+
+    /** Label and icon read back from disk. */
+    public static final class Record {
+        public final String label;
+        public final Bitmap icon;
+
+        Record(String label, Bitmap icon) {
+            this.label = label;
+            this.icon = icon;
+        }
+    }
+
+    private final File dir;
+
+    public IconDiskCache(Context context) {
+        dir = new File(context.getApplicationContext().getCacheDir(), DIR_NAME);
+    }
+
+    /**
+     * Reads the cached label and icon of a package. Returns null if no entry
+     * exists or the entry does not match the given version, update time,
+     * icon size and locale; mismatching or corrupt files are deleted.
+     *
+     * @param locale language tag of the locale the label must be in
+     */
+    public Record read(String packageName, long versionCode, long lastUpdateTime, int sizePx,
+                       String locale) {
+        File file = fileFor(packageName);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                    || in.readLong() != versionCode || in.readLong() != lastUpdateTime
+                    || in.readInt() != sizePx || !in.readUTF().equals(locale)) {
+                in.close();
+                file.delete();
+                return null;
+            }
+            String label = in.readUTF();
+            int length = in.readInt();
+            if (length <= 0 || length > file.length()) {
+                throw new IOException("Invalid icon length " + length);
+            }
+            byte[] png = new byte[length];
+            in.readFully(png);
+            Bitmap bitmap = BitmapFactory.decodeByteArray(png, 0, length);
+            if (bitmap == null) {
+                throw new IOException("Undecodable icon");
+            }
+            return new Record(label, bitmap);
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding cached icon of " + packageName + ": " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the label and icon of a package. Failures are logged and
+     * otherwise ignored; the cache is purely an optimisation.
+     */
+    public void write(String packageName, long versionCode, long lastUpdateTime, int sizePx,
+                      String locale, String label, Bitmap icon) {
+        ByteArrayOutputStream png = new ByteArrayOutputStream(4096);
+        if (!icon.compress(Bitmap.CompressFormat.PNG, 100, png)) {
+            return;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        File file = fileFor(packageName);
+        File tmp = new File(dir, packageName + SUFFIX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(versionCode);
+            out.writeLong(lastUpdateTime);
+            out.writeInt(sizePx);
+            out.writeUTF(locale);
+            out.writeUTF(label != null ? label : packageName);
+            out.writeInt(png.size());
+            png.writeTo(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache icon of " + packageName + ": " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+        }
+    }
+
+    /** Deletes the cached entry of a package, e.g. after it was removed. */
+    public void delete(String packageName) {
+        fileFor(packageName).delete();
+    }
+
+    private File fileFor(String packageName) {
+        // Package names consist of letters, digits, '_' and '.', so they are
+        // safe to use as file names directly.
+        return new File(dir, packageName + SUFFIX);
+    }
+}
@@ -0,0 +1,160 @@
+package eu.recentsopener;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+
+import eu.recentsopener.engine.LastAppSelector;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LastAppTarget is the app that the Alt-Tab shortcut ({@link LastAppActivity})
+ * switches to, together with its resolved launch intent.
+ *
+ * Determining the target needs the foreground order (read from the
+ * {@link ForegroundHistory} when it is current, otherwise from a usage event
+ * scan), a stopped check per candidate and a launch intent lookup. Instead
+ * of doing this on every key press, {@link RecentsRefresher} recomputes the
+ * target in the background after every refresh, which also runs whenever
+ * the accessibility service reports a foreground switch. LastAppActivity then only reads the
+ * precomputed value and starts the intent; it falls back to
+ * {@link #compute(Context, Map)} if no fresh value is available.
+ */
+public final class LastAppTarget {
+    /** Window of usage events considered when choosing the target. */
+    static final long WINDOW_MS = 1000L * 60 * 60;
+
+    /**
+     * Maximum age of a precomputed target while the accessibility service is
+     * not connected. Without the service nothing reports foreground switches,
+     * so only a target computed just now can be trusted.
+     */
+    private static final long MAX_AGE_WITHOUT_SERVICE_MS = 2000L;
+
+    private static volatile LastAppTarget sCurrent;
+
+    /** Package to switch to. */
+    public final String packageName;
+    /** Launch intent of the package, or null if it has none. */
+    private final Intent launchIntent;
+    /** Exclusion version the target was chosen with. */
+    private final long exclusionsVersion;
+    /** Elapsed realtime at which the target was computed. */
+    private final long computedAt;
+
+    private LastAppTarget(String packageName, Intent launchIntent, long exclusionsVersion) {
+        this.packageName = packageName;
+        this.launchIntent = launchIntent;
+        this.exclusionsVersion = exclusionsVersion;
+        this.computedAt = SystemClock.elapsedRealtime();
+    }
+
+    /** Returns a fresh copy of the launch intent, or null if there is none. */
+    public Intent getLaunchIntent() {
+        return launchIntent != null ? new Intent(launchIntent) : null;
+    }
+
+    /**
+     * Returns the precomputed target if it can be trusted, otherwise null.
+     * Performs no IPC: the exclusion version is held in memory.
+     */
+    public static LastAppTarget getPrecomputed(Context context) {
+        LastAppTarget current = sCurrent;
+        if (current == null || current.exclusionsVersion != PrefsHelper.getExclusionsVersion(context)) {
+            return null;
+        }
+        if (!RecentsAccessibilityService.isServiceEnabled()
+                && SystemClock.elapsedRealtime() - current.computedAt > MAX_AGE_WITHOUT_SERVICE_MS) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * Discards the precomputed target. Called once a switch has been started,
+     * because the switch itself changes which app is the next target.
+     */
+    public static void invalidate() {
+        sCurrent = null;
+    }
+
+    /**
+     * Recomputes the precomputed target. Called on the refresh thread after a
+     * snapshot has been built; the stopped flags of the snapshot are reused so
+     * that usually no additional PackageManager call is needed.
+     */
+    static void update(Context context, RecentsSnapshot snapshot) {
+        Map<String, Boolean> stopped = new HashMap<>();
+        for (RecentsSnapshot.Entry entry : snapshot.getEntries()) {
+            stopped.put(entry.packageName, entry.stopped);
+        }
+        sCurrent = compute(context, stopped);
+    }
+
+    /**
+     * Computes the target: scan recent usage events, skip the most recent
+     * package (which may refresh in the background) and pick the next
+     * candidate that is neither excluded nor stopped. Falls back to the
+     * previously recorded package and the last package if no suitable
+     * candidate is found. The choice itself is made by
+     * {@link LastAppSelector}.
+     *
+     * @param knownStopped stopped flags already known to the caller, or null
+     * @return the target, or null if there is none
+     */
+    public static LastAppTarget compute(Context context, Map<String, Boolean> knownStopped) {
+        PrefsHelper.Exclusions excluded = PrefsHelper.getExclusions(context);
+        PackageManager pm = context.getPackageManager();
+        LastAppSelector.PackageTest stopped = pkg -> isStopped(pm, pkg, knownStopped);
+        List<String> pkgs = Collections.emptyList();
+        try {
+            ForegroundHistory history = ForegroundHistory.getInstance(context);
+            if (history.isCurrent()) {
+                // Served from memory without a UsageEvents query
+                pkgs = history.getMru(WINDOW_MS);
+            } else {
+                RecentsEngine engine = RecentsEngine.getInstance(context);
+                engine.sync(WINDOW_MS);
+                // Order of last occurrence, newest first, excluding our own app
+                pkgs = engine.getMru(WINDOW_MS, RecentsEngine.FOREGROUND_OR_RESUMED);
+            }
+        } catch (Exception ignore) {
+            // ignore and fallback
+        }
+        String target = LastAppSelector.select(pkgs, excluded::contains, stopped);
+
+        // Fallback to previous/last packages if no second candidate found
+        if (target == null) {
+            target = LastAppSelector.firstUsable(excluded::contains, stopped,
+                    PrefsHelper.getPreviousPackage(context), PrefsHelper.getLastPackage(context));
+        }
+        if (target == null) {
+            return null;
+        }
+        Intent launchIntent = AppMetadataCache.getInstance(context).getLaunchIntent(target);
+        return new LastAppTarget(target, launchIntent, excluded.version);
+    }
+
+    private static boolean isStopped(PackageManager pm, String pkg, Map<String, Boolean> knownStopped) {
+        if (knownStopped != null) {
+            Boolean stopped = knownStopped.get(pkg);
+            if (stopped != null) {
+                return stopped;
+            }
+        }
+        try {
+            Metrics.PM_CALLS.inc();
+            ApplicationInfo info = pm.getApplicationInfo(pkg, 0);
+            return (info.flags & ApplicationInfo.FLAG_STOPPED) != 0;
+        } catch (PackageManager.NameNotFoundException ignore) {
+            // If we cannot find app info just proceed
+            return false;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * LiveEventsActivity displays a continuously updating list of recent usage
@@ -68,6 +69,22 @@ public class LiveEventsActivity extends AppCompatActivity {
     private ArrayAdapter<LiveEntry> adapter;
     private Handler handler;
 
+    /**
+     * Polls the live list every {@link #MIN_UPDATE_INTERVAL_MS}, backing off to
+     * {@link #MAX_UPDATE_INTERVAL_MS} while the list stays the same.
+     */
+    private RefreshScheduler updateScheduler;
+
+    private static final long MIN_UPDATE_INTERVAL_MS = 2000L;
+    private static final long MAX_UPDATE_INTERVAL_MS = 30000L;
+
+    /** Updates the list as soon as the refresher reports a changed recents order. */
+    private final RecentsRefresher.Listener snapshotListener = (snapshot, changed) -> {
+        if (changed) {
+            updateLiveList();
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -141,66 +158,127 @@ public class LiveEventsActivity extends AppCompatActivity {
         });
 
         handler = new Handler(Looper.getMainLooper());
+        updateScheduler = new RefreshScheduler(this, "LiveEventsActivity",
+                MIN_UPDATE_INTERVAL_MS, MAX_UPDATE_INTERVAL_MS, this::updateLiveList);
     }
 
     @Override
     protected void onResume() {
         super.onResume();
         // Start periodic updates
-        handler.post(updateRunnable);
+        updateScheduler.start(0);
+        RecentsRefresher.getInstance(this).addListener(snapshotListener);
     }
 
     @Override
     protected void onPause() {
         super.onPause();
         // Stop updates when not visible
-        handler.removeCallbacks(updateRunnable);
+        updateScheduler.stop();
+        RecentsRefresher.getInstance(this).removeListener(snapshotListener);
     }
 
-    /** Runnable that updates the live list and re-schedules itself. */
-    private final Runnable updateRunnable = new Runnable() {
-        @Override
-        public void run() {
-            updateLiveList();
-            // schedule again in 2 seconds
-            handler.postDelayed(this, 2000);
+    /**
+     * True while a background update is running. Ticks arriving in the
+     * meantime are dropped so that slow queries never pile up.
+     */
+    private final AtomicBoolean updateInFlight = new AtomicBoolean(false);
+
+    @Override
+    public void onWindowFocusChanged(boolean hasFocus) {
+        super.onWindowFocusChanged(hasFocus);
+        if (hasFocus) {
+            updateScheduler.snapBack();
         }
-    };
+    }
+
+    @Override
+    public boolean dispatchKeyEvent(android.view.KeyEvent event) {
+        if (event.getAction() == android.view.KeyEvent.ACTION_DOWN) {
+            updateScheduler.snapBack();
+        }
+        return super.dispatchKeyEvent(event);
+    }
 
     /**
-     * Updates the list of live entries by querying recent usage events
-     * and aggregated statistics. Combines both sources and sorts by
-     * last activity time descending.
+     * Starts a background update of the live list. The usage queries run on
+     * the shared refresh thread; the resulting immutable list is swapped into
+     * the adapter on the main thread.
      */
     private void updateLiveList() {
+        if (!updateInFlight.compareAndSet(false, true)) {
+            return;
+        }
+        RecentsRefresher.getInstance(this).execute(() -> {
+            try {
+                List<LiveEntry> newEntries = Collections.unmodifiableList(buildLiveList());
+                runOnUiThread(() -> {
+                    boolean changed = !sameEntries(entries, newEntries);
+                    if (changed) {
+                        entries.clear();
+                        entries.addAll(newEntries);
+                        adapter.notifyDataSetChanged();
+                    }
+                    updateScheduler.reportResult(changed);
+                });
+            } finally {
+                updateInFlight.set(false);
+            }
+        });
+    }
+
+    /**
+     * Returns true if both lists show the same packages with the same time,
+     * event type and source in the same order. Labels and icons are not
+     * compared.
+     */
+    private static boolean sameEntries(List<LiveEntry> a, List<LiveEntry> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            LiveEntry x = a.get(i);
+            LiveEntry y = b.get(i);
+            if (!x.packageName.equals(y.packageName) || x.lastTime != y.lastTime
+                    || x.eventType != y.eventType || !x.source.equals(y.source)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the list of live entries by querying recent usage events
+     * and aggregated statistics. Combines both sources and sorts by
+     * last activity time descending. Runs on the background refresh thread.
+     */
+    private List<LiveEntry> buildLiveList() {
         long end = System.currentTimeMillis();
         long begin = end - HISTORY_DURATION_MS;
         UsageStatsManager usm = (UsageStatsManager) getSystemService(Context.USAGE_STATS_SERVICE);
         if (usm == null) {
-            return;
+            return new ArrayList<>();
         }
         // Gather aggregated stats
         Map<String, UsageStats> statsMap = usm.queryAndAggregateUsageStats(begin, end);
-        // Gather latest event per package
+        // Gather latest event per package from the shared engine
         Map<String, EventRecord> eventMap = new HashMap<>();
-        UsageEvents events = usm.queryEvents(begin, end);
-        UsageEvents.Event event = new UsageEvents.Event();
-        while (events != null && events.hasNextEvent()) {
-            events.getNextEvent(event);
-            String pkg = event.getPackageName();
+        RecentsEngine engine = RecentsEngine.getInstance(this);
+        engine.sync(HISTORY_DURATION_MS);
+        engine.forEachEvent(HISTORY_DURATION_MS, (timestamp, type, pkg) -> {
             // Skip our own package
             if (pkg == null || pkg.equals(getPackageName())) {
-                continue;
+                return;
             }
             // Keep the most recent event for each package
             EventRecord rec = eventMap.get(pkg);
-            if (rec == null || event.getTimeStamp() > rec.time) {
-                eventMap.put(pkg, new EventRecord(event.getEventType(), event.getTimeStamp()));
+            if (rec == null || timestamp > rec.time) {
+                eventMap.put(pkg, new EventRecord(type, timestamp));
             }
-        }
+        });
         // Build unified list
         List<LiveEntry> newEntries = new ArrayList<>();
-        PackageManager pm = getPackageManager();
+        AppMetadataCache metadata = AppMetadataCache.getInstance(this);
         for (String pkg : statsMap.keySet()) {
             if (pkg.equals(getPackageName())) continue;
             UsageStats s = statsMap.get(pkg);
@@ -218,13 +296,10 @@ public class LiveEventsActivity extends AppCompatActivity {
             }
             // Add entry if there's any activity in window
             if (lastTime >= begin) {
-                try {
-                    ApplicationInfo ai = pm.getApplicationInfo(pkg, 0);
-                    String label = pm.getApplicationLabel(ai).toString();
-                    Drawable icon = pm.getApplicationIcon(ai);
-                    newEntries.add(new LiveEntry(pkg, label, icon, lastTime, evType, source));
-                } catch (PackageManager.NameNotFoundException ignore) {
-                    // ignore unknown packages
+                AppMetadataCache.Entry meta = metadata.get(pkg);
+                // Unknown packages are ignored
+                if (meta != null) {
+                    newEntries.add(new LiveEntry(pkg, meta.label, meta.icon, lastTime, evType, source));
                 }
             }
         }
@@ -243,23 +318,16 @@ public class LiveEventsActivity extends AppCompatActivity {
             if (!exists) {
                 EventRecord rec = entry.getValue();
                 if (rec.time >= begin) {
-                    try {
-                        ApplicationInfo ai = pm.getApplicationInfo(pkg, 0);
-                        String label = pm.getApplicationLabel(ai).toString();
-                        Drawable icon = pm.getApplicationIcon(ai);
-                        newEntries.add(new LiveEntry(pkg, label, icon, rec.time, rec.type, "Event"));
-                    } catch (PackageManager.NameNotFoundException ignore) {
-                        // ignore
+                    AppMetadataCache.Entry meta = metadata.get(pkg);
+                    if (meta != null) {
+                        newEntries.add(new LiveEntry(pkg, meta.label, meta.icon, rec.time, rec.type, "Event"));
                     }
                 }
             }
         }
         // Sort by lastTime descending
         Collections.sort(newEntries, (a, b) -> Long.compare(b.lastTime, a.lastTime));
-        // Update UI on main thread
-        entries.clear();
-        entries.addAll(newEntries);
-        runOnUiThread(() -> adapter.notifyDataSetChanged());
+        return newEntries;
     }
 
     /** Map record for storing event type and time. */
@@ -0,0 +1,42 @@
+package eu.recentsopener;
+
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageStatsManager;
+import android.content.Context;
+
+import eu.recentsopener.engine.UsageEventSource;
+
+/**
+ * LiveUsageEventSource reads usage events from the system through
+ * {@link UsageStatsManager#queryEvents(long, long)}. It is the source used
+ * on the device; recorded traces are replayed through
+ * {@link eu.recentsopener.engine.ReplayEventSource} instead.
+ */
+public final class LiveUsageEventSource implements UsageEventSource {
+    private final UsageStatsManager usm;
+
+    private LiveUsageEventSource(UsageStatsManager usm) {
+        this.usm = usm;
+    }
+
+    /** Returns a source for the device, or null if usage stats are unavailable. */
+    public static LiveUsageEventSource create(Context context) {
+        UsageStatsManager usm = (UsageStatsManager) context.getApplicationContext()
+                .getSystemService(Context.USAGE_STATS_SERVICE);
+        return usm != null ? new LiveUsageEventSource(usm) : null;
+    }
+
+    @Override
+    public void readEvents(long begin, long end, Visitor visitor) {
+        UsageEvents events = usm.queryEvents(begin, end);
+        if (events == null) {
+            return;
+        }
+        // One event object is reused for the whole query
+        UsageEvents.Event event = new UsageEvents.Event();
+        while (events.hasNextEvent()) {
+            events.getNextEvent(event);
+            visitor.visit(event.getTimeStamp(), event.getEventType(), event.getPackageName());
+        }
+    }
+}
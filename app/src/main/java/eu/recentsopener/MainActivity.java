@@ -28,6 +28,7 @@ public class MainActivity extends AppCompatActivity {
     private Button btnManageExcluded;
     private Button btnCollectDebug;
     private Button btnShowLiveEvents;
+    private Button btnShowPerformance;
     // Buttons for launching different recent‑apps list variants
     private Button btnShowRecentAppsVariant1;
     private Button btnShowRecentAppsVariant2;
@@ -98,6 +99,7 @@ public class MainActivity extends AppCompatActivity {
         btnManageExcluded = findViewById(R.id.btn_manage_excluded);
         btnCollectDebug = findViewById(R.id.btn_collect_debug);
         btnShowLiveEvents = findViewById(R.id.btn_show_live_events);
+        btnShowPerformance = findViewById(R.id.btn_show_performance);
 
         // Additional variant buttons for recents list
         btnShowRecentAppsVariant5 = findViewById(R.id.btn_show_recent_apps_variant5);
@@ -326,16 +328,7 @@ public class MainActivity extends AppCompatActivity {
 
         // Show the last app. Require usage access permission similarly to the recents list.
         btnOpenLastApp.setOnClickListener(v -> {
-            // Determine if usage access is granted by querying UsageEvents
-            boolean accessGranted;
-            try {
-                android.app.usage.UsageStatsManager usm = (android.app.usage.UsageStatsManager) getSystemService(android.content.Context.USAGE_STATS_SERVICE);
-                long now = System.currentTimeMillis();
-                android.app.usage.UsageEvents events = usm.queryEvents(now - 1000 * 60 * 60, now);
-                accessGranted = events != null && events.hasNextEvent();
-            } catch (Exception e) {
-                accessGranted = false;
-            }
+            boolean accessGranted = UsageAccessState.getInstance(MainActivity.this).isGranted();
             if (!accessGranted) {
                 // Show a toast and open the usage access settings similar to RecentsActivity
                 Toast.makeText(MainActivity.this, getString(R.string.grant_usage_access), Toast.LENGTH_LONG).show();
@@ -363,12 +356,20 @@ public class MainActivity extends AppCompatActivity {
         btnManageExcluded.setOnClickListener(v ->
                 startActivity(new Intent(MainActivity.this, ExcludedAppsActivity.class)));
 
-        // Generate a debug report containing usage events/stats for troubleshooting
-        btnCollectDebug.setOnClickListener(v -> DebugHelper.collectDebugInfo(MainActivity.this));
+        // Generate a debug report containing usage events/stats for troubleshooting. A long
+        // press collects a compressed report of the last week.
+        btnCollectDebug.setOnClickListener(v ->
+                collectDebugReport(DebugHelper.DEFAULT_DURATION_MS, false));
+        btnCollectDebug.setOnLongClickListener(v -> {
+            collectDebugReport(DebugHelper.LONG_DURATION_MS, true);
+            return true;
+        });
 
         // Show the live events diagnostic screen
         btnShowLiveEvents.setOnClickListener(v ->
                 startActivity(new Intent(MainActivity.this, LiveEventsActivity.class)));
+        btnShowPerformance.setOnClickListener(v ->
+                startActivity(new Intent(MainActivity.this, PerformanceActivity.class)));
 
         // Launch the accessibility settings screen
         btnEnableService.setOnClickListener(v -> {
@@ -402,135 +403,67 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Closes a fixed set of packages using the accessibility service. Different
-     * variant values adjust delays and back navigation between each close to
-     * experiment with reliability. Packages that cannot be closed (e.g. settings
-     * packages or this app) are skipped. The list of packages is defined in
-     * {@link #SPECIFIC_CLOSE_PACKAGES}.
-     *
-     * @param variant which automation strategy to use (1–4)
+     * Closes a fixed set of packages through the close queue of the
+     * accessibility service, which skips the settings UI for packages the
+     * {@link CloseEngine} can close directly and otherwise waits only as long
+     * as the {@link DelayTuner} has measured for this device. Packages that
+     * cannot be closed (e.g. settings packages or this app) are skipped. The
+     * list of packages is defined in {@link #SPECIFIC_CLOSE_PACKAGES}.
      */
-    private void closeSpecificApps(int variant) {
+    private void closeSpecificApps() {
         // Ensure the accessibility service is connected
-        if (!RecentsAccessibilityService.isServiceEnabled()) {
-            Toast.makeText(this, R.string.service_not_enabled, Toast.LENGTH_SHORT).show();
-            return;
-        }
         final RecentsAccessibilityService svc = RecentsAccessibilityService.getInstance();
         if (svc == null) {
             Toast.makeText(this, R.string.service_not_enabled, Toast.LENGTH_SHORT).show();
             return;
         }
-        // Determine the number of BACK presses and per‑package duration based on the variant.  To
-        // reliably close multiple apps in sequence we now interleave closing the target app
-        // with closing the Android TV settings app (com.android.tv.settings).  Each package
-        // therefore requires a longer time slot consisting of four phases: (1) open the target
-        // app’s details page, (2) run the force‑stop automation, (3) open the TV settings
-        // details page and (4) run the force‑stop automation on that settings app.  Back
-        // presses (to return to our app) are scheduled after the fourth phase.  The
-        // per‑package interval increases for higher variants to allow more time for
-        // slower devices or complex UI transitions.
-        int backCount;
-        long stepDurationMs;
-        switch (variant) {
-            case 2:
-                stepDurationMs = 7000L;
-                backCount = 1;
-                break;
-            case 3:
-                stepDurationMs = 8000L;
-                backCount = 2;
-                break;
-            case 4:
-                stepDurationMs = 9000L;
-                backCount = 3;
-                break;
-            case 1:
-            default:
-                stepDurationMs = 6000L;
-                backCount = 0;
-                break;
-        }
-        // Delay between individual actions within a package’s sequence.  We use a fixed
-        // interval of 1500 ms to give the Settings UI enough time to load before
-        // automation triggers the next step.  Increasing this value can improve
-        // reliability on slower devices but will also lengthen the total closing time.
-        final long actionDelayMs = 1500L;
-        android.os.Handler handler = new android.os.Handler(getMainLooper());
-        // Build a list of packages to close, filtering out our own app and system settings apps.
+        // Build a list of packages to close, filtering out protected packages such as our own
+        // app and system settings apps.
         java.util.List<String> targets = new java.util.ArrayList<>();
+        PrefsHelper.Exclusions exclusions = PrefsHelper.getExclusions(this);
         for (String pkg : SPECIFIC_CLOSE_PACKAGES) {
-            if (pkg.equals(getPackageName()) ||
-                    pkg.startsWith("com.android.tv.settings") ||
-                    pkg.startsWith("com.google.android.tv.settings") ||
-                    pkg.startsWith("com.android.settings")) {
+            if (exclusions.isNeverClose(pkg)) {
                 continue;
             }
             targets.add(pkg);
         }
-        int index = 0;
-        for (String targetPkg : targets) {
-            final boolean isLast = (index == targets.size() - 1);
-            long startDelay = index * stepDurationMs;
-            handler.postDelayed(() -> {
-                // Phase 1: open the app details screen for the target package
-                Intent intentTarget = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
-                intentTarget.setData(Uri.parse("package:" + targetPkg));
-                intentTarget.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                try {
-                    startActivity(intentTarget);
-                } catch (Exception e) {
-                    Toast.makeText(MainActivity.this, targetPkg + " cannot be opened in settings", Toast.LENGTH_SHORT).show();
-                    return;
-                }
-                // Phase 2: after a delay, run the force‑stop automation on the target app
-                handler.postDelayed(() -> {
-                    RecentsAccessibilityService service = RecentsAccessibilityService.getInstance();
-                    if (service != null) {
-                        service.performForceStopSequence();
-                    }
-                }, actionDelayMs);
-                if (!isLast) {
-                    // Phase 3 (multi‑close only): open the details screen for the TV settings app
-                    handler.postDelayed(() -> {
-                        Intent intentSettings = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
-                        intentSettings.setData(Uri.parse("package:com.android.tv.settings"));
-                        intentSettings.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                        try {
-                            startActivity(intentSettings);
-                        } catch (Exception e) {
-                            Toast.makeText(MainActivity.this, "com.android.tv.settings cannot be opened in settings", Toast.LENGTH_SHORT).show();
-                        }
-                    }, actionDelayMs * 2);
-                    // Phase 4 (multi‑close only): run the force‑stop automation on the TV settings app and then schedule BACKs
-                    handler.postDelayed(() -> {
-                        RecentsAccessibilityService service = RecentsAccessibilityService.getInstance();
-                        if (service != null) {
-                            service.performForceStopSequence();
-                            // Schedule BACK presses if required by the variant. Each BACK press is delayed
-                            // by 500 ms so they occur after the final force‑stop operation. This returns
-                            // the user to our app between closings.
-                            for (int i = 0; i < backCount; i++) {
-                                final int idxLocal = i;
-                                handler.postDelayed(() -> service.performGlobalAction(android.accessibilityservice.AccessibilityService.GLOBAL_ACTION_BACK), idxLocal * 500L);
-                            }
-                        }
-                    }, actionDelayMs * 3);
-                } else {
-                    // If this is the last package, we only close the target app. After a brief pause
-                    // schedule BACK presses as necessary.
-                    handler.postDelayed(() -> {
-                        RecentsAccessibilityService service = RecentsAccessibilityService.getInstance();
-                        if (service != null) {
-                            for (int i = 0; i < backCount; i++) {
-                                final int idxLocal = i;
-                                handler.postDelayed(() -> service.performGlobalAction(android.accessibilityservice.AccessibilityService.GLOBAL_ACTION_BACK), idxLocal * 500L);
-                            }
-                        }
-                    }, actionDelayMs * 2);
-                }
-            }, startDelay);
-            index++;
+        if (targets.isEmpty()) {
+            return;
+        }
+        svc.startCloseQueue(targets, new CloseQueue.Listener() {
+            @Override
+            public void onAppClosed(String packageName, ForceStopSequence.Outcome outcome, int done, int total) {
+                android.util.Log.d("MainActivity", "Specific close " + done + "/" + total + ": " + packageName + " " + outcome);
+            }
+
+            @Override
+            public void onQueueFinished(boolean cancelled, int stopped, int total) {
+                // Every force stop returns to the previous screen by itself
+            }
+        });
+    }
+
+    /**
+     * Starts a debug report in the background and shows its progress on the
+     * button, which is disabled until the report is written.
+     */
+    private void collectDebugReport(long durationMs, boolean compress) {
+        boolean started = DebugHelper.collectDebugInfo(this, durationMs, compress, new DebugHelper.Listener() {
+            @Override
+            public void onProgress(int percent) {
+                btnCollectDebug.setText(getString(R.string.debug_report_progress, percent));
+            }
+
+            @Override
+            public void onFinished(java.io.File report) {
+                btnCollectDebug.setText(R.string.collect_debug_button);
+                btnCollectDebug.setEnabled(true);
+            }
+        });
+        if (started) {
+            btnCollectDebug.setEnabled(false);
+        } else {
+            Toast.makeText(this, R.string.debug_report_busy, Toast.LENGTH_SHORT).show();
         }
     }
-}
\ No newline at end of file
+}
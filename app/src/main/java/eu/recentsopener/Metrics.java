@@ -0,0 +1,201 @@
+package eu.recentsopener;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics is a small process-wide registry of counters and histograms for
+ * the hot paths of the app: refreshes, UsageEvents queries, PackageManager
+ * calls, cache lookups, close steps, the last-app switch and the
+ * foreground transition log.
+ *
+ * Recording is cheap enough for every call: a counter is one atomic
+ * increment and a histogram finds its bucket with a short scan over fixed
+ * bounds and increments a few atomics. Neither allocates. Metrics are
+ * created once as static fields, so there is no lookup by name either.
+ * Values live for the lifetime of the process; {@link #report(Context)} formats
+ * them for the performance screen and the debug report.
+ */
+public final class Metrics {
+
+    /** A monotonically increasing count. */
+    public static final class Counter {
+        final String name;
+        private final AtomicLong value = new AtomicLong();
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        public void inc() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * Distribution of recorded values in fixed buckets. The bounds suit
+     * both durations in milliseconds and small counts.
+     */
+    public static final class Histogram {
+        /** Inclusive upper bounds of all buckets but the last, which is open. */
+        private static final long[] BOUNDS = {
+                1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 50000
+        };
+
+        final String name;
+        final String unit;
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(String name, String unit) {
+            this.name = name;
+            this.unit = unit;
+        }
+
+        public void record(long value) {
+            int i = 0;
+            while (i < BOUNDS.length && value > BOUNDS[i]) {
+                i++;
+            }
+            buckets.incrementAndGet(i);
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // retry
+            }
+        }
+
+        /** Records the time since {@code startNanos} from {@link System#nanoTime()} in milliseconds. */
+        public void recordSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1_000_000L);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /** Returns the mean of all recorded values, or 0 if there are none. */
+        public long getMean() {
+            long n = count.get();
+            return n > 0 ? sum.get() / n : 0;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given percentile,
+         * i.e. an upper estimate accurate to the bucket resolution. Values in
+         * the open last bucket are reported as the maximum.
+         */
+        public long getPercentile(int percent) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percent / 100.0 * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return i < BOUNDS.length ? Math.min(BOUNDS[i], getMax()) : getMax();
+                }
+            }
+            return getMax();
+        }
+    }
+
+    private static final List<Counter> sCounters = new ArrayList<>();
+    private static final List<Histogram> sHistograms = new ArrayList<>();
+
+    /** Duration of building one recents snapshot on the refresh thread. */
+    public static final Histogram REFRESH_MS = histogram("refresh", "ms");
+    /** Duration of one UsageStatsManager.queryEvents call including iteration. */
+    public static final Histogram USAGE_QUERY_MS = histogram("usage_query", "ms");
+    /** Usage events read per UsageStatsManager.queryEvents call. */
+    public static final Histogram EVENTS_SCANNED = histogram("events_scanned", "events");
+    /** Binder calls into PackageManager made by the refresh and metadata paths. */
+    public static final Counter PM_CALLS = counter("package_manager_calls");
+    /** Metadata lookups served from the in-memory cache. */
+    public static final Counter METADATA_MEMORY_HITS = counter("metadata_memory_hits");
+    /** Metadata lookups served from the icon disk cache. */
+    public static final Counter METADATA_DISK_HITS = counter("metadata_disk_hits");
+    /** Metadata lookups that loaded label and icon from the package. */
+    public static final Counter METADATA_MISSES = counter("metadata_misses");
+    /** Duration of one step of the force-stop automation. */
+    public static final Histogram CLOSE_STEP_MS = histogram("close_step", "ms");
+    /** Duration of closing one package, whichever tier closed it. */
+    public static final Histogram CLOSE_MS = histogram("close", "ms");
+    /** Time from LastAppActivity.onCreate to starting the target. */
+    public static final Histogram LAST_APP_LAUNCH_MS = histogram("last_app_launch", "ms");
+    /** Foreground transitions written to the transition log. */
+    public static final Counter HISTORY_APPENDS = counter("history_appends");
+    /** Recents and last-app queries served from the transition log. */
+    public static final Counter HISTORY_READS = counter("history_reads");
+
+    private Metrics() {
+        // no instances
+    }
+
+    private static synchronized Counter counter(String name) {
+        Counter counter = new Counter(name);
+        sCounters.add(counter);
+        return counter;
+    }
+
+    private static synchronized Histogram histogram(String name, String unit) {
+        Histogram histogram = new Histogram(name, unit);
+        sHistograms.add(histogram);
+        return histogram;
+    }
+
+    /** Returns the hit rate of the metadata caches in percent, or -1 without lookups. */
+    public static int getMetadataHitRate() {
+        long hits = METADATA_MEMORY_HITS.get() + METADATA_DISK_HITS.get();
+        long total = hits + METADATA_MISSES.get();
+        return total > 0 ? (int) (hits * 100 / total) : -1;
+    }
+
+    /**
+     * Formats all metrics as plain text, one per line, followed by the
+     * statistics kept by the click match cache, the close engine and the
+     * delay tuner.
+     */
+    public static String report(Context context) {
+        StringBuilder sb = new StringBuilder();
+        synchronized (Metrics.class) {
+            for (Histogram h : sHistograms) {
+                sb.append(String.format(Locale.US, "%-18s n=%d mean=%d p50=%d p95=%d max=%d %s%n",
+                        h.name, h.getCount(), h.getMean(), h.getPercentile(50), h.getPercentile(95),
+                        h.getMax(), h.unit));
+            }
+            for (Counter c : sCounters) {
+                sb.append(String.format(Locale.US, "%-22s %d%n", c.name, c.get()));
+            }
+        }
+        sb.append(String.format(Locale.US, "%-22s %d%%%n", "metadata_hit_rate", getMetadataHitRate()));
+        ClickMatchCache clicks = ClickMatchCache.getInstance(context);
+        sb.append(String.format(Locale.US, "%-22s %d/%d%n", "click_match_hit/miss",
+                clicks.getHitCount(), clicks.getMissCount()));
+        sb.append('\n').append(CloseEngine.getInstance(context).getStatsSummary());
+        sb.append('\n').append(DelayTuner.getInstance(context).getSummary());
+        return sb.toString();
+    }
+}
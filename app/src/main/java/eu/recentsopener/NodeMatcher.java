@@ -0,0 +1,232 @@
+package eu.recentsopener;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * NodeMatcher finds the button of one step of the force-stop automation in
+ * a single walk over the window tree. All view ID and label candidates of
+ * the step are compiled once into lookup tables, so each node is checked
+ * against every candidate at once instead of searching the whole window
+ * again for every candidate.
+ *
+ * Candidates are ranked: view IDs in the given order come first, then
+ * labels that equal the node text, then, as a last resort, labels of at
+ * least {@link #MIN_CONTAINED_LABEL_LENGTH} characters that the node text
+ * contains as whole words. Labels are compared trimmed and case-insensitive.
+ * A preferred match (the one remembered by {@link ClickMatchCache}) ranks
+ * first within its kind: a preferred view ID above the other IDs, a
+ * preferred label above the other labels but never above a view ID, and
+ * only if the node text equals it. A short label such as "OK" therefore
+ * never matches an app title like "Facebook" that merely contains it. The
+ * best ranked enabled node wins; disabled nodes are only reported if no
+ * enabled node matched.
+ *
+ * Every node obtained during the walk is recycled before {@link #find}
+ * returns, except the node of the returned {@link Result}, which the caller
+ * must release with {@link Result#recycle()}.
+ */
+final class NodeMatcher {
+
+    /** Best node found by {@link #find}. */
+    static final class Result {
+        /** Matched node; owned by this result. */
+        final AccessibilityNodeInfo node;
+        /** Candidate that matched the node. */
+        final ClickMatchCache.Match match;
+        final boolean enabled;
+
+        Result(AccessibilityNodeInfo node, ClickMatchCache.Match match, boolean enabled) {
+            this.node = node;
+            this.match = match;
+            this.enabled = enabled;
+        }
+
+        void recycle() {
+            node.recycle();
+        }
+    }
+
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+
+    /**
+     * Shortest label that may match a node text containing it. Shorter
+     * labels like "OK" occur as words in too many unrelated texts.
+     */
+    private static final int MIN_CONTAINED_LABEL_LENGTH = 4;
+
+    /** View ID to rank. */
+    private final Map<String, Integer> idRanks = new HashMap<>();
+    /** Lower-cased labels in rank order. */
+    private final String[] texts;
+    private final String[] originalTexts;
+    /** Rank of a preferred label; the labels follow it. */
+    private final int textBaseRank;
+
+    /** Number of nodes visited by the last call to {@link #find}. */
+    int lastVisited;
+
+    NodeMatcher(String[] viewIds, String[] labels) {
+        for (int i = 0; i < viewIds.length; i++) {
+            if (!idRanks.containsKey(viewIds[i])) {
+                idRanks.put(viewIds[i], 1 + i);
+            }
+        }
+        textBaseRank = 1 + viewIds.length;
+        int count = 0;
+        for (String label : labels) {
+            if (label != null && !label.trim().isEmpty()) {
+                count++;
+            }
+        }
+        texts = new String[count];
+        originalTexts = new String[count];
+        int i = 0;
+        for (String label : labels) {
+            if (label != null && !label.trim().isEmpty()) {
+                texts[i] = label.trim().toLowerCase(Locale.ROOT);
+                originalTexts[i] = label;
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Walks the tree below {@code root} and returns the best matching node,
+     * or null if nothing matched. The root is not recycled; it stays owned by
+     * the caller.
+     *
+     * @param preferred candidate to rank above all others, or null
+     */
+    Result find(AccessibilityNodeInfo root, ClickMatchCache.Match preferred) {
+        String preferredText = preferred != null && !preferred.byId
+                ? preferred.value.trim().toLowerCase(Locale.ROOT) : null;
+        AccessibilityNodeInfo bestEnabled = null;
+        int bestEnabledRank = NO_MATCH;
+        AccessibilityNodeInfo bestDisabled = null;
+        int bestDisabledRank = NO_MATCH;
+        int visited = 0;
+
+        ArrayDeque<AccessibilityNodeInfo> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            AccessibilityNodeInfo node = stack.pop();
+            visited++;
+            // Children are pushed in reverse so that they are visited in order
+            for (int i = node.getChildCount() - 1; i >= 0; i--) {
+                AccessibilityNodeInfo child = node.getChild(i);
+                if (child != null) {
+                    stack.push(child);
+                }
+            }
+            int rank = rank(node, preferred, preferredText);
+            boolean keep = false;
+            if (rank != NO_MATCH) {
+                if (node.isEnabled()) {
+                    if (rank < bestEnabledRank) {
+                        if (bestEnabled != null) bestEnabled.recycle();
+                        bestEnabled = node;
+                        bestEnabledRank = rank;
+                        keep = true;
+                    }
+                } else if (rank < bestDisabledRank) {
+                    if (bestDisabled != null) bestDisabled.recycle();
+                    bestDisabled = node;
+                    bestDisabledRank = rank;
+                    keep = true;
+                }
+            }
+            if (node == root) {
+                if (keep) {
+                    // Results own their node; never hand out the caller's root
+                    if (bestEnabled == root) bestEnabled = AccessibilityNodeInfo.obtain(root);
+                    if (bestDisabled == root) bestDisabled = AccessibilityNodeInfo.obtain(root);
+                }
+            } else if (!keep) {
+                node.recycle();
+            }
+        }
+        lastVisited = visited;
+
+        if (bestEnabled != null) {
+            if (bestDisabled != null) bestDisabled.recycle();
+            return new Result(bestEnabled, matchFor(bestEnabledRank, preferred), true);
+        }
+        if (bestDisabled != null) {
+            return new Result(bestDisabled, matchFor(bestDisabledRank, preferred), false);
+        }
+        return null;
+    }
+
+    /** Returns the rank of the best candidate matching the node, or {@link #NO_MATCH}. */
+    private int rank(AccessibilityNodeInfo node, ClickMatchCache.Match preferred, String preferredText) {
+        String viewId = node.getViewIdResourceName();
+        if (viewId != null) {
+            if (preferred != null && preferred.byId && preferred.value.equals(viewId)) {
+                return 0;
+            }
+            Integer idRank = idRanks.get(viewId);
+            if (idRank != null) {
+                return idRank;
+            }
+        }
+        CharSequence text = node.getText();
+        if (text == null) {
+            // Like findAccessibilityNodeInfosByText, also match the content description
+            text = node.getContentDescription();
+        }
+        if (text == null || texts.length == 0 && preferredText == null) {
+            return NO_MATCH;
+        }
+        String lower = text.toString().trim().toLowerCase(Locale.ROOT);
+        if (lower.equals(preferredText)) {
+            return textBaseRank;
+        }
+        for (int i = 0; i < texts.length; i++) {
+            if (lower.equals(texts[i])) {
+                return textBaseRank + 1 + i;
+            }
+        }
+        for (int i = 0; i < texts.length; i++) {
+            if (texts[i].length() >= MIN_CONTAINED_LABEL_LENGTH && containsWord(lower, texts[i])) {
+                return textBaseRank + 1 + texts.length + i;
+            }
+        }
+        return NO_MATCH;
+    }
+
+    /**
+     * Returns true if the text contains the word sequence, bounded by the
+     * start or end of the text or by characters that are not letters or
+     * digits.
+     */
+    private static boolean containsWord(String text, String words) {
+        for (int from = text.indexOf(words); from >= 0; from = text.indexOf(words, from + 1)) {
+            int end = from + words.length();
+            if ((from == 0 || !Character.isLetterOrDigit(text.charAt(from - 1)))
+                    && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ClickMatchCache.Match matchFor(int rank, ClickMatchCache.Match preferred) {
+        if (rank == 0 || rank == textBaseRank) {
+            return preferred;
+        }
+        if (rank < textBaseRank) {
+            for (Map.Entry<String, Integer> entry : idRanks.entrySet()) {
+                if (entry.getValue() == rank) {
+                    return new ClickMatchCache.Match(true, entry.getKey());
+                }
+            }
+        }
+        int textIndex = (rank - textBaseRank - 1) % Math.max(texts.length, 1);
+        return new ClickMatchCache.Match(false, originalTexts[textIndex]);
+    }
+}
@@ -0,0 +1,70 @@
+package eu.recentsopener;
+
+import android.os.Bundle;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * PerformanceActivity shows the counters and latency histograms collected
+ * by {@link Metrics} together with the statistics of the close automation.
+ * The report is rebuilt periodically while the screen is visible, backing
+ * off while the figures stay the same.
+ */
+public class PerformanceActivity extends AppCompatActivity {
+    private static final long MIN_UPDATE_INTERVAL_MS = 1000L;
+    private static final long MAX_UPDATE_INTERVAL_MS = 10000L;
+
+    private TextView reportView;
+    private RefreshScheduler updateScheduler;
+
+    /** True while a report is being built; ticks arriving meanwhile are dropped. */
+    private final AtomicBoolean updateInFlight = new AtomicBoolean(false);
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_performance);
+        reportView = findViewById(R.id.performance_report);
+        updateScheduler = new RefreshScheduler(this, "PerformanceActivity",
+                MIN_UPDATE_INTERVAL_MS, MAX_UPDATE_INTERVAL_MS, this::updateReport);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        updateScheduler.start(0);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        updateScheduler.stop();
+    }
+
+    /**
+     * Builds the report on the refresh thread, since the close statistics are
+     * loaded from preferences on first use, and shows it on the main thread.
+     */
+    private void updateReport() {
+        if (!updateInFlight.compareAndSet(false, true)) {
+            return;
+        }
+        RecentsRefresher.getInstance(this).execute(() -> {
+            try {
+                String report = Metrics.report(this);
+                runOnUiThread(() -> {
+                    boolean changed = !report.contentEquals(reportView.getText());
+                    if (changed) {
+                        reportView.setText(report);
+                    }
+                    updateScheduler.reportResult(changed);
+                });
+            } finally {
+                updateInFlight.set(false);
+            }
+        });
+    }
+}
@@ -3,6 +3,10 @@ package eu.recentsopener;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import eu.recentsopener.engine.ExclusionMatcher;
+import eu.recentsopener.engine.ExclusionRule;
+
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -11,6 +15,19 @@ import java.util.Set;
  * RecentAppSwitcher. It stores the last launched package and the set
  * of excluded packages. Excluded packages will not appear in the
  * recents list and will be ignored when switching to the last app.
+ *
+ * The exclusion set is consulted for every package on every refresh and
+ * in every adapter row, so it is kept in memory as an immutable
+ * {@link Exclusions} snapshot. The snapshot carries a version number that
+ * increases whenever its content changes. Writes through this class publish
+ * a new snapshot immediately; changes made to the preferences by other
+ * means are picked up by an OnSharedPreferenceChangeListener.
+ *
+ * Stored entries are interpreted as {@link ExclusionRule}s: plain package
+ * names match exactly, {@code com.example.*} matches a prefix and other
+ * patterns with {@code *} or {@code ?} are globs. Together with the built-in
+ * never-close rules they are compiled into one {@link ExclusionMatcher} per
+ * snapshot.
  */
 public final class PrefsHelper {
     private static final String PREF_NAME = "recent_app_switcher_prefs";
@@ -68,10 +85,126 @@ public final class PrefsHelper {
         DEFAULT_EXCLUDED = java.util.Collections.unmodifiableSet(defaults);
     }
 
+    /**
+     * Immutable snapshot of the exclusion rules. Lookups walk a compiled
+     * trie once per package name and never touch SharedPreferences.
+     * Compare {@link #version} with a previously seen value to find out
+     * cheaply whether the rules changed.
+     */
+    public static final class Exclusions {
+        /** Unmodifiable set of the stored exclusion entries (package names or patterns). */
+        public final Set<String> packages;
+        /** Increases by one each time a snapshot with different content is published. */
+        public final long version;
+        private final ExclusionMatcher matcher;
+
+        Exclusions(Set<String> packages, long version, ExclusionMatcher matcher) {
+            this.packages = packages;
+            this.version = version;
+            this.matcher = matcher;
+        }
+
+        /** Returns true if the package is excluded from the recents list and last-app switch. */
+        public boolean contains(String pkg) {
+            return matcher.isExcluded(pkg);
+        }
+
+        /** Returns true if the package must never be closed automatically. */
+        public boolean isNeverClose(String pkg) {
+            return matcher.isNeverClose(pkg);
+        }
+
+        /**
+         * Returns true if bulk close may stop the package, i.e. it is neither
+         * excluded nor protected. Both are answered by a single match.
+         */
+        public boolean canAutoClose(String pkg) {
+            return (matcher.match(pkg)
+                    & (ExclusionRule.FLAG_EXCLUDED | ExclusionRule.FLAG_NEVER_CLOSE)) == 0;
+        }
+    }
+
+    /** Guards publication of {@link #sExclusions} and writes of the exclusion set. */
+    private static final Object sExclusionLock = new Object();
+    private static volatile Exclusions sExclusions;
+    /**
+     * SharedPreferences only keeps weak references to its listeners, so the
+     * listener is held in a static field for the lifetime of the process.
+     */
+    private static SharedPreferences.OnSharedPreferenceChangeListener sPrefsListener;
+    /** Our own package name; it is always protected from being closed. */
+    private static String sOwnPackage;
+
     private PrefsHelper() {
         // no instances
     }
 
+    /**
+     * Returns the current exclusion snapshot, loading it from the shared
+     * preferences on first use. The default exclusions are persisted if no
+     * set has been stored yet.
+     */
+    public static Exclusions getExclusions(Context context) {
+        Exclusions current = sExclusions;
+        if (current != null) {
+            return current;
+        }
+        synchronized (sExclusionLock) {
+            if (sExclusions == null) {
+                SharedPreferences prefs = context.getApplicationContext()
+                        .getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+                Set<String> stored = prefs.getStringSet(KEY_EXCLUDED_APPS, null);
+                if (stored == null) {
+                    // Initialise with default excluded packages on first access
+                    stored = new HashSet<>(DEFAULT_EXCLUDED);
+                    prefs.edit().putStringSet(KEY_EXCLUDED_APPS, stored).apply();
+                }
+                sOwnPackage = context.getPackageName();
+                sExclusions = createExclusions(stored, 1L);
+                sPrefsListener = (sharedPreferences, key) -> {
+                    // A null key is reported when the preferences are cleared
+                    if (key == null || KEY_EXCLUDED_APPS.equals(key)) {
+                        Set<String> updated = sharedPreferences.getStringSet(KEY_EXCLUDED_APPS, null);
+                        publishExclusions(updated != null ? updated : Collections.<String>emptySet());
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(sPrefsListener);
+            }
+            return sExclusions;
+        }
+    }
+
+    /**
+     * Returns the version of the current exclusion snapshot. Callers that
+     * cache derived data can compare this against the version they saw last
+     * to decide whether to recompute.
+     */
+    public static long getExclusionsVersion(Context context) {
+        return getExclusions(context).version;
+    }
+
+    /**
+     * Publishes a new exclusion snapshot if the given set differs from the
+     * current one. The version only advances on an actual change, so the
+     * change listener echoing our own writes does not bump it again.
+     */
+    private static void publishExclusions(Set<String> packages) {
+        synchronized (sExclusionLock) {
+            Exclusions current = sExclusions;
+            if (current != null && current.packages.equals(packages)) {
+                return;
+            }
+            long version = current != null ? current.version + 1 : 1L;
+            sExclusions = createExclusions(packages, version);
+        }
+    }
+
+    /** Compiles the built-in rules and the stored entries into a snapshot. */
+    private static Exclusions createExclusions(Set<String> entries, long version) {
+        return new Exclusions(Collections.unmodifiableSet(new HashSet<>(entries)), version,
+                ExclusionMatcher.compile(sOwnPackage, entries));
+    }
+
     /**
      * Updates the history of launched packages. When a new package is
      * launched, the current last package (if any) is shifted into the
@@ -122,57 +255,67 @@ public final class PrefsHelper {
 
     /**
      * Returns the current set of excluded packages. This set may be
-     * empty but will never be null.
+     * empty but will never be null. The returned set is a copy that the
+     * caller may modify; read-only callers should prefer
+     * {@link #getExclusions(Context)}.
      */
     public static Set<String> getExcludedApps(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
-        Set<String> excluded = prefs.getStringSet(KEY_EXCLUDED_APPS, null);
-        if (excluded == null) {
-            // Initialise with default excluded packages on first access
-            excluded = new HashSet<>(DEFAULT_EXCLUDED);
-            prefs.edit().putStringSet(KEY_EXCLUDED_APPS, excluded).apply();
-            return new HashSet<>(excluded);
-        }
-        // Defensive copy; do not modify the persisted set directly
-        return new HashSet<>(excluded);
+        // Defensive copy; do not modify the snapshot directly
+        return new HashSet<>(getExclusions(context).packages);
     }
 
     /**
-     * Adds a package name to the exclusion set.
+     * Adds a package name to the exclusion set. The in-memory snapshot is
+     * updated before this method returns; the preferences are written
+     * asynchronously.
      */
     public static void addExcludedApp(Context context, String pkg) {
-        SharedPreferences prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
-        Set<String> excluded = prefs.getStringSet(KEY_EXCLUDED_APPS, null);
-        if (excluded == null) {
-            excluded = new HashSet<>();
-        } else {
-            excluded = new HashSet<>(excluded);
+        synchronized (sExclusionLock) {
+            Exclusions current = getExclusions(context);
+            if (current.packages.contains(pkg)) {
+                return;
+            }
+            Set<String> excluded = new HashSet<>(current.packages);
+            excluded.add(pkg);
+            publishExclusions(excluded);
+            context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE)
+                    .edit().putStringSet(KEY_EXCLUDED_APPS, excluded).apply();
         }
-        excluded.add(pkg);
-        prefs.edit().putStringSet(KEY_EXCLUDED_APPS, excluded).apply();
     }
 
     /**
-     * Removes a package name from the exclusion set.
+     * Removes a package name from the exclusion set. The in-memory snapshot
+     * is updated before this method returns.
      */
     public static void removeExcludedApp(Context context, String pkg) {
-        SharedPreferences prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
-        Set<String> excluded = prefs.getStringSet(KEY_EXCLUDED_APPS, null);
-        if (excluded == null || !excluded.contains(pkg)) {
-            return;
+        synchronized (sExclusionLock) {
+            Exclusions current = getExclusions(context);
+            if (!current.packages.contains(pkg)) {
+                return;
+            }
+            Set<String> excluded = new HashSet<>(current.packages);
+            excluded.remove(pkg);
+            publishExclusions(excluded);
+            context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE)
+                    .edit().putStringSet(KEY_EXCLUDED_APPS, excluded).apply();
         }
-        excluded = new HashSet<>(excluded);
-        excluded.remove(pkg);
-        prefs.edit().putStringSet(KEY_EXCLUDED_APPS, excluded).apply();
     }
 
     /**
      * Returns true if the given package is currently excluded from the
-     * recents list and Alt-Tab behaviour.
+     * recents list and Alt-Tab behaviour. The in-memory snapshot resolves
+     * it in one walk of its {@link ExclusionMatcher} trie over the package
+     * name, plus the glob rules met on the way.
      */
     public static boolean isExcluded(Context context, String pkg) {
-        SharedPreferences prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
-        Set<String> excluded = prefs.getStringSet(KEY_EXCLUDED_APPS, null);
-        return excluded != null && excluded.contains(pkg);
+        return getExclusions(context).contains(pkg);
+    }
+
+    /**
+     * Returns true if the package must never be closed automatically, e.g.
+     * system settings packages and this app itself.
+     */
+    public static boolean isNeverClose(Context context, String pkg) {
+        return getExclusions(context).isNeverClose(pkg);
     }
 }
\ No newline at end of file
@@ -1,12 +1,7 @@
 package eu.recentsopener;
 
-import android.app.usage.UsageEvents;
-import android.app.usage.UsageStatsManager;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.graphics.drawable.Drawable;
 import androidx.core.content.ContextCompat;
 import android.os.Bundle;
 import android.provider.Settings;
@@ -15,22 +10,23 @@ import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.util.Log;
 import eu.recentsopener.MainActivity;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import android.util.Log;
 
 /**
@@ -42,80 +38,80 @@ import android.util.Log;
  */
 public class RecentAppsActivity extends AppCompatActivity {
     /**
-     * List of AppEntry objects representing recently used apps. Each entry
-     * contains the package name, user-facing label and application icon.
+     * Entries currently displayed by the adapter. Each entry contains the
+     * package name, user-facing label and application icon. This is the
+     * adapter's immutable current list; it is replaced on the main thread
+     * whenever a diff has been committed.
      */
-    private final List<AppEntry> recentApps = new ArrayList<>();
+    private List<RecentsSnapshot.Entry> recentApps = Collections.emptyList();
 
     /**
-     * Handler and runnable used to periodically refresh the recents list. The list
-     * is refreshed at a fixed interval while this activity is in the foreground
-     * so that closed or newly started apps appear/disappear without requiring
-     * navigating away and back again.
+     * Process-wide refresher computing the recents list on a background thread.
+     * Results are delivered to {@link #snapshotListener} on the main thread.
      */
-    private android.os.Handler refreshHandler;
-    private final Runnable refreshRunnable = new Runnable() {
-        @Override
-        public void run() {
-            // Only refresh if usage access is granted; otherwise the list would be empty
-            if (hasUsageAccess()) {
-                // Capture the package name of the currently selected item (if any) to restore
-                // selection after the list refreshes. Using the package name rather than the
-                // index allows the selection to remain on the same entry even if the ordering
-                // changes.
-                int selectedPosition = listView.getSelectedItemPosition();
-                String selectedPackage = null;
-                if (selectedPosition >= 0 && selectedPosition < recentApps.size()) {
-                    selectedPackage = recentApps.get(selectedPosition).packageName;
-                }
-                // Reload recents and determine if anything changed
-                boolean changed = loadRecentsInternal();
-                // Notify the adapter only when data actually changed
-                if (changed && adapter != null) {
-                    adapter.notifyDataSetChanged();
-                }
-                // Restore focus/selection on the previously selected package if it still exists
-                if (selectedPackage != null) {
-                    int index = -1;
-                    for (int i = 0; i < recentApps.size(); i++) {
-                        if (selectedPackage.equals(recentApps.get(i).packageName)) {
-                            index = i;
-                            break;
-                        }
-                    }
-                    if (index >= 0) {
-                        listView.setSelection(index);
-                    }
-                }
-                // Log the current focused package and whether the gear was focused during this
-                // refresh. This helps track navigation state over time.
-                String focusedPkg = null;
-                int selPos = listView.getSelectedItemPosition();
-                if (selPos >= 0 && selPos < recentApps.size()) {
-                    focusedPkg = recentApps.get(selPos).packageName;
-                }
-                android.util.Log.d("RecentAppsActivity",
-                        "Refresh: focusedPkg=" + focusedPkg + ", focusedWasGear=" + lastFocusedWasGear + 
-                        ", time=" + System.currentTimeMillis());
-            }
-            // Schedule the next refresh if the handler still exists
-            if (refreshHandler != null) {
-                refreshHandler.postDelayed(this, REFRESH_INTERVAL_MS);
-            }
+    private RecentsRefresher refresher;
+
+    /** Applies each published snapshot to the list. */
+    private final RecentsRefresher.Listener snapshotListener = (snapshot, changed) -> {
+        applySnapshot(snapshot);
+        if (refreshScheduler != null) {
+            refreshScheduler.reportResult(changed);
         }
     };
 
     /**
-     * Refresh interval in milliseconds. The recents list will be reloaded on
-     * this cadence while the activity is visible.
+     * Set in onResume() so that the next snapshot checks whether any apps are
+     * left and otherwise returns to the main screen.
+     */
+    private boolean checkEmptyOnNextSnapshot;
+
+    /**
+     * Optional action run once on the main thread after the next snapshot has
+     * been applied. Used by bulk close to act on the refreshed list.
+     */
+    private Runnable afterNextSnapshot;
+
+    /**
+     * Handler used for delayed UI work such as the bulk close steps.
+     */
+    private android.os.Handler refreshHandler;
+
+    /**
+     * Bulk close started from this screen that is still running, or null. Any
+     * key press on this screen cancels it.
+     */
+    private CloseQueue closeQueue;
+
+    /** Progress text of {@link #closeQueue}, restored when this screen resumes. */
+    private String bulkCloseProgress;
+
+    /** Key code whose key-up is swallowed because its key-down cancelled a bulk close. */
+    private int cancelKeyCode = KeyEvent.KEYCODE_UNKNOWN;
+
+    /**
+     * Periodically refreshes the recents list while this activity is in the
+     * foreground so that closed or newly started apps appear/disappear without
+     * requiring navigating away and back again. The interval starts at
+     * {@link #REFRESH_INTERVAL_MS} and backs off to
+     * {@link #MAX_REFRESH_INTERVAL_MS} while the list does not change; foreground
+     * switches seen by the accessibility service are pushed independently.
+     */
+    private RefreshScheduler refreshScheduler;
+
+    /**
+     * Fastest refresh interval in milliseconds, used after a change or user
+     * interaction.
      */
     private static final long REFRESH_INTERVAL_MS = 1000L;
 
+    /** Slowest refresh interval in milliseconds while nothing changes. */
+    private static final long MAX_REFRESH_INTERVAL_MS = 16000L;
+
     /**
-     * Reference to the ListView that displays the recents. Stored so that we
-     * can set focus and selection when necessary.
+     * Reference to the RecyclerView that displays the recents. Stored so that
+     * we can move focus when necessary.
      */
-    private ListView listView;
+    private RecyclerView listView;
 
     /**
      * Description text shown above the recents list. This will be updated
@@ -140,8 +136,8 @@ public class RecentAppsActivity extends AppCompatActivity {
     // Duplicate fields (refresh interval, handler, runnable and listView) removed. These are defined earlier in the class.
 
     /**
-     * Adapter for the recents list. Stored as a field so that it can be
-     * refreshed in onResume() once usage access is granted.
+     * Adapter for the recents list. New lists are diffed against the displayed
+     * one on a background thread and applied as granular notifications.
      */
     private RecentAppsAdapter adapter;
 
@@ -157,13 +153,11 @@ public class RecentAppsActivity extends AppCompatActivity {
     private Button btnCloseAllVariant4;
 
     /**
-     * Maintains the list of package names from the previous load of recent apps. This
-     * is used to detect whether the recents list has actually changed and to
-     * suppress unnecessary UI updates. Avoiding repeated notifyDataSetChanged()
-     * calls when the underlying data has not changed reduces flicker in the
-     * list, as the focus highlight is preserved between refreshes.
+     * Version of the exclusion set the rows were last rendered with. Rows are
+     * coloured by exclusion state, so a changed version requires a rebind even
+     * if the package order stayed the same.
      */
-    private final java.util.List<String> previousPackageOrder = new java.util.ArrayList<>();
+    private long renderedExclusionsVersion = -1L;
 
     /**
      * Records the package name of the last focused app row or gear. This is
@@ -174,6 +168,12 @@ public class RecentAppsActivity extends AppCompatActivity {
     /** Tag used for logcat output. */
     private static final String TAG = "RecentAppsActivity";
 
+    /**
+     * Maximum age of the engine's event log accepted when looking up the app
+     * that was in the foreground before this activity.
+     */
+    private static final long PREVIOUS_APP_MAX_AGE_MS = 2000L;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -186,6 +186,16 @@ public class RecentAppsActivity extends AppCompatActivity {
         // Initialise the handler used for periodic list refreshes on the main thread. Without
         // instantiation the handler would remain null and schedule/removal calls would crash.
         refreshHandler = new android.os.Handler(getMainLooper());
+        refresher = RecentsRefresher.getInstance(this);
+        refresher.addListener(snapshotListener);
+        refreshScheduler = new RefreshScheduler(this, TAG, REFRESH_INTERVAL_MS, MAX_REFRESH_INTERVAL_MS, () -> {
+            // Only refresh if usage access is granted; otherwise the list would be empty.
+            // The refresh itself runs on the background refresh thread and the result is
+            // applied in applySnapshot().
+            if (UsageAccessState.getInstance(this).isGranted()) {
+                refresher.requestRefresh();
+            }
+        });
 
         Button btnCloseAll = findViewById(R.id.btn_close_all);
         Button btnCloseOthers = findViewById(R.id.btn_close_others);
@@ -199,18 +209,12 @@ public class RecentAppsActivity extends AppCompatActivity {
 
         // Store listView as a field so refresh handler can access it
         listView = findViewById(R.id.listView);
-        // Allow child views (e.g. gear buttons) inside list items to take focus
-        listView.setItemsCanFocus(true);
-        // Configure focus behaviour based on the selected variant. Variants 1 and 5 share
-        // classic after-descendants behaviour with gear focusable. Variants 2 and 6 use
-        // BEFORE_DESCENDANTS with row focusable and gear focusable. Variants 3 and 7 use
-        // BEFORE_DESCENDANTS with row focusable and gear not focusable. Variants 4 and 8
-        // use AFTER_DESCENDANTS with row focusable and gear not focusable. Default to
-        // variant1 behaviour if index is out of range.
-        // Always use BEFORE_DESCENDANTS focus ordering.  The recents list will
-        // prioritise child views for focus so that DPAD navigation stays on
-        // the app row rather than the gear button by default.
-        listView.setDescendantFocusability(ViewGroup.FOCUS_BEFORE_DESCENDANTS);
+        listView.setLayoutManager(new LinearLayoutManager(this));
+        listView.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        // The rows themselves are focusable (see RecentAppsAdapter) and the gear is not, so
+        // DPAD navigation stays on the app rows. RecyclerView is focusable itself and must
+        // hand focus to its rows first, hence AFTER_DESCENDANTS.
+        listView.setDescendantFocusability(ViewGroup.FOCUS_AFTER_DESCENDANTS);
 
         // Close all apps via accessibility automation. Only visible/working when the
         // accessibility service is enabled. We exclude our own app and any
@@ -221,14 +225,11 @@ public class RecentAppsActivity extends AppCompatActivity {
                 return;
             }
             java.util.List<String> pkgs = new java.util.ArrayList<>();
-            for (AppEntry entry : recentApps) {
+            PrefsHelper.Exclusions exclusions = PrefsHelper.getExclusions(this);
+            for (RecentsSnapshot.Entry entry : recentApps) {
                 String pkg = entry.packageName;
-                // Skip our own app
-                if (pkg.equals(getPackageName())) continue;
-                // Skip excluded apps
-                if (PrefsHelper.isExcluded(this, pkg)) continue;
-                // Skip system settings packages
-                if (pkg.startsWith("com.android.tv.settings") || pkg.startsWith("com.google.android.tv.settings") || pkg.startsWith("com.android.settings")) continue;
+                // Skip excluded apps, our own app and system settings packages
+                if (!exclusions.canAutoClose(pkg)) continue;
                 pkgs.add(pkg);
             }
             // When closing all apps we want to return to the home screen if the recents list
@@ -243,183 +244,208 @@ public class RecentAppsActivity extends AppCompatActivity {
                 Toast.makeText(this, R.string.service_not_enabled, Toast.LENGTH_SHORT).show();
                 return;
             }
-            // Identify the app that was foregrounded before this activity (may be null)
-            String excludePkg = getPreviousForegroundApp();
-            java.util.List<String> pkgs = new java.util.ArrayList<>();
-            for (AppEntry entry : recentApps) {
-                String pkg = entry.packageName;
-                if (pkg.equals(getPackageName())) continue;
-                if (excludePkg != null && pkg.equals(excludePkg)) continue;
-                if (PrefsHelper.isExcluded(this, pkg)) continue;
-                if (pkg.startsWith("com.android.tv.settings") || pkg.startsWith("com.google.android.tv.settings") || pkg.startsWith("com.android.settings")) continue;
-                pkgs.add(pkg);
-            }
-            // When closing all other apps we want to automatically switch back to the last
-            // foreground app if exactly one app remains.  Pass openLauncherIfEmpty=false
-            // and openLastIfSingle=true.
-            performBulkClose(pkgs, /*openLauncherIfEmpty=*/false, /*openLastIfSingle=*/true);
+            // Identify the app that was foregrounded before this activity (may be null). The
+            // usage query runs on the refresh thread; the close is started back on the main
+            // thread with a copy of the list as displayed when the button was pressed.
+            final java.util.List<RecentsSnapshot.Entry> displayed = new java.util.ArrayList<>(recentApps);
+            refresher.execute(() -> {
+                String excludePkg = getPreviousForegroundApp();
+                runOnUiThread(() -> {
+                    if (isFinishing()) {
+                        return;
+                    }
+                    java.util.List<String> pkgs = new java.util.ArrayList<>();
+                    PrefsHelper.Exclusions exclusions = PrefsHelper.getExclusions(this);
+                    for (RecentsSnapshot.Entry entry : displayed) {
+                        String pkg = entry.packageName;
+                        if (excludePkg != null && pkg.equals(excludePkg)) continue;
+                        if (!exclusions.canAutoClose(pkg)) continue;
+                        pkgs.add(pkg);
+                    }
+                    // When closing all other apps we want to automatically switch back to the last
+                    // foreground app if exactly one app remains.  Pass openLauncherIfEmpty=false
+                    // and openLastIfSingle=true.
+                    performBulkClose(pkgs, /*openLauncherIfEmpty=*/false, /*openLastIfSingle=*/true);
+                });
+            });
         });
 
         // If usage access is not granted, prompt the user to enable it. We still
         // continue and set up the adapter so that the list can be populated
         // once permission is granted. Without permission the list will remain empty.
-        boolean accessGranted = hasUsageAccess();
+        boolean accessGranted = UsageAccessState.getInstance(this).isGranted();
         if (!accessGranted) {
             requestUsageAccess();
         }
 
-        // Populate the list if we already have access; otherwise it stays empty
+        // Show the last published snapshot straight away so the first frame is not empty.
+        // The refresh requested in onResume() replaces it shortly afterwards.
+        adapter = new RecentAppsAdapter(this);
+        listView.setAdapter(adapter);
         if (accessGranted) {
-            // Initialise excluded apps on first access
-            PrefsHelper.getExcludedApps(this);
-            loadRecents();
+            List<RecentsSnapshot.Entry> initial = refresher.getSnapshot().getVisibleEntries();
+            adapter.submitList(initial, () -> recentApps = adapter.getCurrentList());
         }
-        adapter = new RecentAppsAdapter(this, recentApps);
-        listView.setAdapter(adapter);
-        listView.setOnItemClickListener((parent, view, position, id) -> {
-            AppEntry entry = recentApps.get(position);
-            // Launch the selected app if it is not excluded
-            if (!PrefsHelper.isExcluded(this, entry.packageName)) {
-                // Attempt to acquire a TV‑optimised launch intent first. Some
-                // Android TV apps only declare a LEANBACK_LAUNCHER category and
-                // therefore getLaunchIntentForPackage() returns null. See
-                // Google issue 242899915 for details【618002977037848†L92-L100】.
-                PackageManager pm = getPackageManager();
-                Intent launchIntent = pm.getLeanbackLaunchIntentForPackage(entry.packageName);
-                if (launchIntent == null) {
-                    launchIntent = pm.getLaunchIntentForPackage(entry.packageName);
-                }
-                if (launchIntent != null) {
-                    // Update the last/previous history before launching
-                    PrefsHelper.updateHistory(this, entry.packageName);
-                    startActivity(launchIntent);
-                    finish();
-                } else {
-                    // Special-case system settings packages
-                    if (entry.packageName != null && entry.packageName.contains("settings")) {
-                        Intent settingsIntent = new Intent(Settings.ACTION_SETTINGS);
-                        settingsIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                        try {
-                            PrefsHelper.updateHistory(this, entry.packageName);
-                            startActivity(settingsIntent);
-                            finish();
-                        } catch (Exception e) {
-                            Toast.makeText(this, entry.packageName + " cannot be launched", Toast.LENGTH_SHORT).show();
-                        }
-                    } else {
+    }
+
+    /**
+     * Launches the app at the given adapter position unless it is excluded.
+     */
+    private void onItemClick(int position) {
+        if (position == RecyclerView.NO_POSITION || position >= recentApps.size()) {
+            return;
+        }
+        RecentsSnapshot.Entry entry = recentApps.get(position);
+        // Launch the selected app if it is not excluded
+        if (!PrefsHelper.isExcluded(this, entry.packageName)) {
+            // Attempt to acquire a TV‑optimised launch intent first. Some
+            // Android TV apps only declare a LEANBACK_LAUNCHER category and
+            // therefore getLaunchIntentForPackage() returns null. See
+            // Google issue 242899915 for details【618002977037848†L92-L100】.
+            // The resolved intent is cached per package by AppMetadataCache.
+            Intent launchIntent = AppMetadataCache.getInstance(this).getLaunchIntent(entry.packageName);
+            if (launchIntent != null) {
+                // Update the last/previous history before launching
+                PrefsHelper.updateHistory(this, entry.packageName);
+                startActivity(launchIntent);
+                finish();
+            } else {
+                // Special-case system settings packages
+                if (entry.packageName != null && entry.packageName.contains("settings")) {
+                    Intent settingsIntent = new Intent(Settings.ACTION_SETTINGS);
+                    settingsIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                    try {
+                        PrefsHelper.updateHistory(this, entry.packageName);
+                        startActivity(settingsIntent);
+                        finish();
+                    } catch (Exception e) {
                         Toast.makeText(this, entry.packageName + " cannot be launched", Toast.LENGTH_SHORT).show();
                     }
+                } else {
+                    Toast.makeText(this, entry.packageName + " cannot be launched", Toast.LENGTH_SHORT).show();
                 }
-            } else {
-                // Inform the user that the app is excluded
-                Toast.makeText(this, getString(R.string.app_excluded, entry.label), Toast.LENGTH_SHORT).show();
             }
-        });
-        listView.setOnItemLongClickListener((parent, view, position, id) -> {
-            AppEntry entry = recentApps.get(position);
-            boolean currentlyExcluded = PrefsHelper.isExcluded(RecentAppsActivity.this, entry.packageName);
-            // Save the current scroll position so that we can restore it after updating the list
-            int index = listView.getFirstVisiblePosition();
-            View topView = listView.getChildAt(0);
-            int top = (topView == null) ? 0 : topView.getTop();
-            if (currentlyExcluded) {
-                // Remove from exclusion list and reinstate this app in the recents list
-                PrefsHelper.removeExcludedApp(RecentAppsActivity.this, entry.packageName);
-                Toast.makeText(RecentAppsActivity.this, getString(R.string.app_included, entry.label), Toast.LENGTH_SHORT).show();
-                // Rebuild the recents list to include the newly included app
-                loadRecents();
-            } else {
-                // Add to exclusion list and remove from the displayed list
-                PrefsHelper.addExcludedApp(RecentAppsActivity.this, entry.packageName);
-                Toast.makeText(RecentAppsActivity.this, getString(R.string.app_excluded, entry.label), Toast.LENGTH_SHORT).show();
-                recentApps.remove(position);
-            }
-            adapter.notifyDataSetChanged();
-            // Restore scroll position
-            listView.setSelectionFromTop(index, top);
-            return true;
-        });
+        } else {
+            // Inform the user that the app is excluded
+            Toast.makeText(this, getString(R.string.app_excluded, entry.label), Toast.LENGTH_SHORT).show();
+        }
+    }
 
+    /**
+     * Toggles the exclusion of the app at the given adapter position. An
+     * excluded app is removed from the displayed list right away; an included
+     * app reappears with the next refresh.
+     */
+    private boolean onItemLongClick(int position) {
+        if (position == RecyclerView.NO_POSITION || position >= recentApps.size()) {
+            return false;
+        }
+        RecentsSnapshot.Entry entry = recentApps.get(position);
+        boolean currentlyExcluded = PrefsHelper.isExcluded(RecentAppsActivity.this, entry.packageName);
+        if (currentlyExcluded) {
+            // Remove from exclusion list and reinstate this app in the recents list
+            PrefsHelper.removeExcludedApp(RecentAppsActivity.this, entry.packageName);
+            Toast.makeText(RecentAppsActivity.this, getString(R.string.app_included, entry.label), Toast.LENGTH_SHORT).show();
+            // Rebuild the recents list to include the newly included app
+            loadRecents();
+        } else {
+            // Add to exclusion list and remove from the displayed list. Only this row is
+            // removed from the adapter, so the scroll position is kept.
+            PrefsHelper.addExcludedApp(RecentAppsActivity.this, entry.packageName);
+            Toast.makeText(RecentAppsActivity.this, getString(R.string.app_excluded, entry.label), Toast.LENGTH_SHORT).show();
+            List<RecentsSnapshot.Entry> remaining = new ArrayList<>(recentApps);
+            remaining.remove(position);
+            adapter.submitList(remaining, () -> {
+                recentApps = adapter.getCurrentList();
+                updateCloseOthersLabel();
+            });
+        }
+        return true;
+    }
 
-        // Intercept DPAD‑LEFT and DPAD‑RIGHT presses on list items.  Both keys now open the
-        // system application details screen for the selected app.  If the accessibility
-        // service is enabled, a force‑stop sequence will be attempted after opening the
-        // settings page.  This replaces the previous behaviour where DPAD‑RIGHT moved focus
-        // to the gear button.  Navigation with DPAD‑UP/DOWN remains handled by the default
-        // ListView behaviour.
-        listView.setOnKeyListener((v, keyCode, event) -> {
-            if (event.getAction() != KeyEvent.ACTION_DOWN) {
-                return false;
+    /**
+     * Handles DPAD‑LEFT and DPAD‑RIGHT presses on a list row.  Both keys open the
+     * system application details screen for the app.  If the accessibility
+     * service is enabled, DPAD‑LEFT additionally attempts a force‑stop sequence
+     * after opening the settings page.  Navigation with DPAD‑UP/DOWN remains
+     * handled by the default RecyclerView focus search.
+     */
+    private boolean onRowKey(int pos, int keyCode, KeyEvent event) {
+        if (event.getAction() != KeyEvent.ACTION_DOWN) {
+            return false;
+        }
+        if (pos == RecyclerView.NO_POSITION) {
+            return false;
+        }
+        // Handle DPAD‑RIGHT: always open settings without auto‑close
+        if (keyCode == KeyEvent.KEYCODE_DPAD_RIGHT) {
+            if (pos < recentApps.size()) {
+                RecentsSnapshot.Entry appEntry = recentApps.get(pos);
+                Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
+                intent.setData(Uri.parse("package:" + appEntry.packageName));
+                intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                try {
+                    startActivity(intent);
+                } catch (Exception e) {
+                    Toast.makeText(RecentAppsActivity.this, appEntry.packageName + " cannot be opened in settings", Toast.LENGTH_SHORT).show();
+                }
+                return true;
             }
-            int pos = listView.getSelectedItemPosition();
-            if (pos == android.widget.AdapterView.INVALID_POSITION) {
+        }
+        // Handle DPAD‑LEFT: only active when accessibility service is enabled.  When active,
+        // open settings and then trigger the force stop automation on the selected app.
+        if (keyCode == KeyEvent.KEYCODE_DPAD_LEFT) {
+            if (!RecentsAccessibilityService.isServiceEnabled()) {
+                // Not handled: allow default navigation
                 return false;
             }
-            // Handle DPAD‑RIGHT: always open settings without auto‑close
-            if (keyCode == KeyEvent.KEYCODE_DPAD_RIGHT) {
-                if (pos < recentApps.size()) {
-                    AppEntry appEntry = recentApps.get(pos);
-                    Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
-                    intent.setData(Uri.parse("package:" + appEntry.packageName));
-                    intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                    try {
-                        startActivity(intent);
-                    } catch (Exception e) {
-                        Toast.makeText(RecentAppsActivity.this, appEntry.packageName + " cannot be opened in settings", Toast.LENGTH_SHORT).show();
-                    }
-                    return true;
-                }
-            }
-            // Handle DPAD‑LEFT: only active when accessibility service is enabled.  When active,
-            // open settings and then trigger the force stop automation on the selected app.
-            if (keyCode == KeyEvent.KEYCODE_DPAD_LEFT) {
-                if (!RecentsAccessibilityService.isServiceEnabled()) {
-                    // Not handled: allow default navigation
-                    return false;
-                }
-                if (pos < recentApps.size()) {
-                    AppEntry appEntry = recentApps.get(pos);
-                    Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
-                    intent.setData(Uri.parse("package:" + appEntry.packageName));
-                    intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                    try {
-                        startActivity(intent);
-                        // Skip auto close for settings packages
-                        boolean isSettingsPkg = appEntry.packageName.startsWith("com.android.tv.settings") ||
-                                appEntry.packageName.startsWith("com.google.android.tv.settings") ||
-                                appEntry.packageName.startsWith("com.android.settings");
-                        if (!isSettingsPkg) {
-                            RecentsAccessibilityService svc = RecentsAccessibilityService.getInstance();
-                            if (svc != null) {
-                                svc.performForceStopSequence();
-                            }
+            if (pos < recentApps.size()) {
+                RecentsSnapshot.Entry appEntry = recentApps.get(pos);
+                Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
+                intent.setData(Uri.parse("package:" + appEntry.packageName));
+                intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                try {
+                    startActivity(intent);
+                    // Skip auto close for protected packages such as system settings
+                    if (!PrefsHelper.isNeverClose(RecentAppsActivity.this, appEntry.packageName)) {
+                        RecentsAccessibilityService svc = RecentsAccessibilityService.getInstance();
+                        if (svc != null) {
+                            svc.performForceStopSequence();
                         }
-                    } catch (Exception e) {
-                        Toast.makeText(RecentAppsActivity.this, appEntry.packageName + " cannot be opened in settings", Toast.LENGTH_SHORT).show();
                     }
-                    return true;
+                } catch (Exception e) {
+                    Toast.makeText(RecentAppsActivity.this, appEntry.packageName + " cannot be opened in settings", Toast.LENGTH_SHORT).show();
                 }
+                return true;
             }
-            return false;
-        });
+        }
+        return false;
     }
 
     /**
-     * Returns true if usage access is already granted. We query for events in
-     * the last hour and check if any are available.
+     * Returns the adapter position of the row that currently holds focus, or
+     * {@link RecyclerView#NO_POSITION} if no row is focused.
      */
+    private int getFocusedPosition() {
+        View focused = listView.getFocusedChild();
+        return focused != null ? listView.getChildAdapterPosition(focused) : RecyclerView.NO_POSITION;
+    }
+
     /**
-     * Determines whether this app has access to usage statistics. The permission is
-     * considered granted if querying usage events within the last hour returns
-     * at least one event. This simple check mirrors the behaviour of the original
-     * RecentAppSwitcher. If there are no events, the permission may still be
-     * granted but the list will remain empty until the system records usage.
+     * Scrolls to the given position and moves focus to its row once it has
+     * been laid out.
      */
-    private boolean hasUsageAccess() {
-        UsageStatsManager usm = (UsageStatsManager) getSystemService(Context.USAGE_STATS_SERVICE);
-        long now = System.currentTimeMillis();
-        UsageEvents events = usm.queryEvents(now - 1000 * 60 * 60, now);
-        return events != null && events.hasNextEvent();
+    private void focusPosition(int position) {
+        if (position < 0 || position >= recentApps.size()) {
+            return;
+        }
+        listView.scrollToPosition(position);
+        listView.post(() -> {
+            RecyclerView.ViewHolder holder = listView.findViewHolderForAdapterPosition(position);
+            if (holder != null) {
+                holder.itemView.requestFocus();
+            }
+        });
     }
 
     /**
@@ -434,140 +460,114 @@ public class RecentAppsActivity extends AppCompatActivity {
     }
 
     /**
-     * Loads the list of recent packages from usage events in the last 24
-     * hours. Duplicates are removed while maintaining order. The list is
-     * reversed so that the most recently used app appears first. Excluded
-     * apps remain in the list and are highlighted by the adapter.
+     * Applies a snapshot published by {@link RecentsRefresher} to the list.
+     * The adapter diffs the new entries against the displayed ones on a
+     * background thread and dispatches granular insert, remove, move and
+     * change notifications, so unchanged rows are not rebound. Rows have
+     * stable IDs derived from their package, which lets the RecyclerView keep
+     * focus on the same app even if it moves.
+     *
+     * @param snapshot the snapshot to display
      */
+    private void applySnapshot(RecentsSnapshot snapshot) {
+        if (isFinishing()) {
+            return;
+        }
+        final int previousSize = recentApps.size();
+        adapter.submitList(snapshot.getVisibleEntries(), () -> onSnapshotCommitted(snapshot, previousSize));
+    }
+
     /**
-     * Reloads the list of recent apps and returns whether the underlying data
-     * actually changed. If the ordering or content of the packages remains
-     * unchanged, no modifications are made to {@link #recentApps} and the
-     * method returns false. This allows callers to suppress unnecessary
-     * notifications to the adapter and thereby reduces flicker.
-     *
-     * @return true if the recents list was updated, false otherwise
-     */
-    private boolean loadRecentsInternal() {
-        // Ensure excluded apps are initialised on every load. This prevents freshly installed
-        // instances from showing excluded packages before the default list has been persisted.
-        PrefsHelper.getExcludedApps(this);
-        long end = System.currentTimeMillis();
-        long begin = end - 1000L * 60 * 60 * 24; // last 24 hours
-        UsageStatsManager usm = (UsageStatsManager) getSystemService(Context.USAGE_STATS_SERVICE);
-        UsageEvents events = usm.queryEvents(begin, end);
-        java.util.Set<String> seen = new java.util.HashSet<>();
-        java.util.List<String> packagesInOrder = new java.util.ArrayList<>();
-        UsageEvents.Event event = new UsageEvents.Event();
-        while (events.hasNextEvent()) {
-            events.getNextEvent(event);
-            if (event.getEventType() == UsageEvents.Event.MOVE_TO_FOREGROUND) {
-                String pkg = event.getPackageName();
-                // Skip our own app
-                if (!getPackageName().equals(pkg)) {
-                    // Maintain order of last occurrence
-                    if (seen.contains(pkg)) {
-                        packagesInOrder.remove(pkg);
-                    }
-                    packagesInOrder.add(pkg);
-                    seen.add(pkg);
-                }
-            }
+     * Runs on the main thread once the adapter has applied the diff for a
+     * snapshot.
+     */
+    private void onSnapshotCommitted(RecentsSnapshot snapshot, int previousSize) {
+        if (isFinishing()) {
+            return;
         }
-        java.util.Collections.reverse(packagesInOrder);
-        PackageManager pm = getPackageManager();
-        // Build a new list of AppEntry objects without mutating recentApps yet. This allows
-        // comparison with the existing list to detect whether anything has actually changed.
-        java.util.List<AppEntry> newEntries = new java.util.ArrayList<>();
-        java.util.List<String> newPackageOrder = new java.util.ArrayList<>();
-        for (String pkg : packagesInOrder) {
-            // Do not display excluded packages in the recents list
-            if (PrefsHelper.isExcluded(this, pkg)) {
-                continue;
-            }
-            try {
-                ApplicationInfo appInfo = pm.getApplicationInfo(pkg, 0);
-                // Skip stopped applications; these are not currently running and cannot be force‑closed via UI.
-                if ((appInfo.flags & ApplicationInfo.FLAG_STOPPED) != 0) {
-                    continue;
-                }
-                String label = pm.getApplicationLabel(appInfo).toString();
-                Drawable icon = pm.getApplicationIcon(appInfo);
-                newEntries.add(new AppEntry(pkg, label, icon));
-                newPackageOrder.add(pkg);
-            } catch (PackageManager.NameNotFoundException e) {
-                // skip unknown packages
-            }
+        List<RecentsSnapshot.Entry> committed = adapter.getCurrentList();
+        boolean changed = !snapshot.hasSameVisibleOrder(recentApps);
+        recentApps = committed;
+        if (changed) {
+            android.util.Log.d(TAG, "List updated: size " + previousSize + " -> " + recentApps.size());
+            updateCloseOthersLabel();
         }
-        // Determine whether the ordering of package names has changed. If not, we can avoid
-        // updating recentApps and preserve the existing list and focus.
-        boolean changed = false;
-        if (newPackageOrder.size() != previousPackageOrder.size()) {
-            changed = true;
-        } else {
-            for (int i = 0; i < newPackageOrder.size(); i++) {
-                if (!newPackageOrder.get(i).equals(previousPackageOrder.get(i))) {
-                    changed = true;
-                    break;
-                }
+        if (snapshot.getExclusionsVersion() != renderedExclusionsVersion) {
+            // Rows are coloured by exclusion state; rebind them without changing the order
+            if (renderedExclusionsVersion >= 0) {
+                adapter.notifyItemRangeChanged(0, adapter.getItemCount());
             }
+            renderedExclusionsVersion = snapshot.getExclusionsVersion();
         }
-        // Compute diff summary for logging purposes before mutating previousPackageOrder
-        java.util.Set<String> added = new java.util.HashSet<>(newPackageOrder);
-        added.removeAll(previousPackageOrder);
-        java.util.Set<String> removed = new java.util.HashSet<>(previousPackageOrder);
-        removed.removeAll(newPackageOrder);
-        java.util.Set<String> moved = new java.util.HashSet<>();
-        for (String pkg : newPackageOrder) {
-            int oldIndex = previousPackageOrder.indexOf(pkg);
-            int newIndex = newPackageOrder.indexOf(pkg);
-            if (oldIndex >= 0 && oldIndex != newIndex) {
-                moved.add(pkg);
+        // Log the current focused package and whether the gear was focused during this
+        // refresh. This helps track navigation state over time.
+        String focusedPkg = null;
+        int selPos = getFocusedPosition();
+        if (selPos >= 0 && selPos < recentApps.size()) {
+            focusedPkg = recentApps.get(selPos).packageName;
+        }
+        android.util.Log.d(TAG,
+                "Refresh: focusedPkg=" + focusedPkg + ", focusedWasGear=" + lastFocusedWasGear +
+                ", time=" + System.currentTimeMillis());
+        // If there are no recent apps after the first load, return to the main UI with a toast.
+        if (checkEmptyOnNextSnapshot) {
+            checkEmptyOnNextSnapshot = false;
+            if (recentApps.isEmpty()) {
+                Toast.makeText(this, R.string.no_open_apps_message, Toast.LENGTH_SHORT).show();
+                try {
+                    Intent intentHome = new Intent(this, MainActivity.class);
+                    intentHome.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_NEW_TASK);
+                    startActivity(intentHome);
+                } catch (Exception e) {
+                    // ignore any failure to launch the main activity
+                }
+                finish();
+                return;
             }
         }
-        android.util.Log.d("RecentAppsActivity", "Diff summary: added=" + added + ", removed=" + removed + ", moved=" + moved);
-        if (changed) {
-            previousPackageOrder.clear();
-            previousPackageOrder.addAll(newPackageOrder);
-            recentApps.clear();
-            recentApps.addAll(newEntries);
+        if (afterNextSnapshot != null) {
+            Runnable action = afterNextSnapshot;
+            afterNextSnapshot = null;
+            action.run();
         }
-        return changed;
     }
 
     /**
-     * Backwards‑compatible wrapper that reloads the recents list without
-     * returning a value. Existing callers that do not care about whether
-     * the data changed can continue to use this method.
+     * Requests an asynchronous reload of the recents list. The result is
+     * applied by {@link #applySnapshot(RecentsSnapshot)}.
      */
     private void loadRecents() {
-        loadRecentsInternal();
+        refresher.requestRefresh();
+    }
+
+    /**
+     * Updates the "close other apps" button text to include the label of the
+     * most recent app when the accessibility service is enabled.
+     */
+    private void updateCloseOthersLabel() {
+        android.widget.Button btnCloseOthers = findViewById(R.id.btn_close_others);
+        if (btnCloseOthers == null || !RecentsAccessibilityService.isServiceEnabled()) {
+            return;
+        }
+        if (!recentApps.isEmpty()) {
+            String lastLabel = recentApps.get(0).label;
+            btnCloseOthers.setText(getString(R.string.close_other_apps_button) + " (" + lastLabel + ")");
+        } else {
+            btnCloseOthers.setText(getString(R.string.close_other_apps_button));
+        }
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        boolean access = hasUsageAccess();
-        // If usage access was just granted and the list is empty, initialise excluded defaults and load recents
-        if (access && recentApps.isEmpty()) {
-            PrefsHelper.getExcludedApps(this);
+        boolean access = UsageAccessState.getInstance(this).isGranted();
+        // Reload the list in the background. The first snapshot after resuming checks
+        // whether any apps are left and otherwise returns to the main UI.
+        // A bulk close returns here between apps; it checks the list itself once done.
+        boolean bulkCloseRunning = closeQueue != null && closeQueue.isRunning();
+        if (access) {
+            checkEmptyOnNextSnapshot = !bulkCloseRunning;
             loadRecents();
-            if (adapter != null) {
-                adapter.notifyDataSetChanged();
-            }
-        }
-        // If there are no recent apps after loading, return to the main UI with a toast.
-        if (access && recentApps.isEmpty()) {
-            Toast.makeText(this, R.string.no_open_apps_message, Toast.LENGTH_SHORT).show();
-            try {
-                Intent intentHome = new Intent(this, MainActivity.class);
-                intentHome.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_NEW_TASK);
-                startActivity(intentHome);
-            } catch (Exception e) {
-                // ignore any failure to launch the main activity
-            }
-            finish();
-            return;
         }
 
         // Show or hide the bulk close buttons based on accessibility service state and
@@ -582,58 +582,83 @@ public class RecentAppsActivity extends AppCompatActivity {
         if (tvDescription != null) {
             tvDescription.setText(serviceEnabled ? R.string.recent_apps_description_with_service : R.string.recent_apps_description_without_service);
         }
+        if (bulkCloseRunning && bulkCloseProgress != null && tvDescription != null) {
+            // Keep showing the progress instead of the description
+            tvDescription.setText(bulkCloseProgress);
+        }
         // Show/hide the buttons
         btnCloseAll.setVisibility(serviceEnabled ? android.view.View.VISIBLE : android.view.View.GONE);
         btnCloseOthers.setVisibility(serviceEnabled ? android.view.View.VISIBLE : android.view.View.GONE);
         // Update the "close other apps" button text to include the label of the most recent app when the service is enabled
         if (serviceEnabled) {
-            if (!recentApps.isEmpty()) {
-                String lastLabel = recentApps.get(0).label;
-                btnCloseOthers.setText(getString(R.string.close_other_apps_button) + " (" + lastLabel + ")");
-            } else {
-                btnCloseOthers.setText(getString(R.string.close_other_apps_button));
-            }
+            updateCloseOthersLabel();
             // When service is active, default focus to the close others button
             if (btnCloseOthers.getVisibility() == android.view.View.VISIBLE) {
                 btnCloseOthers.requestFocus();
             }
         } else {
             // Without service, ensure the list has a selection and focus
-            if (!recentApps.isEmpty()) {
-                if (listView.getSelectedItemPosition() == android.widget.AdapterView.INVALID_POSITION) {
-                    listView.setSelection(0);
-                }
-                listView.requestFocus();
+            if (!recentApps.isEmpty() && getFocusedPosition() == RecyclerView.NO_POSITION) {
+                focusPosition(0);
             }
         }
         // Start periodic refresh if access granted
-        refreshHandler.removeCallbacks(refreshRunnable);
         if (access) {
-            refreshHandler.postDelayed(refreshRunnable, REFRESH_INTERVAL_MS);
+            refreshScheduler.start(REFRESH_INTERVAL_MS);
+        } else {
+            refreshScheduler.stop();
         }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        // Stop refreshing when the activity is no longer visible
-        refreshHandler.removeCallbacks(refreshRunnable);
+        // Stop refreshing when the activity is no longer visible. Snapshots published after
+        // this point are still applied when the activity resumes.
+        refreshScheduler.stop();
+    }
+
+    @Override
+    public void onWindowFocusChanged(boolean hasFocus) {
+        super.onWindowFocusChanged(hasFocus);
+        if (hasFocus) {
+            // Returning from another window (e.g. a dialog or settings page) is a likely
+            // moment for the list to change, so poll quickly again.
+            refreshScheduler.snapBack();
+        }
+    }
+
+    @Override
+    public boolean dispatchKeyEvent(KeyEvent event) {
+        if (closeQueue != null && closeQueue.isRunning() && event.getAction() == KeyEvent.ACTION_DOWN) {
+            // Any key cancels a running bulk close; the key itself is consumed
+            cancelKeyCode = event.getKeyCode();
+            closeQueue.cancel();
+            return true;
+        }
+        if (event.getAction() == KeyEvent.ACTION_UP && event.getKeyCode() == cancelKeyCode) {
+            cancelKeyCode = KeyEvent.KEYCODE_UNKNOWN;
+            return true;
+        }
+        if (event.getAction() == KeyEvent.ACTION_DOWN) {
+            refreshScheduler.snapBack();
+        }
+        return super.dispatchKeyEvent(event);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        refresher.removeListener(snapshotListener);
     }
 
     /**
-     * Performs a bulk closing of the provided packages. Each package will be
-     * closed sequentially by opening its settings page and invoking the
-     * force‑stop automation. A small delay is inserted between each action
-     * to allow the UI to update.
-     *
-     * @param packages list of package names to close
-     */
-    /**
-     * Performs a bulk closing of the provided packages. Each package will be closed in
-     * sequence by opening its application details screen, running the force‑stop automation,
-     * then opening and closing the Android TV settings app (com.android.tv.settings) to
-     * ensure the settings UI is properly dismissed before moving on to the next package.
-     * After all packages have been processed the recents list is refreshed and, optionally,
+     * Performs a bulk closing of the provided packages through the close queue
+     * of the accessibility service. Each package is force-stopped via its
+     * application details screen, and the next one starts as soon as the
+     * previous one has finished. The list refreshes after every package and
+     * the description shows the progress; any key press cancels the rest.
+     * Once the queue is done the recents list is refreshed and, optionally,
      * either the default launcher or the last remaining app is opened based on the
      * parameters. Passing {@code openLauncherIfEmpty} will cause the home screen to be
      * launched if the recents list is empty. Passing {@code openLastIfSingle} will cause
@@ -654,105 +679,100 @@ public class RecentAppsActivity extends AppCompatActivity {
             Toast.makeText(this, R.string.service_not_enabled, Toast.LENGTH_SHORT).show();
             return;
         }
-        android.os.Handler handler = new android.os.Handler(getMainLooper());
-        // Each package is allocated a time slot of 6 seconds.  Within that slot we perform the
-        // following actions separated by 1.5 second delays.  For multi‑close scenarios we
-        // additionally close the Android TV settings app (com.android.tv.settings) between
-        // packages to ensure the UI is reset.  When only a single package is present the
-        // settings app is not closed.
-        // Set delays based on observed behaviour when automating the system settings.
-        // A 1 second delay between launching the app details and initiating the
-        // force‑stop sequence allows the UI to appear before accessibility actions
-        // execute.  Each package is given a 3 second window (open, force‑stop and
-        // return) before moving on to the next package.
-        final long actionDelayMs = 1000L;
-        final long stepDurationMs = actionDelayMs * 3;
-        // Build a local copy of the package list so we can determine last/non‑last entries
-        java.util.List<String> targets = new java.util.ArrayList<>(packages);
-        for (int i = 0; i < targets.size(); i++) {
-            final String pkg = targets.get(i);
-            // Determine whether this is the last package.  Currently unused but kept for clarity.
-            final boolean isLast = (i == targets.size() - 1);
-            long delay = i * stepDurationMs;
-            handler.postDelayed(() -> {
-                // Phase 1: open the app details settings for the target package
-                Intent intentTarget = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
-                intentTarget.setData(Uri.parse("package:" + pkg));
-                // Launch the settings page in a new task and clear any existing
-                // instance on the task stack.  Without CLEAR_TOP some devices
-                // refuse to launch a new details page when an existing one is
-                // already on screen, causing subsequent closes to hang on the
-                // first app.
-                intentTarget.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
-                try {
-                    startActivity(intentTarget);
-                } catch (Exception e) {
-                    Toast.makeText(RecentAppsActivity.this, pkg + " cannot be opened in settings", Toast.LENGTH_SHORT).show();
+        closeQueue = svc.startCloseQueue(packages, new CloseQueue.Listener() {
+            @Override
+            public void onAppClosed(String packageName, ForceStopSequence.Outcome outcome, int done, int total) {
+                Log.d(TAG, "Bulk close " + done + "/" + total + ": " + packageName + " " + outcome);
+                showBulkCloseProgress(labelOf(packageName), done, total);
+            }
+
+            @Override
+            public void onQueueFinished(boolean cancelled, int stopped, int total) {
+                closeQueue = null;
+                bulkCloseProgress = null;
+                if (isDestroyed()) {
                     return;
                 }
-                // Phase 2: after a delay, run the force‑stop automation on the target app.
-                handler.postDelayed(() -> {
-                    RecentsAccessibilityService service = RecentsAccessibilityService.getInstance();
-                    if (service != null) {
-                        service.performForceStopSequence();
-                    }
-                }, actionDelayMs);
-            }, delay);
-        }
-        // After all packages have been processed, refresh the recents list to remove any apps
-        // that were successfully stopped.  We schedule this after the last operation plus an
-        // extra delay to allow the UI to finish closing.  At this point we optionally
-        // navigate to the home screen or launch the remaining app.
-        long finalDelay = packages.size() * stepDurationMs + 2000L;
-        handler.postDelayed(() -> {
-            loadRecents();
-            if (adapter != null) {
-                adapter.notifyDataSetChanged();
-                // Restore selection/focus to the first entry
-                if (!recentApps.isEmpty()) {
-                    listView.setSelection(0);
-                    listView.requestFocus();
+                if (tvDescription != null) {
+                    tvDescription.setText(R.string.recent_apps_description_with_service);
+                }
+                if (cancelled) {
+                    Toast.makeText(RecentAppsActivity.this, getString(R.string.bulk_close_cancelled, stopped, total),
+                            Toast.LENGTH_SHORT).show();
                 }
+                // Act on the list once it reflects the last close
+                afterNextSnapshot = () -> onBulkCloseFinished(openLauncherIfEmpty, openLastIfSingle);
+                loadRecents();
+            }
+        });
+        if (closeQueue.isRunning()) {
+            showBulkCloseProgress(labelOf(packages.get(0)), 0, packages.size());
+        }
+    }
+
+    /** Shows the progress of the running bulk close in the description text. */
+    private void showBulkCloseProgress(String currentLabel, int done, int total) {
+        bulkCloseProgress = getString(R.string.bulk_close_progress, done, total, currentLabel);
+        if (tvDescription != null) {
+            tvDescription.setText(bulkCloseProgress);
+        }
+    }
+
+    /** Returns the label of a listed package, or the package name if it is not listed. */
+    private String labelOf(String packageName) {
+        for (RecentsSnapshot.Entry entry : recentApps) {
+            if (entry.packageName.equals(packageName)) {
+                return entry.label;
+            }
+        }
+        return packageName;
+    }
+
+    /**
+     * Called once the recents list has been refreshed after a bulk close.
+     * Optionally navigates to the home screen or launches the remaining app.
+     */
+    private void onBulkCloseFinished(boolean openLauncherIfEmpty, boolean openLastIfSingle) {
+        if (adapter != null) {
+            // Restore focus to the first entry
+            if (!recentApps.isEmpty()) {
+                focusPosition(0);
+            }
+        }
+        // If there are no apps left in the recents list and openLauncherIfEmpty is true,
+        // launch the default launcher.  We build an ACTION_MAIN/CATEGORY_HOME intent.
+        if (openLauncherIfEmpty && recentApps.isEmpty()) {
+            Intent homeIntent = new Intent(Intent.ACTION_MAIN);
+            homeIntent.addCategory(Intent.CATEGORY_HOME);
+            homeIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            try {
+                startActivity(homeIntent);
+                finish();
+                return;
+            } catch (Exception e) {
+                // Fail silently; the user can still navigate manually.
             }
-            // If there are no apps left in the recents list and openLauncherIfEmpty is true,
-            // launch the default launcher.  We build an ACTION_MAIN/CATEGORY_HOME intent.
-            if (openLauncherIfEmpty && recentApps.isEmpty()) {
-                Intent homeIntent = new Intent(Intent.ACTION_MAIN);
-                homeIntent.addCategory(Intent.CATEGORY_HOME);
-                homeIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        }
+        // If exactly one app remains and openLastIfSingle is true, launch that app.
+        if (openLastIfSingle && recentApps.size() == 1) {
+            RecentsSnapshot.Entry entry = recentApps.get(0);
+            // Attempt to acquire a TV‑optimised launch intent first.  Some Android TV apps
+            // only declare a LEANBACK_LAUNCHER category and therefore
+            // getLaunchIntentForPackage() returns null.
+            Intent launchIntent = AppMetadataCache.getInstance(this).getLaunchIntent(entry.packageName);
+            if (launchIntent != null) {
+                // Update the history before launching
+                PrefsHelper.updateHistory(RecentAppsActivity.this, entry.packageName);
+                launchIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                 try {
-                    startActivity(homeIntent);
+                    startActivity(launchIntent);
                     finish();
                     return;
                 } catch (Exception e) {
-                    // Fail silently; the user can still navigate manually.
-                }
-            }
-            // If exactly one app remains and openLastIfSingle is true, launch that app.
-            if (openLastIfSingle && recentApps.size() == 1) {
-                AppEntry entry = recentApps.get(0);
-                // Attempt to acquire a TV‑optimised launch intent first.  Some Android TV apps
-                // only declare a LEANBACK_LAUNCHER category and therefore
-                // getLaunchIntentForPackage() returns null.
-                android.content.pm.PackageManager pm = getPackageManager();
-                Intent launchIntent = pm.getLeanbackLaunchIntentForPackage(entry.packageName);
-                if (launchIntent == null) {
-                    launchIntent = pm.getLaunchIntentForPackage(entry.packageName);
-                }
-                if (launchIntent != null) {
-                    // Update the history before launching
-                    PrefsHelper.updateHistory(RecentAppsActivity.this, entry.packageName);
-                    launchIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                    try {
-                        startActivity(launchIntent);
-                        finish();
-                        return;
-                    } catch (Exception e) {
-                        // If we cannot launch the app, do nothing further.
-                    }
+                    // If we cannot launch the app, do nothing further.
                 }
             }
-        }, finalDelay);
+        }
     }
 
     /**
@@ -767,186 +787,222 @@ public class RecentAppsActivity extends AppCompatActivity {
      */
     private String getPreviousForegroundApp() {
         try {
-            UsageStatsManager usm = (UsageStatsManager) getSystemService(Context.USAGE_STATS_SERVICE);
-            long now = System.currentTimeMillis();
-            long begin = now - 1000L * 60 * 5; // last 5 minutes
-            UsageEvents events = usm.queryEvents(begin, now);
-            UsageEvents.Event event = new UsageEvents.Event();
-            String lastNonSelf = null;
-            while (events.hasNextEvent()) {
-                events.getNextEvent(event);
-                int type = event.getEventType();
-                if (type == UsageEvents.Event.MOVE_TO_FOREGROUND || type == UsageEvents.Event.ACTIVITY_RESUMED) {
-                    String pkg = event.getPackageName();
-                    if (pkg != null && !pkg.equals(getPackageName())) {
-                        lastNonSelf = pkg;
-                    }
-                }
-            }
-            return lastNonSelf;
+            long window = 1000L * 60 * 5; // last 5 minutes
+            RecentsEngine engine = RecentsEngine.getInstance(this);
+            // The previous app was foregrounded before this activity, so the log kept
+            // up to date by the periodic refresh is recent enough; avoid another query.
+            engine.sync(window, PREVIOUS_APP_MAX_AGE_MS);
+            return engine.getLatestPackage(window, RecentsEngine.FOREGROUND_OR_RESUMED);
         } catch (Exception e) {
             return null;
         }
     }
 
     /**
-     * A simple model class describing an app to be displayed in the recents
-     * list. Holds the package name, user-visible label and application
-     * icon.
+     * Identity and content comparison used by the background diff. Rows are
+     * the same if they show the same package; their content is the same if
+     * label, icon and stopped flag are unchanged.
      */
-    private static class AppEntry {
-        final String packageName;
-        final String label;
-        final Drawable icon;
+    private static final DiffUtil.ItemCallback<RecentsSnapshot.Entry> ENTRY_DIFF =
+            new DiffUtil.ItemCallback<RecentsSnapshot.Entry>() {
+                @Override
+                public boolean areItemsTheSame(RecentsSnapshot.Entry oldItem, RecentsSnapshot.Entry newItem) {
+                    return oldItem.packageName.equals(newItem.packageName);
+                }
 
-        AppEntry(String packageName, String label, Drawable icon) {
-            this.packageName = packageName;
-            this.label = label;
-            this.icon = icon;
+                @Override
+                public boolean areContentsTheSame(RecentsSnapshot.Entry oldItem, RecentsSnapshot.Entry newItem) {
+                    return oldItem.label.equals(newItem.label)
+                            && oldItem.icon == newItem.icon
+                            && oldItem.stopped == newItem.stopped;
+                }
+            };
+
+    /** Holds the views of one recents row. */
+    private static final class RecentAppViewHolder extends RecyclerView.ViewHolder {
+        final ImageView iconView;
+        final TextView textView;
+        final android.widget.ImageButton settingsButton;
+        final ImageView leftArrow;
+        final ImageView leftClose;
+        final ImageView rightArrow;
+
+        RecentAppViewHolder(View view) {
+            super(view);
+            iconView = view.findViewById(R.id.app_icon);
+            textView = view.findViewById(R.id.app_text);
+            settingsButton = view.findViewById(R.id.settings_button);
+            leftArrow = view.findViewById(R.id.left_arrow);
+            leftClose = view.findViewById(R.id.left_close);
+            rightArrow = view.findViewById(R.id.right_arrow);
         }
     }
 
     /**
-     * Custom adapter that renders each AppEntry in the recents list. The
-     * icon is displayed on the left, followed by the app name and package
-     * name. Excluded apps are highlighted in red.
+     * Adapter that renders each snapshot entry in the recents list. The icon
+     * is displayed on the left, followed by the app name and package name.
+     * Excluded apps are highlighted in red. Lists are diffed off the main
+     * thread by the underlying AsyncListDiffer.
      */
-    private class RecentAppsAdapter extends ArrayAdapter<AppEntry> {
+    private class RecentAppsAdapter extends ListAdapter<RecentsSnapshot.Entry, RecentAppViewHolder> {
         private final LayoutInflater inflater;
         // Layout resources for each variant (1-indexed). Variants 1–4 correspond to the
         // classic behaviours described in the activity documentation. Variants 5–8 are
         // similar but provide alternate focus orders and combinations of row/gear
         // focusability. See the corresponding XML files under res/layout.
-        // Only one layout is used (variant 3).  The array is kept for
+        // Only one layout is used (variant 3).  The array is kept for
         // compatibility with the existing indexing but contains a single
         // entry so that layoutIndex is always 0.
         private final int[] ITEM_LAYOUTS = new int[] {
                 R.layout.item_recent_app_v3
         };
 
-        public RecentAppsAdapter(Context ctx, List<AppEntry> apps) {
-            super(ctx, 0, apps);
+        /** Stable row IDs, assigned once per package for the lifetime of the adapter. */
+        private final java.util.HashMap<String, Long> stableIds = new java.util.HashMap<>();
+
+        /** Background drawable that shows which row has focus. */
+        private final int rowBackground;
+
+        RecentAppsAdapter(Context ctx) {
+            super(ENTRY_DIFF);
             inflater = LayoutInflater.from(ctx);
+            setHasStableIds(true);
+            android.util.TypedValue value = new android.util.TypedValue();
+            ctx.getTheme().resolveAttribute(android.R.attr.selectableItemBackground, value, true);
+            rowBackground = value.resourceId;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            String pkg = getItem(position).packageName;
+            Long id = stableIds.get(pkg);
+            if (id == null) {
+                id = (long) stableIds.size();
+                stableIds.put(pkg, id);
+            }
+            return id;
         }
 
         @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            View view = convertView;
+        public RecentAppViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
             int variant = variantIndex;
             // Clamp variant to available layouts
             int layoutIndex = Math.max(1, Math.min(variant, ITEM_LAYOUTS.length)) - 1;
-            if (view == null) {
-                view = inflater.inflate(ITEM_LAYOUTS[layoutIndex], parent, false);
+            View view = inflater.inflate(ITEM_LAYOUTS[layoutIndex], parent, false);
+            // Unlike ListView, RecyclerView has no selector: the row itself takes focus
+            // and shows it through its background.
+            view.setFocusable(true);
+            if (rowBackground != 0) {
+                view.setBackgroundResource(rowBackground);
             }
-            AppEntry entry = getItem(position);
-            ImageView iconView = view.findViewById(R.id.app_icon);
-            TextView textView = view.findViewById(R.id.app_text);
-            android.widget.ImageButton settingsButton = view.findViewById(R.id.settings_button);
-            // Retrieve arrow/close icons for conditional visibility based on accessibility service
-            ImageView leftArrow = view.findViewById(R.id.left_arrow);
-            ImageView leftClose = view.findViewById(R.id.left_close);
-            ImageView rightArrow = view.findViewById(R.id.right_arrow);
-            if (entry != null) {
-                iconView.setImageDrawable(entry.icon);
-                // Build display text as "Label (package)"
-                String text = entry.label + " (" + entry.packageName + ")";
-                textView.setText(text);
-                // Show or hide the left icons based on whether the accessibility service is enabled.
-                // When the service is active we display both the arrow and close icons on the left
-                // to convey navigation cues. Otherwise these icons are hidden to avoid confusing
-                // users who cannot use the auto‑close functionality.
-                boolean serviceEnabled = RecentsAccessibilityService.isServiceEnabled();
-                int leftVis = serviceEnabled ? View.VISIBLE : View.GONE;
-                if (leftArrow != null) {
-                    leftArrow.setVisibility(leftVis);
-                }
-                if (leftClose != null) {
-                    leftClose.setVisibility(leftVis);
-                }
-                // The right arrow remains visible at all times since DPAD‑RIGHT will open
-                // the system settings for the current app.
-                if (rightArrow != null) {
-                    rightArrow.setVisibility(View.VISIBLE);
-                }
-                // Attach focus listeners for instrumentation. When the app cell or gear
-                // receives focus we log the package name, position and timestamp and
-                // update lastFocusedWasGear accordingly. This helps diagnose DPAD
-                // navigation behaviour on Android TV.
-                final AppEntry currentEntry = entry;
-                View appCell = view.findViewById(R.id.app_cell);
-                if (appCell != null) {
-                    appCell.setOnFocusChangeListener((v, hasFocus) -> {
-                        if (hasFocus) {
-                            lastFocusedWasGear = false;
-                            android.util.Log.d("RecentAppsActivity",
-                                    "Focus app_cell pkg=" + currentEntry.packageName + " pos=" + position + " t=" + System.currentTimeMillis());
-                        }
-                    });
-                }
-                if (settingsButton != null) {
-                    settingsButton.setOnFocusChangeListener((v, hasFocus) -> {
-                        if (hasFocus) {
-                            lastFocusedWasGear = true;
-                            android.util.Log.d("RecentAppsActivity",
-                                    "Focus gear pkg=" + currentEntry.packageName + " pos=" + position + " t=" + System.currentTimeMillis());
-                        }
-                    });
-                }
-                // Highlight excluded packages in red or apply theme-aware colour
-                if (PrefsHelper.isExcluded(getContext(), entry.packageName)) {
-                    int colour = ContextCompat.getColor(getContext(), R.color.recent_app_text_color_excluded);
-                    textView.setTextColor(colour);
-                } else {
-                    int colour = ContextCompat.getColor(getContext(), R.color.recent_app_text_color);
-                    textView.setTextColor(colour);
+            RecentAppViewHolder holder = new RecentAppViewHolder(view);
+            view.setOnClickListener(v -> onItemClick(holder.getBindingAdapterPosition()));
+            view.setOnLongClickListener(v -> onItemLongClick(holder.getBindingAdapterPosition()));
+            view.setOnKeyListener((v, keyCode, event) ->
+                    onRowKey(holder.getBindingAdapterPosition(), keyCode, event));
+            // Attach focus listeners for instrumentation. When the app cell or gear
+            // receives focus we log the package name, position and timestamp and
+            // update lastFocusedWasGear accordingly. This helps diagnose DPAD
+            // navigation behaviour on Android TV.
+            view.setOnFocusChangeListener((v, hasFocus) -> {
+                int position = holder.getBindingAdapterPosition();
+                if (hasFocus && position != RecyclerView.NO_POSITION) {
+                    lastFocusedWasGear = false;
+                    android.util.Log.d("RecentAppsActivity",
+                            "Focus app_cell pkg=" + getItem(position).packageName + " pos=" + position + " t=" + System.currentTimeMillis());
                 }
+            });
+            if (holder.settingsButton != null) {
+                holder.settingsButton.setOnFocusChangeListener((v, hasFocus) -> {
+                    int position = holder.getBindingAdapterPosition();
+                    if (hasFocus && position != RecyclerView.NO_POSITION) {
+                        lastFocusedWasGear = true;
+                        android.util.Log.d("RecentAppsActivity",
+                                "Focus gear pkg=" + getItem(position).packageName + " pos=" + position + " t=" + System.currentTimeMillis());
+                    }
+                });
                 // Make gear focusable or not based on variant. For variants where the gear
                 // should not be focusable we disable its focusability here. In other cases
                 // we allow default focus so that DPAD‑RIGHT can move to it.
-                // Variant 3 does not allow the gear to receive focus.  Always set it
+                // Variant 3 does not allow the gear to receive focus.  Always set it
                 // unfocusable so that DPAD‑right navigation is handled by code.
-                settingsButton.setFocusable(false);
-                settingsButton.setFocusableInTouchMode(false);
+                holder.settingsButton.setFocusable(false);
+                holder.settingsButton.setFocusableInTouchMode(false);
                 // If gear is visible, set click listener to open app settings
-                settingsButton.setOnClickListener(v -> {
+                holder.settingsButton.setOnClickListener(v -> {
+                    int position = holder.getBindingAdapterPosition();
+                    if (position == RecyclerView.NO_POSITION) {
+                        return;
+                    }
+                    String pkg = getItem(position).packageName;
                     Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
-                    intent.setData(Uri.parse("package:" + entry.packageName));
+                    intent.setData(Uri.parse("package:" + pkg));
                     intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                     try {
-                        getContext().startActivity(intent);
+                        startActivity(intent);
                     } catch (Exception e) {
-                        Toast.makeText(getContext(), entry.packageName + " cannot be opened in settings", Toast.LENGTH_SHORT).show();
+                        Toast.makeText(RecentAppsActivity.this, pkg + " cannot be opened in settings", Toast.LENGTH_SHORT).show();
                     }
                 });
                 // Add key listener to gear so that DPAD_UP/DOWN moves between rows and DPAD_LEFT
                 // returns focus to the row. DPAD_CENTER and DPAD_RIGHT fall through to default.
-                settingsButton.setOnKeyListener((v, keyCode, event) -> {
+                holder.settingsButton.setOnKeyListener((v, keyCode, event) -> {
                     if (event.getAction() != KeyEvent.ACTION_DOWN) return false;
+                    int position = holder.getBindingAdapterPosition();
                     if (keyCode == KeyEvent.KEYCODE_DPAD_DOWN) {
-                        int next = position + 1;
-                        if (next < recentApps.size()) {
-                            listView.setSelection(next);
-                            listView.requestFocus();
-                        }
+                        focusPosition(position + 1);
                         return true;
                     }
                     if (keyCode == KeyEvent.KEYCODE_DPAD_UP) {
-                        int prev = position - 1;
-                        if (prev >= 0) {
-                            listView.setSelection(prev);
-                            listView.requestFocus();
+                        if (position > 0) {
+                            focusPosition(position - 1);
                         }
                         return true;
                     }
                     if (keyCode == KeyEvent.KEYCODE_DPAD_LEFT) {
                         // return focus to the list row
-                        listView.requestFocus();
+                        holder.itemView.requestFocus();
                         return true;
                     }
                     return false;
                 });
             }
-            return view;
+            return holder;
+        }
+
+        @Override
+        public void onBindViewHolder(RecentAppViewHolder holder, int position) {
+            RecentsSnapshot.Entry entry = getItem(position);
+            holder.iconView.setImageDrawable(entry.icon);
+            // Build display text as "Label (package)"
+            String text = entry.label + " (" + entry.packageName + ")";
+            holder.textView.setText(text);
+            // Show or hide the left icons based on whether the accessibility service is enabled.
+            // When the service is active we display both the arrow and close icons on the left
+            // to convey navigation cues. Otherwise these icons are hidden to avoid confusing
+            // users who cannot use the auto‑close functionality.
+            boolean serviceEnabled = RecentsAccessibilityService.isServiceEnabled();
+            int leftVis = serviceEnabled ? View.VISIBLE : View.GONE;
+            if (holder.leftArrow != null) {
+                holder.leftArrow.setVisibility(leftVis);
+            }
+            if (holder.leftClose != null) {
+                holder.leftClose.setVisibility(leftVis);
+            }
+            // The right arrow remains visible at all times since DPAD‑RIGHT will open
+            // the system settings for the current app.
+            if (holder.rightArrow != null) {
+                holder.rightArrow.setVisibility(View.VISIBLE);
+            }
+            // Highlight excluded packages in red or apply theme-aware colour
+            Context context = holder.itemView.getContext();
+            if (PrefsHelper.isExcluded(context, entry.packageName)) {
+                int colour = ContextCompat.getColor(context, R.color.recent_app_text_color_excluded);
+                holder.textView.setTextColor(colour);
+            } else {
+                int colour = ContextCompat.getColor(context, R.color.recent_app_text_color);
+                holder.textView.setTextColor(colour);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,29 +1,98 @@
 package eu.recentsopener;
 
 import android.accessibilityservice.AccessibilityService;
+import android.content.ComponentName;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import android.view.KeyEvent;
 import android.view.accessibility.AccessibilityEvent;
 
+import java.util.HashMap;
+
 /**
  * RecentsAccessibilityService is an AccessibilityService that holds a static
  * reference to itself once bound by the system. This allows other
  * components (such as the MainActivity) to request the service to perform
  * global actions, for example opening the recents (overview) screen.
  *
+ * Force stops are driven by a {@link ForceStopSequence}, which receives the
+ * window state and content change events while it runs.
+ *
+ * While connected, the service also tracks foreground switches from
+ * TYPE_WINDOW_STATE_CHANGED events and reports them to the
+ * {@link RecentsEngine}, then requests a recents refresh. Open screens
+ * therefore see a switch within milliseconds instead of waiting for
+ * UsageStats to flush its events.
+ *
  * Note: This service is only required when using the "Open Recents" button.
  * The rest of the app works without the accessibility service enabled.
  */
 public class RecentsAccessibilityService extends AccessibilityService {
+    private static final String TAG = "RecentsService";
 
     // Static reference to the most recently connected service instance. The system
     // binds the service when the user enables it via the accessibility settings.
     private static RecentsAccessibilityService sInstance;
 
+    /** Result of {@link #clickButtonByText}: no matching node was found. */
+    static final int CLICK_NOT_FOUND = 0;
+    /** Result of {@link #clickButtonByText}: a matching node was found but is disabled. */
+    static final int CLICK_DISABLED = 1;
+    /** Result of {@link #clickButtonByText}: a matching node was clicked. */
+    static final int CLICK_DONE = 2;
+
+    /** Step key of the Force stop button, see {@link ClickMatchCache}. */
+    static final String STEP_FORCE_STOP = "force_stop";
+    /** Step key of the confirmation dialog button, see {@link ClickMatchCache}. */
+    static final String STEP_CONFIRM = "confirm";
+
+    /** View IDs of the Force stop button on the app details page. */
+    static final String[] FORCE_STOP_IDS = {
+            "com.android.settings:id/force_stop_button",
+            "com.android.settings:id/left_button",
+            "com.android.tv.settings:id/force_stop_button",
+            "com.google.android.tv.settings:id/force_stop_button"
+    };
+    /**
+     * Guessed labels of the Force stop button, used if the label cannot be
+     * resolved from the settings app.
+     */
+    static final String[] FORCE_STOP_TEXTS = {
+            "Force stop", "Stoppen erzwingen", "Stopp erzwingen", "Beenden erzwingen"
+    };
+    /** View IDs of the positive button of the confirmation dialog. */
+    static final String[] CONFIRM_IDS = {"android:id/button1"};
+    /**
+     * Guessed labels of the positive button of the confirmation dialog, used
+     * if the label cannot be resolved from the settings app.
+     */
+    static final String[] CONFIRM_TEXTS = {"OK", "Ok", "OK ", "OKAY", "Ok ", "O. K.", "Beenden"};
+
+    /** Upper bound for {@link #activityClassCache} before it is cleared. */
+    private static final int MAX_CACHED_CLASSES = 512;
+
+    /**
+     * Caches whether a window class reported by TYPE_WINDOW_STATE_CHANGED is an
+     * activity, keyed by "package/class". Dialogs, toasts and input method
+     * windows also raise this event but do not change the foreground app.
+     * Only accessed on the main thread.
+     */
+    private final HashMap<String, Boolean> activityClassCache = new HashMap<>();
+
+    /** Package of the last foreground activity seen, used to drop repeats. */
+    private String lastForegroundPackage;
+
+    /** Force-stop sequence in progress, or null. Only accessed on the main thread. */
+    private ForceStopSequence forceStop;
+
+    /** Bulk close in progress, or null. Only accessed on the main thread. */
+    private CloseQueue closeQueue;
+
     /**
-     * The delay (in milliseconds) between automated steps when performing the
-     * force‑stop sequence. Adjust this value if the UI on your device needs
-     * more or less time to update between focus changes and button presses.
+     * Compiled candidates keyed by step, settings package and locale. Only
+     * accessed on the main thread.
      */
-    private static final int FORCE_SEQUENCE_DELAY_MS = 500;
+    private final HashMap<String, NodeMatcher> nodeMatchers = new HashMap<>();
 
     @Override
     public void onCreate() {
@@ -34,6 +103,12 @@ public class RecentsAccessibilityService extends AccessibilityService {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        if (closeQueue != null) {
+            closeQueue.cancel();
+        }
+        if (forceStop != null) {
+            forceStop.cancel();
+        }
         if (sInstance == this) {
             sInstance = null;
         }
@@ -41,7 +116,76 @@ public class RecentsAccessibilityService extends AccessibilityService {
 
     @Override
     public void onAccessibilityEvent(AccessibilityEvent event) {
-        // We do not need to respond to events for this simple service.
+        if (event == null) {
+            return;
+        }
+        if (forceStop != null) {
+            forceStop.onEvent(event);
+        }
+        if (event.getEventType() != AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) {
+            return;
+        }
+        CharSequence pkgSeq = event.getPackageName();
+        CharSequence clsSeq = event.getClassName();
+        if (pkgSeq == null || clsSeq == null) {
+            return;
+        }
+        String pkg = pkgSeq.toString();
+        if (closeQueue != null) {
+            closeQueue.onWindowStateChanged(pkg);
+        }
+        if (pkg.equals(lastForegroundPackage) || !isActivityClass(pkg, clsSeq.toString())) {
+            return;
+        }
+        lastForegroundPackage = pkg;
+        CloseEngine.getInstance(this).onForeground(pkg);
+        // Event times are based on uptime; convert to wall clock time like UsageEvents
+        long timestamp = System.currentTimeMillis() - (SystemClock.uptimeMillis() - event.getEventTime());
+        if (RecentsEngine.getInstance(this).reportForeground(pkg, timestamp)) {
+            RecentsRefresher.getInstance(this).requestRefresh();
+        }
+    }
+
+    /**
+     * Returns true if the class names an activity of the package. The answer
+     * is cached per class so that PackageManager is queried only once.
+     */
+    private boolean isActivityClass(String pkg, String cls) {
+        String key = pkg + "/" + cls;
+        Boolean cached = activityClassCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        boolean isActivity;
+        try {
+            getPackageManager().getActivityInfo(new ComponentName(pkg, cls), 0);
+            isActivity = true;
+        } catch (PackageManager.NameNotFoundException e) {
+            isActivity = false;
+        }
+        if (activityClassCache.size() >= MAX_CACHED_CLASSES) {
+            activityClassCache.clear();
+        }
+        activityClassCache.put(key, isActivity);
+        return isActivity;
+    }
+
+    /**
+     * Cancels a running bulk close when BACK is pressed. Key events are only
+     * delivered while a close queue runs; see {@link #startCloseQueue}. The
+     * BACK presses of the sequences themselves are injected on the virtual
+     * keyboard and are let through.
+     */
+    @Override
+    protected boolean onKeyEvent(KeyEvent event) {
+        if (closeQueue != null && event.getKeyCode() == KeyEvent.KEYCODE_BACK
+                && event.getDeviceId() != android.view.KeyCharacterMap.VIRTUAL_KEYBOARD) {
+            if (event.getAction() == KeyEvent.ACTION_DOWN) {
+                closeQueue.cancel();
+            }
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -84,113 +228,201 @@ public class RecentsAccessibilityService extends AccessibilityService {
     }
 
     /**
-     * Performs a sequence of clicks to close the current application via
-     * the system settings page. This method searches the view hierarchy for
-     * a button labelled "Force stop" (English) or its German equivalent and
-     * clicks it, then confirms the dialog by pressing the affirmative button
-     * ("OK" or localized variant) and finally returns to the previous screen.
-     * Each step is executed with a short delay to allow the UI to update.
+     * Force-stops the app whose details page in the system settings is being
+     * opened: clicks the "Force stop" button, confirms the dialog and returns
+     * to the previous screen. Each step runs as soon as the UI is ready; see
+     * {@link ForceStopSequence}. A sequence that is still running is
+     * cancelled.
      *
      * Note: This operation requires the accessibility service to have
      * permission to retrieve window content (canRetrieveWindowContent=true).
      */
     public void performForceStopSequence() {
-        final RecentsAccessibilityService svc = this;
-        if (svc == null) return;
-        // Handler tied to the main looper of the service
-        android.os.Handler handler = new android.os.Handler(getMainLooper());
-        // Step 1: wait 500ms, then click the Force stop button if present
-        handler.postDelayed(() -> {
-            clickButtonByText(new String[]{"Force stop", "Stoppen erzwingen", "Stopp erzwingen", "Beenden erzwingen"});
-            // Step 2: after another delay click the OK button on the confirmation dialog
-            handler.postDelayed(() -> {
-                clickButtonByText(new String[]{"OK", "Ok", "OK ", "OKAY", "Ok ", "O. K.", "Beenden"});
-                // Step 3: after another delay go back to the previous screen
-                handler.postDelayed(() -> {
-                    svc.performGlobalAction(AccessibilityService.GLOBAL_ACTION_BACK);
-                }, FORCE_SEQUENCE_DELAY_MS);
-            }, FORCE_SEQUENCE_DELAY_MS);
-        }, FORCE_SEQUENCE_DELAY_MS);
+        performForceStopSequence(null);
     }
 
     /**
-     * Searches the active window for a button whose text matches one of
-     * the provided options and performs a click on the first match. If no
-     * matching node is found this method returns without action.
+     * Like {@link #performForceStopSequence()}, but reports the outcome to
+     * the callback on the main thread. Must be called on the main thread.
+     */
+    public void performForceStopSequence(ForceStopSequence.Callback callback) {
+        if (forceStop != null) {
+            forceStop.cancel();
+        }
+        forceStop = new ForceStopSequence(this, callback);
+        forceStop.start();
+    }
+
+    /**
+     * Force-stops the given packages one after another, replacing any bulk
+     * close that is still running. Must be called on the main thread.
      *
-     * @param candidates Array of possible button labels in different locales
+     * @return the started queue, which can be used to cancel it
      */
-    private void clickButtonByText(String[] candidates) {
-        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.JELLY_BEAN_MR2) {
+    public CloseQueue startCloseQueue(java.util.List<String> packages, CloseQueue.Listener listener) {
+        if (closeQueue != null) {
+            closeQueue.cancel();
+        }
+        closeQueue = new CloseQueue(this, packages, listener);
+        setKeyFilterEnabled(true);
+        closeQueue.start();
+        return closeQueue;
+    }
+
+    /** Returns the bulk close in progress, or null if there is none. */
+    public CloseQueue getCloseQueue() {
+        return closeQueue;
+    }
+
+    /** Called by a queue once it has finished or was cancelled. */
+    void onCloseQueueFinished(CloseQueue queue) {
+        if (closeQueue == queue) {
+            closeQueue = null;
+            setKeyFilterEnabled(false);
+        }
+    }
+
+    /** Abandons the running force-stop sequence, if any, without pressing BACK. */
+    void cancelForceStop() {
+        if (forceStop != null) {
+            forceStop.cancel();
+        }
+    }
+
+    /**
+     * Requests key events only while they are needed, so that key presses
+     * are not routed through the service during normal use.
+     */
+    private void setKeyFilterEnabled(boolean enabled) {
+        android.accessibilityservice.AccessibilityServiceInfo info = getServiceInfo();
+        if (info == null) {
             return;
         }
+        if (enabled) {
+            info.flags |= android.accessibilityservice.AccessibilityServiceInfo.FLAG_REQUEST_FILTER_KEY_EVENTS;
+        } else {
+            info.flags &= ~android.accessibilityservice.AccessibilityServiceInfo.FLAG_REQUEST_FILTER_KEY_EVENTS;
+        }
+        setServiceInfo(info);
+    }
+
+    /** Called by a sequence once it has reported its outcome. */
+    void onForceStopFinished(ForceStopSequence sequence) {
+        if (forceStop == sequence) {
+            forceStop = null;
+        }
+    }
+
+    /**
+     * Returns true if the active window contains a node with one of the
+     * given view IDs.
+     */
+    boolean hasNodeWithViewId(String[] viewIds) {
         android.view.accessibility.AccessibilityNodeInfo root = getRootInActiveWindow();
         if (root == null) {
-            return;
+            return false;
         }
         try {
-            // First try to find the force stop button by resource ID on common packages
-            String[] idCandidates = new String[]{
-                    "com.android.settings:id/force_stop_button",
-                    "com.android.settings:id/left_button",
-                    "com.android.tv.settings:id/force_stop_button",
-                    "com.google.android.tv.settings:id/force_stop_button",
-                    // Android confirmation dialog positive button ID (OK button)
-                    "android:id/button1"
-            };
-            for (String viewId : idCandidates) {
-                try {
-                    java.util.List<android.view.accessibility.AccessibilityNodeInfo> nodesById = root.findAccessibilityNodeInfosByViewId(viewId);
-                    if (nodesById != null && !nodesById.isEmpty()) {
-                        for (android.view.accessibility.AccessibilityNodeInfo node : nodesById) {
-                            if (node != null && node.isEnabled()) {
-                                // climb up to a clickable ancestor if necessary
-                                android.view.accessibility.AccessibilityNodeInfo clickable = node;
-                                while (clickable != null && !clickable.isClickable()) {
-                                    clickable = clickable.getParent();
-                                }
-                                if (clickable != null) {
-                                    clickable.performAction(android.view.accessibility.AccessibilityNodeInfo.ACTION_CLICK);
-                                    for (android.view.accessibility.AccessibilityNodeInfo n : nodesById) {
-                                        n.recycle();
-                                    }
-                                    return;
-                                }
-                            }
-                        }
-                    }
-                } catch (Exception ignore) {
-                    // ignore invalid view IDs
-                }
-            }
-            // If not found by ID, search by visible text across locales
-            for (String text : candidates) {
-                if (text == null || text.isEmpty()) continue;
-                java.util.List<android.view.accessibility.AccessibilityNodeInfo> nodes = root.findAccessibilityNodeInfosByText(text);
+            for (String viewId : viewIds) {
+                java.util.List<android.view.accessibility.AccessibilityNodeInfo> nodes = root.findAccessibilityNodeInfosByViewId(viewId);
                 if (nodes != null && !nodes.isEmpty()) {
-                    for (android.view.accessibility.AccessibilityNodeInfo node : nodes) {
-                        if (node != null && node.isEnabled()) {
-                            android.view.accessibility.AccessibilityNodeInfo clickable = node;
-                            while (clickable != null && !clickable.isClickable()) {
-                                clickable = clickable.getParent();
-                            }
-                            if (clickable != null) {
-                                clickable.performAction(android.view.accessibility.AccessibilityNodeInfo.ACTION_CLICK);
-                                for (android.view.accessibility.AccessibilityNodeInfo n : nodes) {
-                                    n.recycle();
-                                }
-                                return;
-                            }
-                        }
-                    }
-                    // Recycle nodes if none clicked
                     for (android.view.accessibility.AccessibilityNodeInfo n : nodes) {
                         n.recycle();
                     }
+                    return true;
                 }
             }
+            return false;
+        } finally {
+            root.recycle();
+        }
+    }
+
+    /**
+     * Searches the active window for a button with one of the given view IDs
+     * or whose text matches its label, and clicks the best enabled match. The
+     * window is walked once for all candidates; see {@link NodeMatcher}. View
+     * IDs rank above labels.
+     *
+     * The label is resolved from the resources of the settings app showing
+     * the window ({@link SettingsLabels}), so it is found in every locale.
+     * The given labels are only guesses used if that fails.
+     *
+     * The candidate that matched is remembered per settings package, locale
+     * and step in the {@link ClickMatchCache} and ranked first among the
+     * candidates of its kind the next time.
+     *
+     * @param step       key of the automation step, e.g. {@link #STEP_FORCE_STOP}
+     * @param viewIds    fully qualified view IDs
+     * @param candidates fallback button labels in different locales
+     * @return {@link #CLICK_DONE} if a node was clicked, {@link #CLICK_DISABLED}
+     *         if only disabled matches were found, otherwise {@link #CLICK_NOT_FOUND}
+     */
+    int clickButtonByText(String step, String[] viewIds, String[] candidates) {
+        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return CLICK_NOT_FOUND;
+        }
+        android.view.accessibility.AccessibilityNodeInfo root = getRootInActiveWindow();
+        if (root == null) {
+            return CLICK_NOT_FOUND;
+        }
+        NodeMatcher.Result found;
+        String settingsPackage;
+        ClickMatchCache cache = ClickMatchCache.getInstance(this);
+        ClickMatchCache.Match cached;
+        NodeMatcher matcher;
+        long startedAt = SystemClock.elapsedRealtimeNanos();
+        try {
+            CharSequence rootPackage = root.getPackageName();
+            settingsPackage = rootPackage != null ? rootPackage.toString() : "";
+            String matcherKey = step + "|" + settingsPackage + "|" + java.util.Locale.getDefault();
+            matcher = nodeMatchers.get(matcherKey);
+            if (matcher == null) {
+                // Search for the label the settings app really shows; the guesses are
+                // only used if it cannot be resolved from its resources.
+                String[] labels = SettingsLabels.resolve(this, settingsPackage, step);
+                matcher = new NodeMatcher(viewIds, labels.length > 0 ? labels : candidates);
+                nodeMatchers.put(matcherKey, matcher);
+            }
+            cached = cache.get(settingsPackage, step);
+            found = matcher.find(root, cached);
         } finally {
             root.recycle();
         }
+        android.util.Log.d(TAG, step + ": visited " + matcher.lastVisited + " nodes in "
+                + (SystemClock.elapsedRealtimeNanos() - startedAt) / 1000 + " us");
+        if (found == null) {
+            return CLICK_NOT_FOUND;
+        }
+        try {
+            if (found.match.equals(cached)) {
+                cache.recordHit();
+            } else {
+                cache.recordMiss();
+                cache.put(settingsPackage, step, found.match);
+            }
+            if (!found.enabled) {
+                return CLICK_DISABLED;
+            }
+            // Climb up to a clickable ancestor if necessary, releasing every node on the way
+            android.view.accessibility.AccessibilityNodeInfo clickable = found.node;
+            while (clickable != null && !clickable.isClickable()) {
+                android.view.accessibility.AccessibilityNodeInfo parent = clickable.getParent();
+                if (clickable != found.node) {
+                    clickable.recycle();
+                }
+                clickable = parent;
+            }
+            if (clickable == null) {
+                return CLICK_NOT_FOUND;
+            }
+            clickable.performAction(android.view.accessibility.AccessibilityNodeInfo.ACTION_CLICK);
+            if (clickable != found.node) {
+                clickable.recycle();
+            }
+            return CLICK_DONE;
+        } finally {
+            found.recycle();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,458 @@
+package eu.recentsopener;
+
+import android.app.usage.UsageEvents;
+import android.content.Context;
+import android.os.SystemClock;
+
+import eu.recentsopener.engine.EventLog;
+import eu.recentsopener.engine.MruIndex;
+import eu.recentsopener.engine.RecentsFold;
+import eu.recentsopener.engine.TransitionLog;
+import eu.recentsopener.engine.UsageEventSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * RecentsEngine is the single process-wide reader of UsageEvents. It keeps
+ * an in-memory log of the events of the last 24 hours and serves every
+ * recents-related query from that log, so that the recents list, the
+ * previous-foreground lookup, the last-app switch, the live events screen
+ * and the debug report no longer scan UsageEvents independently.
+ *
+ * The log is filled incrementally: {@link #sync(long)} only queries the
+ * events newer than the last one already in the log, and backfills older
+ * events when a caller needs a longer window than is currently covered.
+ * Queries take a window length and an {@link EventFilter}, so callers can
+ * plug in their own event selection without another system query.
+ *
+ * The MRU order used by the recents list is maintained incrementally as
+ * new events arrive. All methods are thread safe. The log and the fold
+ * into the MRU order are plain Java classes of the {@code :engine} module;
+ * this class adds the queries of a {@link UsageEventSource} and the locking.
+ *
+ * UsageStats flushes events with a delay, so foreground switches observed
+ * directly (by {@link RecentsAccessibilityService}) are reported through
+ * {@link #reportForeground(String, long)} and kept in a separate live MRU.
+ * Foreground queries merge both sources by timestamp; the event log then
+ * only matters for the time before the service was connected and for
+ * switches the service did not see.
+ *
+ * Every foreground switch the engine learns of, from either source, is also
+ * appended to the persistent {@link ForegroundHistory}.
+ */
+public final class RecentsEngine {
+    /**
+     * Decides whether an event takes part in a query. The package name is
+     * null when the engine probes whether an event type is accepted at all.
+     */
+    public interface EventFilter {
+        boolean accept(int eventType, String packageName);
+    }
+
+    /** Receives the events of a window in chronological order. */
+    public interface EventVisitor {
+        void visit(long timestamp, int eventType, String packageName);
+    }
+
+    /** Accepts every event. */
+    public static final EventFilter ALL_EVENTS = (type, pkg) -> true;
+
+    /** Accepts MOVE_TO_FOREGROUND events. */
+    public static final EventFilter FOREGROUND =
+            (type, pkg) -> type == UsageEvents.Event.MOVE_TO_FOREGROUND;
+
+    /** Accepts MOVE_TO_FOREGROUND and ACTIVITY_RESUMED events. */
+    public static final EventFilter FOREGROUND_OR_RESUMED =
+            (type, pkg) -> type == UsageEvents.Event.MOVE_TO_FOREGROUND
+                    || type == UsageEvents.Event.ACTIVITY_RESUMED;
+
+    /** Longest window the engine retains (24 hours). */
+    public static final long MAX_WINDOW_MS = 1000L * 60 * 60 * 24;
+
+    /** Window of the recents list, maintained incrementally. */
+    public static final long RECENTS_WINDOW_MS = MAX_WINDOW_MS;
+
+    /**
+     * Minimum time between two incremental system queries. Calls to
+     * {@link #sync(long)} within this interval are served from the log.
+     */
+    private static final long MIN_SYNC_INTERVAL_MS = 250L;
+
+    private static RecentsEngine sInstance;
+
+    private final Context appContext;
+    private final String selfPackage;
+    private final RecentsFold recentsFold;
+    /** Source of usage events; null if usage stats are unavailable. */
+    private final UsageEventSource source;
+    /** Persistent log every observed foreground switch is appended to. */
+    private final ForegroundHistory history;
+
+    /** Events of the covered range in chronological order. */
+    private final EventLog log = new EventLog();
+
+    /** Interned package names so that every event of a package shares one String. */
+    private final HashMap<String, String> packageNames = new HashMap<>();
+
+    /**
+     * Incremental MRU order for the recents list (MOVE_TO_FOREGROUND within
+     * {@link #RECENTS_WINDOW_MS}, our own package skipped).
+     */
+    private final MruIndex recentsOrder = new MruIndex();
+
+    /** False when {@link #recentsOrder} must be rebuilt from the log. */
+    private boolean recentsOrderValid;
+
+    /**
+     * Foreground switches reported live, keyed by package with the wall clock
+     * time of the switch. Guarded by {@link #liveLock} rather than the engine
+     * lock so that reporting never waits for a running system query.
+     */
+    private final MruIndex liveOrder = new MruIndex();
+    private final Object liveLock = new Object();
+
+    /** Start of the time range covered by the log, or -1 before the first sync. */
+    private long coveredFrom = -1L;
+
+    /** Timestamp of the newest event in the log (the watermark). */
+    private long watermark = -1L;
+
+    /** Number of logged events whose timestamp equals the watermark. */
+    private int eventsAtWatermark;
+
+    /** Events at the watermark the running append still has to skip. */
+    private int appendSkipAtWatermark;
+
+    /** Events seen by the running append. */
+    private int appendScanned;
+
+    /** Visitor of {@link #appendEvents}; created once instead of per query. */
+    private final UsageEventSource.Visitor appender = this::appendEvent;
+
+    /** End of the previous incremental query, used to detect clock jumps. */
+    private long lastQueryEnd = -1L;
+
+    /** Elapsed realtime of the previous incremental query. */
+    private long lastQueryElapsed;
+
+    private RecentsEngine(Context context) {
+        appContext = context.getApplicationContext();
+        selfPackage = appContext.getPackageName();
+        recentsFold = new RecentsFold(selfPackage);
+        source = LiveUsageEventSource.create(appContext);
+        history = ForegroundHistory.getInstance(appContext);
+    }
+
+    /** Returns the process-wide engine, creating it on first use. */
+    public static synchronized RecentsEngine getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RecentsEngine(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Brings the log up to date for queries covering the given window. Events
+     * newer than the watermark are queried unless the previous query is less
+     * than {@link #MIN_SYNC_INTERVAL_MS} old, and older events are backfilled
+     * if the window reaches further back than the log.
+     *
+     * @param windowMs length of the window the caller is about to query
+     */
+    public void sync(long windowMs) {
+        sync(windowMs, MIN_SYNC_INTERVAL_MS);
+    }
+
+    /**
+     * Variant of {@link #sync(long)} that tolerates a log up to
+     * {@code maxAgeMs} old before querying the system for new events.
+     */
+    public synchronized void sync(long windowMs, long maxAgeMs) {
+        if (source == null) {
+            return;
+        }
+        long window = Math.min(windowMs, MAX_WINDOW_MS);
+        long now = System.currentTimeMillis();
+        long elapsed = SystemClock.elapsedRealtime();
+        if (lastQueryEnd < 0 || now < lastQueryEnd || now - lastQueryEnd > MAX_WINDOW_MS) {
+            // First use or clock jump: nothing in the log can be trusted
+            log.clear();
+            recentsOrder.clear();
+            recentsOrderValid = true;
+            synchronized (liveLock) {
+                liveOrder.clear();
+            }
+            coveredFrom = now - window;
+            watermark = coveredFrom;
+            eventsAtWatermark = 0;
+            appendEvents(coveredFrom, now);
+            lastQueryEnd = now;
+            lastQueryElapsed = elapsed;
+        } else {
+            long wantedFrom = now - window;
+            if (wantedFrom < coveredFrom) {
+                prependEvents(wantedFrom, coveredFrom);
+                coveredFrom = wantedFrom;
+            }
+            if (elapsed - lastQueryElapsed >= maxAgeMs) {
+                appendEvents(watermark, now);
+                lastQueryEnd = now;
+                lastQueryElapsed = elapsed;
+            }
+        }
+        // Drop events that left the retention window
+        long cutoff = now - MAX_WINDOW_MS;
+        log.removeOlderThan(cutoff);
+        if (coveredFrom < cutoff) {
+            coveredFrom = cutoff;
+        }
+    }
+
+    /**
+     * Queries the events in [begin, end) and appends those not yet in the
+     * log. The query includes the watermark so that events sharing the
+     * timestamp of the newest logged event are not lost; the ones already
+     * logged are skipped.
+     */
+    private void appendEvents(long begin, long end) {
+        long startedAt = System.nanoTime();
+        appendSkipAtWatermark = eventsAtWatermark;
+        appendScanned = 0;
+        source.readEvents(begin, end, appender);
+        Metrics.USAGE_QUERY_MS.recordSince(startedAt);
+        Metrics.EVENTS_SCANNED.record(appendScanned);
+    }
+
+    /** Appends one queried event unless it is already logged. */
+    private void appendEvent(long timestamp, int type, String packageName) {
+        appendScanned++;
+        if (timestamp < watermark) {
+            return;
+        }
+        if (timestamp == watermark && appendSkipAtWatermark > 0) {
+            appendSkipAtWatermark--;
+            return;
+        }
+        String pkg = intern(packageName);
+        log.add(timestamp, type, pkg);
+        if (timestamp > watermark) {
+            watermark = timestamp;
+            eventsAtWatermark = 1;
+        } else {
+            eventsAtWatermark++;
+        }
+        if (recentsOrderValid) {
+            recentsFold.fold(recentsOrder, timestamp, type, pkg);
+        }
+        if (recentsFold.accepts(type, pkg)) {
+            history.append(pkg, timestamp, TransitionLog.SOURCE_USAGE_EVENTS);
+        }
+    }
+
+    /**
+     * Queries the events in [begin, end) and inserts them before the events
+     * already in the log. The recents order is rebuilt on next use.
+     */
+    private void prependEvents(long begin, long end) {
+        long startedAt = System.nanoTime();
+        EventLog older = new EventLog();
+        source.readEvents(begin, end, (timestamp, type, pkg) -> {
+            older.add(timestamp, type, intern(pkg));
+            if (recentsFold.accepts(type, pkg)) {
+                history.append(pkg, timestamp, TransitionLog.SOURCE_USAGE_EVENTS);
+            }
+        });
+        Metrics.USAGE_QUERY_MS.recordSince(startedAt);
+        Metrics.EVENTS_SCANNED.record(older.size());
+        if (older.size() > 0) {
+            log.prepend(older);
+            recentsOrderValid = false;
+        }
+    }
+
+    private String intern(String pkg) {
+        if (pkg == null) {
+            return null;
+        }
+        String existing = packageNames.get(pkg);
+        if (existing == null) {
+            packageNames.put(pkg, pkg);
+            existing = pkg;
+        }
+        return existing;
+    }
+
+    /**
+     * Records that a package has just moved to the foreground. Called for
+     * switches observed before UsageStats reports them; the package is
+     * treated like a MOVE_TO_FOREGROUND event at the given time by every
+     * foreground query and appended to the {@link ForegroundHistory}. Does
+     * not block on a running {@link #sync(long)}.
+     *
+     * @param packageName package now in the foreground
+     * @param timestamp   wall clock time of the switch
+     * @return true if the live foreground order changed
+     */
+    public boolean reportForeground(String packageName, long timestamp) {
+        if (packageName == null || packageName.equals(selfPackage)) {
+            return false;
+        }
+        history.append(packageName, timestamp, TransitionLog.SOURCE_LIVE);
+        synchronized (liveLock) {
+            long cutoff = System.currentTimeMillis() - MAX_WINDOW_MS;
+            liveOrder.removeOlderThan(cutoff);
+            return liveOrder.touch(packageName, timestamp);
+        }
+    }
+
+    /**
+     * Returns the package most recently reported via
+     * {@link #reportForeground(String, long)}, or null if none was reported.
+     */
+    public String getLiveForeground() {
+        synchronized (liveLock) {
+            return liveOrder.getNewest();
+        }
+    }
+
+    /**
+     * Merges a newest-first list of packages with the live foreground order,
+     * both restricted to timestamps at or after {@code cutoff}. A package
+     * present in both sources is placed by its newer timestamp.
+     *
+     * @param logPackages  packages from the event log, newest first
+     * @param logTimes     timestamps parallel to {@code logPackages}
+     */
+    private List<String> mergeWithLive(List<String> logPackages, List<Long> logTimes, long cutoff) {
+        List<String> live = new ArrayList<>();
+        List<Long> liveTimes = new ArrayList<>();
+        synchronized (liveLock) {
+            for (String pkg : liveOrder) {
+                long time = liveOrder.getTimestamp(pkg);
+                if (time < cutoff) {
+                    break;
+                }
+                live.add(pkg);
+                liveTimes.add(time);
+            }
+        }
+        if (live.isEmpty()) {
+            return logPackages;
+        }
+        List<String> result = new ArrayList<>(logPackages.size() + live.size());
+        Set<String> seen = new HashSet<>();
+        int i = 0;
+        int j = 0;
+        while (i < logPackages.size() || j < live.size()) {
+            String pkg;
+            if (j >= live.size()
+                    || (i < logPackages.size() && logTimes.get(i) >= liveTimes.get(j))) {
+                pkg = logPackages.get(i++);
+            } else {
+                pkg = live.get(j++);
+            }
+            if (seen.add(pkg)) {
+                result.add(pkg);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the packages of the recents list, most recently foregrounded
+     * first, excluding this app. Live foreground reports are merged in.
+     * Callers should {@link #sync(long)} with {@link #RECENTS_WINDOW_MS}
+     * beforehand.
+     */
+    public synchronized List<String> getRecentPackages() {
+        if (!recentsOrderValid) {
+            recentsFold.foldAll(log, recentsOrder);
+            recentsOrderValid = true;
+        }
+        long cutoff = System.currentTimeMillis() - RECENTS_WINDOW_MS;
+        recentsOrder.removeOlderThan(cutoff);
+        List<String> packages = new ArrayList<>(recentsOrder.size());
+        List<Long> times = new ArrayList<>(recentsOrder.size());
+        for (String pkg : recentsOrder) {
+            packages.add(pkg);
+            times.add(recentsOrder.getTimestamp(pkg));
+        }
+        return mergeWithLive(packages, times, cutoff);
+    }
+
+    /**
+     * Returns the packages whose events match the filter within the window,
+     * most recent first, excluding this app. If the filter accepts
+     * MOVE_TO_FOREGROUND events, live foreground reports are merged in.
+     */
+    public synchronized List<String> getMru(long windowMs, EventFilter filter) {
+        long cutoff = System.currentTimeMillis() - windowMs;
+        List<String> result = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (int i = log.size() - 1; i >= 0 && log.timeAt(i) >= cutoff; i--) {
+            String pkg = log.packageAt(i);
+            if (pkg == null || pkg.equals(selfPackage) || !filter.accept(log.typeAt(i), pkg)) {
+                continue;
+            }
+            if (seen.add(pkg)) {
+                result.add(pkg);
+                times.add(log.timeAt(i));
+            }
+        }
+        return acceptsLive(filter) ? mergeWithLive(result, times, cutoff) : result;
+    }
+
+    /**
+     * Returns the package of the most recent event matching the filter within
+     * the window, excluding this app, or null if there is none. If the filter
+     * accepts MOVE_TO_FOREGROUND events, a newer live foreground report wins.
+     */
+    public synchronized String getLatestPackage(long windowMs, EventFilter filter) {
+        long cutoff = System.currentTimeMillis() - windowMs;
+        String latest = null;
+        long latestTime = cutoff - 1;
+        for (int i = log.size() - 1; i >= 0 && log.timeAt(i) >= cutoff; i--) {
+            String pkg = log.packageAt(i);
+            if (pkg != null && !pkg.equals(selfPackage) && filter.accept(log.typeAt(i), pkg)) {
+                latest = pkg;
+                latestTime = log.timeAt(i);
+                break;
+            }
+        }
+        if (acceptsLive(filter)) {
+            synchronized (liveLock) {
+                String live = liveOrder.getNewest();
+                if (live != null && liveOrder.getTimestamp(live) > latestTime) {
+                    latest = live;
+                }
+            }
+        }
+        return latest;
+    }
+
+    /** Live reports stand for MOVE_TO_FOREGROUND events. */
+    private static boolean acceptsLive(EventFilter filter) {
+        return filter.accept(UsageEvents.Event.MOVE_TO_FOREGROUND, null);
+    }
+
+    /**
+     * Passes every logged event within the window to the visitor in
+     * chronological order. Events of this app are included. The visitor runs
+     * while the engine is locked and must not call back into it.
+     */
+    public synchronized void forEachEvent(long windowMs, EventVisitor visitor) {
+        long cutoff = System.currentTimeMillis() - windowMs;
+        int first = log.size();
+        while (first > 0 && log.timeAt(first - 1) >= cutoff) {
+            first--;
+        }
+        for (int i = first; i < log.size(); i++) {
+            visitor.visit(log.timeAt(i), log.typeAt(i), log.packageAt(i));
+        }
+    }
+}
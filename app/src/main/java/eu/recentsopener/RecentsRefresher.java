@@ -0,0 +1,197 @@
+package eu.recentsopener;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import eu.recentsopener.engine.OrderDiff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * RecentsRefresher computes the recents list on a dedicated background
+ * thread so that the binder-heavy UsageStatsManager and PackageManager
+ * calls never run on the main looper. Refresh requests are coalesced:
+ * while a refresh is queued further requests are dropped, and a request
+ * arriving during a running refresh schedules exactly one more.
+ *
+ * Each result is published atomically as an immutable
+ * {@link RecentsSnapshot}. Any thread may read the latest snapshot via
+ * {@link #getSnapshot()} without locking; registered listeners are
+ * notified on the main thread so that adapters can swap the new data in.
+ *
+ * The first refresh seeds the {@link ForegroundHistory} with a full
+ * UsageEvents sync. While the history is current, later refreshes read the
+ * recents order from it and query UsageEvents only every
+ * {@link ForegroundHistory#RESYNC_INTERVAL_MS}.
+ */
+public final class RecentsRefresher {
+    private static final String TAG = "RecentsRefresher";
+
+    /**
+     * Callback invoked on the main thread whenever a refresh has published a
+     * new snapshot.
+     */
+    public interface Listener {
+        /**
+         * @param snapshot the newly published snapshot
+         * @param changed  true if the visible package order or the exclusion
+         *                 set differs from the previously published snapshot
+         */
+        void onSnapshot(RecentsSnapshot snapshot, boolean changed);
+    }
+
+    private static RecentsRefresher sInstance;
+
+    private final Context appContext;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "recents-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicReference<RecentsSnapshot> latest = new AtomicReference<>(RecentsSnapshot.EMPTY);
+    private final AtomicBoolean refreshQueued = new AtomicBoolean(false);
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Shared engine keeping the recents order between refreshes. */
+    private final RecentsEngine engine;
+
+    /** Persistent foreground transitions, read instead of the engine when current. */
+    private final ForegroundHistory history;
+
+    private RecentsRefresher(Context context) {
+        appContext = context.getApplicationContext();
+        engine = RecentsEngine.getInstance(appContext);
+        history = ForegroundHistory.getInstance(appContext);
+    }
+
+    /** Returns the process-wide refresher, creating it on first use. */
+    public static synchronized RecentsRefresher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RecentsRefresher(context);
+        }
+        return sInstance;
+    }
+
+    /** Returns the most recently published snapshot. Never null. */
+    public RecentsSnapshot getSnapshot() {
+        return latest.get();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Requests a refresh of the recents snapshot. Returns immediately; the
+     * result is delivered to the listeners. Calls made while a refresh is
+     * already queued are coalesced into that refresh.
+     */
+    public void requestRefresh() {
+        if (refreshQueued.compareAndSet(false, true)) {
+            executor.execute(this::refresh);
+        }
+    }
+
+    /**
+     * Runs arbitrary background work on the refresh thread. Used by screens
+     * that need to query usage data without blocking the main looper.
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    private void refresh() {
+        // Clear the flag before computing so that a request arriving while we
+        // work schedules one more refresh instead of being lost.
+        refreshQueued.set(false);
+        RecentsSnapshot snapshot;
+        long startedAt = System.nanoTime();
+        try {
+            snapshot = buildSnapshot();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Refresh failed", e);
+            return;
+        }
+        Metrics.REFRESH_MS.recordSince(startedAt);
+        try {
+            // Keep the Alt-Tab target current while the engine log is fresh
+            LastAppTarget.update(appContext, snapshot);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Last app target update failed", e);
+        }
+        RecentsSnapshot previous = latest.getAndSet(snapshot);
+        boolean changed = !snapshot.hasSameVisibleOrder(previous)
+                || snapshot.getExclusionsVersion() != previous.getExclusionsVersion();
+        if (changed) {
+            Log.d(TAG, "Order changed: "
+                    + OrderDiff.compute(previous.getVisiblePackages(), snapshot.getVisiblePackages()));
+        }
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                listener.onSnapshot(snapshot, changed);
+            }
+        });
+    }
+
+    private RecentsSnapshot buildSnapshot() {
+        // Take one exclusion snapshot for the whole pass. Loading it also persists the default
+        // list on freshly installed instances before any package is shown.
+        PrefsHelper.Exclusions exclusions = PrefsHelper.getExclusions(appContext);
+        long now = System.currentTimeMillis();
+        List<String> recent;
+        if (history.isCurrent()) {
+            // Catch up on switches the service missed now and then; the order comes from memory
+            engine.sync(RecentsEngine.RECENTS_WINDOW_MS, ForegroundHistory.RESYNC_INTERVAL_MS);
+            recent = history.getMru(RecentsEngine.RECENTS_WINDOW_MS);
+        } else {
+            engine.sync(RecentsEngine.RECENTS_WINDOW_MS);
+            history.markSeeded();
+            recent = engine.getRecentPackages();
+        }
+        PackageManager pm = appContext.getPackageManager();
+        AppMetadataCache metadata = AppMetadataCache.getInstance(appContext);
+        // Apps closed by killing their processes are not flagged as stopped
+        CloseEngine closeEngine = CloseEngine.getInstance(appContext);
+        List<RecentsSnapshot.Entry> entries = new ArrayList<>();
+        for (String pkg : recent) {
+            // Do not include excluded packages in the recents list
+            if (exclusions.contains(pkg)) {
+                continue;
+            }
+            try {
+                // One call yields both the volatile stopped flag and the version used to
+                // validate the cached label and icon.
+                Metrics.PM_CALLS.inc();
+                PackageInfo info = pm.getPackageInfo(pkg, 0);
+                boolean stopped = info.applicationInfo != null
+                        && (info.applicationInfo.flags & ApplicationInfo.FLAG_STOPPED) != 0
+                        || closeEngine.isKilled(pkg);
+                AppMetadataCache.Entry meta = metadata.get(info);
+                entries.add(new RecentsSnapshot.Entry(pkg, meta.label, meta.icon, stopped));
+            } catch (PackageManager.NameNotFoundException e) {
+                // skip unknown packages
+            }
+        }
+        return new RecentsSnapshot(entries, now, exclusions.version);
+    }
+}
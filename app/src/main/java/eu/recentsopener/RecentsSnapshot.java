@@ -0,0 +1,122 @@
+package eu.recentsopener;
+
+import android.graphics.drawable.Drawable;
+
+import eu.recentsopener.engine.OrderDiff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * RecentsSnapshot is an immutable result of one recents computation. It
+ * holds the package order (most recent first) together with the label,
+ * icon and stopped flag of every package so that readers never have to
+ * call PackageManager themselves. Snapshots are built on the background
+ * refresh thread by {@link RecentsRefresher} and can be shared freely
+ * between threads without locking.
+ */
+public final class RecentsSnapshot {
+    /** Snapshot published before the first refresh has completed. */
+    public static final RecentsSnapshot EMPTY =
+            new RecentsSnapshot(Collections.<Entry>emptyList(), 0L, 0L);
+
+    /**
+     * A single package in the recents order. Instances are immutable and
+     * may be used directly as list adapter items.
+     */
+    public static final class Entry {
+        public final String packageName;
+        public final String label;
+        public final Drawable icon;
+        /** True if the package is flagged as stopped (e.g. force-stopped). */
+        public final boolean stopped;
+
+        public Entry(String packageName, String label, Drawable icon, boolean stopped) {
+            this.packageName = packageName;
+            this.label = label;
+            this.icon = icon;
+            this.stopped = stopped;
+        }
+    }
+
+    private final List<Entry> entries;
+    private final List<Entry> visibleEntries;
+    private final List<String> visiblePackages;
+    private final long createdAt;
+    private final long exclusionsVersion;
+
+    /**
+     * @param entries           packages in recents order, most recent first
+     * @param createdAt         wall clock time at which the snapshot was computed
+     * @param exclusionsVersion version of the exclusion set the entries were
+     *                          filtered with, see {@link PrefsHelper.Exclusions}
+     */
+    public RecentsSnapshot(List<Entry> entries, long createdAt, long exclusionsVersion) {
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        List<Entry> visible = new ArrayList<>();
+        List<String> visiblePackages = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (!entry.stopped) {
+                visible.add(entry);
+                visiblePackages.add(entry.packageName);
+            }
+        }
+        this.visibleEntries = Collections.unmodifiableList(visible);
+        this.visiblePackages = Collections.unmodifiableList(visiblePackages);
+        this.createdAt = createdAt;
+        this.exclusionsVersion = exclusionsVersion;
+    }
+
+    /** Returns every package in recents order, including stopped ones. */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the packages that should be displayed in the recents list,
+     * i.e. all entries that are not stopped.
+     */
+    public List<Entry> getVisibleEntries() {
+        return visibleEntries;
+    }
+
+    /** Returns the package names of {@link #getVisibleEntries()} in the same order. */
+    public List<String> getVisiblePackages() {
+        return visiblePackages;
+    }
+
+    /** Returns the wall clock time at which this snapshot was computed. */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /** Returns the version of the exclusion set this snapshot was filtered with. */
+    public long getExclusionsVersion() {
+        return exclusionsVersion;
+    }
+
+    /**
+     * Returns true if both snapshots display the same packages in the same
+     * order. Labels and icons are not compared.
+     */
+    public boolean hasSameVisibleOrder(RecentsSnapshot other) {
+        return other != null && OrderDiff.isSameOrder(visiblePackages, other.visiblePackages);
+    }
+
+    /**
+     * Returns true if the given entries are the visible packages of this
+     * snapshot in the same order. Labels and icons are not compared.
+     */
+    public boolean hasSameVisibleOrder(List<Entry> others) {
+        if (others.size() != visibleEntries.size()) {
+            return false;
+        }
+        for (int i = 0; i < visibleEntries.size(); i++) {
+            if (!visibleEntries.get(i).packageName.equals(others.get(i).packageName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
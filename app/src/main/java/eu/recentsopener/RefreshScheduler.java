@@ -0,0 +1,199 @@
+package eu.recentsopener;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+/**
+ * RefreshScheduler runs a periodic refresh task on the main thread with an
+ * adaptive interval. It starts at a fast minimum interval and doubles the
+ * interval after every tick that produced no change, up to a maximum. Any
+ * reported change, key press or window focus gain snaps it back to the
+ * minimum. While the screen is off no ticks run at all.
+ *
+ * The owner reports results via {@link #reportResult(boolean)} because the
+ * refresh itself usually completes asynchronously. The scheduler counts how
+ * many ticks a fixed-rate poll at the minimum interval would have run in
+ * addition to the ones it actually ran, and logs the numbers on
+ * {@link #stop()} so that the savings can be checked in logcat.
+ *
+ * All methods must be called on the main thread.
+ */
+public final class RefreshScheduler {
+    private static final String TAG = "RefreshScheduler";
+
+    private final Context appContext;
+    private final String name;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final Runnable task;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private boolean started;
+    private boolean screenOn = true;
+    private long intervalMs;
+    /** Uptime at which the next tick is due, or -1 if none is scheduled. */
+    private long nextTickAt = -1L;
+    /** Uptime of the previous tick, or -1 before the first tick. */
+    private long lastTickAt = -1L;
+    /** True if a change was reported since the previous tick. */
+    private boolean changedSinceLastTick;
+    private long runCount;
+    private long skippedCount;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            nextTickAt = -1L;
+            long now = SystemClock.uptimeMillis();
+            if (lastTickAt >= 0) {
+                // Ticks a fixed-rate poll would have run since the previous one
+                long missed = (now - lastTickAt) / minIntervalMs - 1;
+                if (missed > 0) {
+                    skippedCount += missed;
+                }
+            }
+            lastTickAt = now;
+            if (changedSinceLastTick) {
+                intervalMs = minIntervalMs;
+            } else if (runCount > 0) {
+                intervalMs = Math.min(intervalMs * 2, maxIntervalMs);
+            }
+            changedSinceLastTick = false;
+            runCount++;
+            task.run();
+            schedule(intervalMs);
+        }
+    };
+
+    private final BroadcastReceiver screenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+                screenOn = false;
+                cancelTick();
+            } else if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+                screenOn = true;
+                intervalMs = minIntervalMs;
+                changedSinceLastTick = true;
+                schedule(0);
+            }
+        }
+    };
+
+    /**
+     * @param name          label used in log output
+     * @param minIntervalMs interval used after a change or user interaction
+     * @param maxIntervalMs upper bound of the backed-off interval
+     * @param task          refresh task run on every tick
+     */
+    public RefreshScheduler(Context context, String name, long minIntervalMs, long maxIntervalMs,
+                            Runnable task) {
+        this.appContext = context.getApplicationContext();
+        this.name = name;
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = Math.max(minIntervalMs, maxIntervalMs);
+        this.task = task;
+        this.intervalMs = minIntervalMs;
+    }
+
+    /**
+     * Starts ticking at the minimum interval. The first tick runs after
+     * {@code initialDelayMs}. Calling start on a started scheduler restarts it.
+     */
+    public void start(long initialDelayMs) {
+        if (!started) {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_SCREEN_OFF);
+            filter.addAction(Intent.ACTION_SCREEN_ON);
+            ContextCompat.registerReceiver(appContext, screenReceiver, filter,
+                    ContextCompat.RECEIVER_NOT_EXPORTED);
+            started = true;
+        }
+        PowerManager pm = (PowerManager) appContext.getSystemService(Context.POWER_SERVICE);
+        screenOn = pm == null || pm.isInteractive();
+        intervalMs = minIntervalMs;
+        changedSinceLastTick = false;
+        lastTickAt = -1L;
+        cancelTick();
+        if (screenOn) {
+            schedule(initialDelayMs);
+        }
+    }
+
+    /** Stops ticking and logs how many refreshes were run and skipped. */
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        cancelTick();
+        try {
+            appContext.unregisterReceiver(screenReceiver);
+        } catch (IllegalArgumentException ignore) {
+            // not registered
+        }
+        Log.d(TAG, name + ": runs=" + runCount + ", skipped=" + skippedCount
+                + ", interval=" + intervalMs + "ms");
+    }
+
+    /**
+     * Reports the outcome of a refresh. A change snaps the interval back to
+     * the minimum; no change lets the next tick back off further.
+     */
+    public void reportResult(boolean changed) {
+        if (changed) {
+            snapBack();
+        }
+    }
+
+    /**
+     * Returns to the minimum interval, e.g. after a key press or when the
+     * window regains focus. If the next tick is further away than the minimum
+     * interval it is moved forward.
+     */
+    public void snapBack() {
+        intervalMs = minIntervalMs;
+        changedSinceLastTick = true;
+        if (!started || !screenOn) {
+            return;
+        }
+        long dueAt = SystemClock.uptimeMillis() + minIntervalMs;
+        if (nextTickAt < 0 || nextTickAt > dueAt) {
+            cancelTick();
+            schedule(minIntervalMs);
+        }
+    }
+
+    /** Returns the number of ticks run since construction. */
+    public long getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * Returns the number of ticks a fixed-rate poll at the minimum interval
+     * would have run in addition to the ticks actually run.
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    private void schedule(long delayMs) {
+        cancelTick();
+        nextTickAt = SystemClock.uptimeMillis() + delayMs;
+        handler.postAtTime(tick, nextTickAt);
+    }
+
+    private void cancelTick() {
+        handler.removeCallbacks(tick);
+        nextTickAt = -1L;
+    }
+}
@@ -0,0 +1,108 @@
+package eu.recentsopener;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * SettingsLabels resolves the labels of the buttons that the force-stop
+ * automation clicks from the resources of the installed settings app, e.g.
+ * the {@code force_stop} string of com.android.settings. The labels are thus
+ * exactly what the settings app displays in the current locale, instead of
+ * guesses for a handful of languages.
+ *
+ * Resolved labels are cached per settings package, locale and step. An
+ * empty result means the package defines none of the known resource names;
+ * callers then fall back to their built-in guesses. The cache lives as long
+ * as the process, so an update of the settings app is picked up after the
+ * next restart of the service.
+ */
+public final class SettingsLabels {
+    private static final String TAG = "SettingsLabels";
+
+    private static final String[] NO_LABELS = new String[0];
+
+    /**
+     * Resource names of the Force stop button: the phone settings app and the
+     * Android TV settings app use different names.
+     */
+    private static final String[] FORCE_STOP_NAMES = {
+            "force_stop", "device_apps_app_management_force_stop"
+    };
+
+    /** Resource names of the positive button of the force-stop confirmation. */
+    private static final String[] CONFIRM_NAMES = {
+            "dlg_ok", "settings_ok", "okay"
+    };
+
+    private static final Map<String, String[]> sCache = new HashMap<>();
+
+    private SettingsLabels() {
+    }
+
+    /**
+     * Returns the labels the settings app uses for a step of the automation,
+     * or an empty array if none could be resolved.
+     *
+     * @param settingsPackage package of the window showing the button
+     * @param step            {@link RecentsAccessibilityService#STEP_FORCE_STOP}
+     *                        or {@link RecentsAccessibilityService#STEP_CONFIRM}
+     */
+    public static String[] resolve(Context context, String settingsPackage, String step) {
+        String key = settingsPackage + "|" + Locale.getDefault() + "|" + step;
+        synchronized (sCache) {
+            String[] cached = sCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String[] labels = load(context, settingsPackage, step);
+        synchronized (sCache) {
+            sCache.put(key, labels);
+        }
+        return labels;
+    }
+
+    private static String[] load(Context context, String settingsPackage, String step) {
+        String[] names;
+        if (RecentsAccessibilityService.STEP_FORCE_STOP.equals(step)) {
+            names = FORCE_STOP_NAMES;
+        } else if (RecentsAccessibilityService.STEP_CONFIRM.equals(step)) {
+            names = CONFIRM_NAMES;
+        } else {
+            return NO_LABELS;
+        }
+        Resources res;
+        try {
+            res = context.getPackageManager().getResourcesForApplication(settingsPackage);
+        } catch (PackageManager.NameNotFoundException e) {
+            return NO_LABELS;
+        }
+        List<String> labels = new ArrayList<>();
+        for (String name : names) {
+            int id = res.getIdentifier(name, "string", settingsPackage);
+            if (id == 0) {
+                continue;
+            }
+            try {
+                String label = res.getString(id).trim();
+                if (!label.isEmpty() && !labels.contains(label)) {
+                    labels.add(label);
+                }
+            } catch (Resources.NotFoundException ignore) {
+                // declared but not available in this configuration
+            }
+        }
+        if (!labels.isEmpty()) {
+            Log.d(TAG, settingsPackage + " " + step + ": " + labels);
+        }
+        return labels.toArray(NO_LABELS);
+    }
+}
@@ -0,0 +1,92 @@
+package eu.recentsopener;
+
+import android.Manifest;
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * UsageAccessState tracks whether this app has been granted usage access
+ * ("Apps with usage access" in the system settings).
+ *
+ * The screens used to infer the permission by querying an hour of usage
+ * events and checking whether any were returned. That costs a full query on
+ * every onCreate/onResume and reports the permission as missing on a device
+ * that was idle for an hour. Instead the app op
+ * {@link AppOpsManager#OPSTR_GET_USAGE_STATS} is checked once, the result is
+ * cached and {@link AppOpsManager#startWatchingMode} keeps it up to date when
+ * the user toggles the permission in the settings. {@link #isGranted()} is
+ * therefore only a field read and may be called from any thread.
+ */
+public final class UsageAccessState {
+    private static final String TAG = "UsageAccessState";
+
+    private static UsageAccessState sInstance;
+
+    private final Context appContext;
+    private final AppOpsManager appOps;
+    private volatile boolean granted;
+
+    private UsageAccessState(Context context) {
+        appContext = context.getApplicationContext();
+        appOps = (AppOpsManager) appContext.getSystemService(Context.APP_OPS_SERVICE);
+        granted = check();
+        if (appOps != null) {
+            // Called on a binder thread whenever the mode of the op changes for our package
+            appOps.startWatchingMode(AppOpsManager.OPSTR_GET_USAGE_STATS, appContext.getPackageName(),
+                    (op, packageName) -> {
+                        boolean now = check();
+                        if (now != granted) {
+                            Log.d(TAG, "Usage access " + (now ? "granted" : "revoked"));
+                        }
+                        granted = now;
+                    });
+        }
+    }
+
+    /** Returns the process-wide state, creating it on first use. */
+    public static synchronized UsageAccessState getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new UsageAccessState(context);
+        }
+        return sInstance;
+    }
+
+    /** Returns true if usage access is currently granted. Performs no IPC. */
+    public boolean isGranted() {
+        return granted;
+    }
+
+    /**
+     * Queries the current mode of the app op. MODE_DEFAULT means the op
+     * follows the PACKAGE_USAGE_STATS permission, which is then checked
+     * directly.
+     */
+    @SuppressWarnings("deprecation")
+    private boolean check() {
+        if (appOps == null) {
+            return false;
+        }
+        int mode;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                mode = appOps.unsafeCheckOpNoThrow(AppOpsManager.OPSTR_GET_USAGE_STATS,
+                        Process.myUid(), appContext.getPackageName());
+            } else {
+                mode = appOps.checkOpNoThrow(AppOpsManager.OPSTR_GET_USAGE_STATS,
+                        Process.myUid(), appContext.getPackageName());
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not check usage access: " + e.getMessage());
+            return false;
+        }
+        if (mode == AppOpsManager.MODE_DEFAULT) {
+            return appContext.checkCallingOrSelfPermission(Manifest.permission.PACKAGE_USAGE_STATS)
+                    == PackageManager.PERMISSION_GRANTED;
+        }
+        return mode == AppOpsManager.MODE_ALLOWED;
+    }
+}
@@ -0,0 +1,64 @@
+package eu.recentsopener.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Folding a whole event stream into the recents order, as done when the
+ * order is rebuilt after a backfill, and appending a stream to the log, as
+ * done by the first sync after a restart.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventFoldBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int events;
+
+    @Param({"300"})
+    public int packageCount;
+
+    private SyntheticEvents stream;
+    private EventLog log;
+    private final RecentsFold fold = new RecentsFold("eu.ras");
+    private final MruIndex order = new MruIndex();
+
+    @Setup
+    public void setUp() {
+        stream = new SyntheticEvents(events, packageCount, 42L);
+        log = stream.toLog();
+    }
+
+    @Benchmark
+    public int appendToLog() {
+        EventLog fresh = new EventLog();
+        for (int i = 0; i < stream.times.length; i++) {
+            fresh.add(stream.times[i], stream.types[i], stream.packages[i]);
+        }
+        return fresh.size();
+    }
+
+    @Benchmark
+    public String foldAll() {
+        fold.foldAll(log, order);
+        return order.getNewest();
+    }
+
+    @Benchmark
+    public String foldIncrementally() {
+        order.clear();
+        for (int i = 0; i < log.size(); i++) {
+            fold.fold(order, log.timeAt(i), log.typeAt(i), log.packageAt(i));
+        }
+        return order.getNewest();
+    }
+}
@@ -0,0 +1,71 @@
+package eu.recentsopener.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving the exclusion flags of the package of every event in a stream,
+ * plus the selection of the last-app target that consults them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExclusionMatcherBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int events;
+
+    @Param({"300"})
+    public int packageCount;
+
+    /** Number of exact rules; a tenth as many prefix and glob rules are added. */
+    @Param({"50"})
+    public int exactRules;
+
+    private SyntheticEvents stream;
+    private ExclusionMatcher matcher;
+    private List<String> mru;
+
+    @Setup
+    public void setUp() {
+        stream = new SyntheticEvents(events, packageCount, 42L);
+        List<ExclusionRule> rules = new ArrayList<>();
+        rules.add(ExclusionRule.prefix("com.android.tv.settings", ExclusionRule.FLAG_NEVER_CLOSE));
+        for (int i = 0; i < exactRules; i++) {
+            rules.add(ExclusionRule.exact(stream.packageNames[(i * 7) % packageCount],
+                    ExclusionRule.FLAG_EXCLUDED));
+        }
+        for (int i = 0; i < Math.max(1, exactRules / 10); i++) {
+            rules.add(ExclusionRule.parse("com.vendor" + i + ".*", ExclusionRule.FLAG_EXCLUDED));
+            rules.add(ExclusionRule.parse("com.vendor*.app" + i + "?", ExclusionRule.FLAG_NEVER_CLOSE));
+        }
+        matcher = new ExclusionMatcher(rules);
+        MruIndex index = new MruIndex();
+        new RecentsFold(null).foldAll(stream.toLog(), index);
+        mru = index.toListNewestFirst();
+    }
+
+    @Benchmark
+    public int matchStream() {
+        int flags = 0;
+        for (String pkg : stream.packages) {
+            flags += matcher.match(pkg);
+        }
+        return flags;
+    }
+
+    @Benchmark
+    public String selectLastApp() {
+        return LastAppSelector.select(mru, matcher::isExcluded, pkg -> false);
+    }
+}
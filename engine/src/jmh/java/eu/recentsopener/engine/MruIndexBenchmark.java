@@ -0,0 +1,73 @@
+package eu.recentsopener.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MRU updates for every foreground switch of a stream, with the window
+ * trimming and list copies the engine performs on each refresh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MruIndexBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int events;
+
+    @Param({"300"})
+    public int packageCount;
+
+    /** Number of switches between two simulated refreshes. */
+    @Param({"10"})
+    public int refreshEvery;
+
+    private SyntheticEvents stream;
+    private final MruIndex index = new MruIndex();
+
+    @Setup
+    public void setUp() {
+        stream = new SyntheticEvents(events, packageCount, 42L);
+    }
+
+    @Benchmark
+    public int touch() {
+        index.clear();
+        int changes = 0;
+        for (int i = 0; i < stream.times.length; i++) {
+            if (stream.types[i] == SyntheticEvents.MOVE_TO_FOREGROUND
+                    && index.touch(stream.packages[i], stream.times[i])) {
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    @Benchmark
+    public int touchTrimAndCopy() {
+        index.clear();
+        int switches = 0;
+        int total = 0;
+        for (int i = 0; i < stream.times.length; i++) {
+            if (stream.types[i] != SyntheticEvents.MOVE_TO_FOREGROUND) {
+                continue;
+            }
+            index.touch(stream.packages[i], stream.times[i]);
+            if (++switches % refreshEvery == 0) {
+                index.removeOlderThan(stream.times[i] - 24L * 60 * 60 * 1000);
+                List<String> copy = index.toListNewestFirst();
+                total += copy.size();
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,70 @@
+package eu.recentsopener.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparing and diffing consecutive recents orders. The orders are the MRU
+ * lists after every {@link #refreshEvery} events of the stream, i.e. what
+ * the refresher compares on each refresh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OrderDiffBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int events;
+
+    @Param({"300"})
+    public int packageCount;
+
+    @Param({"100"})
+    public int refreshEvery;
+
+    private final List<List<String>> orders = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        SyntheticEvents stream = new SyntheticEvents(events, packageCount, 42L);
+        RecentsFold fold = new RecentsFold(null);
+        MruIndex index = new MruIndex();
+        orders.clear();
+        for (int i = 0; i < stream.times.length; i++) {
+            fold.fold(index, stream.times[i], stream.types[i], stream.packages[i]);
+            if ((i + 1) % refreshEvery == 0) {
+                orders.add(index.toListNewestFirst());
+            }
+        }
+    }
+
+    @Benchmark
+    public int isSameOrder() {
+        int changed = 0;
+        for (int i = 1; i < orders.size(); i++) {
+            if (!OrderDiff.isSameOrder(orders.get(i - 1), orders.get(i))) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    @Benchmark
+    public int compute() {
+        int moved = 0;
+        for (int i = 1; i < orders.size(); i++) {
+            moved += OrderDiff.compute(orders.get(i - 1), orders.get(i)).moved.size();
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,75 @@
+package eu.recentsopener.engine;
+
+import java.util.Random;
+
+/**
+ * SyntheticEvents generates a reproducible stream of usage events for the
+ * benchmarks. Like on a real device, a few apps are used most of the time:
+ * packages are drawn from a skewed distribution, every switch produces a
+ * MOVE_TO_BACKGROUND of the previous app and a MOVE_TO_FOREGROUND of the
+ * next one, and other event types are interleaved between switches.
+ */
+final class SyntheticEvents {
+    static final int MOVE_TO_FOREGROUND = RecentsFold.MOVE_TO_FOREGROUND;
+    static final int MOVE_TO_BACKGROUND = 2;
+    /** Event types reported between switches (interaction, config change, stopped). */
+    private static final int[] OTHER_TYPES = {7, 5, 23};
+
+    final String[] packageNames;
+    final long[] times;
+    final int[] types;
+    final String[] packages;
+
+    /**
+     * @param count        number of events to generate
+     * @param packageCount number of distinct packages
+     * @param seed         seed of the random generator
+     */
+    SyntheticEvents(int count, int packageCount, long seed) {
+        Random random = new Random(seed);
+        packageNames = new String[packageCount];
+        for (int i = 0; i < packageCount; i++) {
+            packageNames[i] = "com.vendor" + (i % 17) + ".app" + i + (i % 3 == 0 ? ".tv" : "");
+        }
+        times = new long[count];
+        types = new int[count];
+        packages = new String[count];
+        long time = 1_700_000_000_000L;
+        String current = packageNames[0];
+        int i = 0;
+        while (i < count) {
+            time += 1 + random.nextInt(30_000);
+            if (random.nextInt(4) == 0) {
+                set(i++, time, OTHER_TYPES[random.nextInt(OTHER_TYPES.length)], current);
+                continue;
+            }
+            String next = packageNames[skewed(random, packageCount)];
+            set(i++, time, MOVE_TO_BACKGROUND, current);
+            if (i < count) {
+                set(i++, time, MOVE_TO_FOREGROUND, next);
+            }
+            current = next;
+        }
+    }
+
+    /** Returns an index biased towards small values (roughly Zipf-like). */
+    private static int skewed(Random random, int bound) {
+        double r = random.nextDouble();
+        return (int) (bound * r * r * r);
+    }
+
+    private void set(int index, long time, int type, String pkg) {
+        times[index] = time;
+        types[index] = type;
+        packages[index] = pkg;
+    }
+
+    /** Returns a log holding all generated events. */
+    EventLog toLog() {
+        EventLog log = new EventLog();
+        for (int i = 0; i < times.length; i++) {
+            log.add(times[i], types[i], packages[i]);
+        }
+        return log;
+    }
+}
@@ -0,0 +1,94 @@
+package eu.recentsopener.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replaying a recorded trace: parsing it and running the refresh path
+ * (reading the recents window into a log and folding it into the MRU
+ * order) on its events.
+ *
+ * Set the environment variable {@code RECENTS_TRACE} to the path of a debug
+ * report (plain or {@code .gz}) or trace file to benchmark a capture from a
+ * real device;
+ * otherwise a synthetic trace in the report format with {@link #events}
+ * events is used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TraceReplayBenchmark {
+    private static final long RECENTS_WINDOW_MS = 24L * 60 * 60 * 1000;
+
+    /** Size of the synthetic trace; ignored when a trace file is given. */
+    @Param({"10000", "100000", "1000000"})
+    public int events;
+
+    private String trace;
+    private ReplayEventSource source;
+    private final RecentsFold fold = new RecentsFold("eu.ras");
+    private final MruIndex order = new MruIndex();
+
+    @Setup
+    public void setUp() throws IOException {
+        String path = System.getenv("RECENTS_TRACE");
+        if (path != null && !path.isEmpty()) {
+            byte[] bytes = Files.readAllBytes(Paths.get(path));
+            if (path.endsWith(".gz")) {
+                try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+                    bytes = in.readAllBytes();
+                }
+            }
+            trace = new String(bytes, StandardCharsets.UTF_8);
+        } else {
+            trace = synthesize(new SyntheticEvents(events, 300, 42L));
+        }
+        source = parse();
+    }
+
+    /** Writes events the way the debug report does. */
+    private static String synthesize(SyntheticEvents stream) {
+        SimpleDateFormat format = new SimpleDateFormat(ReplayEventSource.REPORT_TIME_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        StringBuilder sb = new StringBuilder("UsageEvents:\n");
+        for (int i = 0; i < stream.times.length; i++) {
+            sb.append(format.format(new Date(stream.times[i]))).append(',')
+                    .append(stream.types[i]).append(',').append(stream.packages[i]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public ReplayEventSource parse() throws IOException {
+        return ReplayEventSource.parse(new StringReader(trace), TimeZone.getTimeZone("UTC"));
+    }
+
+    @Benchmark
+    public String refreshWindow() {
+        long end = source.getLastTimestamp() + 1;
+        EventLog log = new EventLog();
+        source.readEvents(end - RECENTS_WINDOW_MS, end, log::add);
+        fold.foldAll(log, order);
+        return order.getNewest();
+    }
+}
@@ -0,0 +1,87 @@
+package eu.recentsopener.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending the foreground switches of a stream to the mapped transition
+ * log, and the MRU read that replaces a UsageEvents query on each refresh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransitionLogBenchmark {
+
+    @Param({"10000", "100000"})
+    public int events;
+
+    @Param({"300"})
+    public int packageCount;
+
+    @Param({"8192"})
+    public int capacity;
+
+    private SyntheticEvents stream;
+    private File dir;
+    private TransitionLog log;
+    private long latest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        stream = new SyntheticEvents(events, packageCount, 42L);
+        dir = Files.createTempDirectory("transition-log").toFile();
+        log = TransitionLog.open(new File(dir, "transitions.log"), capacity);
+        latest = stream.times[0];
+        append();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        log.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    @Benchmark
+    public int append() throws IOException {
+        // Shift each pass past the previous one so the appends are not dropped as duplicates
+        long offset = latest - stream.times[0] + TransitionLog.DUPLICATE_WINDOW_MS;
+        long last = 0;
+        int written = 0;
+        for (int i = 0; i < stream.times.length; i++) {
+            if (stream.types[i] == SyntheticEvents.MOVE_TO_FOREGROUND
+                    && log.append(stream.packages[i], stream.times[i] + offset, TransitionLog.SOURCE_LIVE)) {
+                written++;
+            }
+            last = stream.times[i] + offset;
+        }
+        latest = last;
+        return written;
+    }
+
+    @Benchmark
+    public List<String> getMru() {
+        return log.getMru(latest - 24L * 60 * 60 * 1000);
+    }
+}
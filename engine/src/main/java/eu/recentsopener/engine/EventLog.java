@@ -0,0 +1,108 @@
+package eu.recentsopener.engine;
+
+/**
+ * EventLog is a compact chronological log of usage events stored in
+ * parallel arrays used as a ring buffer. Old events are dropped from the
+ * head; new events are appended at the tail, and older events can be
+ * inserted before the head when a longer window is backfilled.
+ *
+ * An event is a wall clock timestamp, an event type (the values of
+ * {@code UsageEvents.Event}) and a package name. Storing the three fields in
+ * primitive arrays instead of one object per event keeps the log small and
+ * makes a full scan cache friendly.
+ *
+ * Instances are not thread safe; callers synchronise externally.
+ */
+public final class EventLog {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private long[] times = new long[INITIAL_CAPACITY];
+    private int[] types = new int[INITIAL_CAPACITY];
+    private String[] packages = new String[INITIAL_CAPACITY];
+    private int head;
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public long timeAt(int index) {
+        return times[slot(index)];
+    }
+
+    public int typeAt(int index) {
+        return types[slot(index)];
+    }
+
+    public String packageAt(int index) {
+        return packages[slot(index)];
+    }
+
+    private int slot(int index) {
+        return (head + index) & (times.length - 1);
+    }
+
+    /** Appends an event; it must not be older than the newest logged event. */
+    public void add(long time, int type, String pkg) {
+        if (size == times.length) {
+            resize(times.length * 2, 0);
+        }
+        int slot = slot(size);
+        times[slot] = time;
+        types[slot] = type;
+        packages[slot] = pkg;
+        size++;
+    }
+
+    /** Inserts all events of {@code older} before the events of this log. */
+    public void prepend(EventLog older) {
+        int capacity = times.length;
+        while (capacity < size + older.size) {
+            capacity *= 2;
+        }
+        resize(capacity, older.size);
+        for (int i = 0; i < older.size; i++) {
+            times[i] = older.timeAt(i);
+            types[i] = older.typeAt(i);
+            packages[i] = older.packageAt(i);
+        }
+        size += older.size;
+    }
+
+    /**
+     * Copies the events into new arrays of the given capacity, starting at
+     * {@code offset}, and resets the head to zero.
+     */
+    private void resize(int capacity, int offset) {
+        long[] newTimes = new long[capacity];
+        int[] newTypes = new int[capacity];
+        String[] newPackages = new String[capacity];
+        for (int i = 0; i < size; i++) {
+            int slot = slot(i);
+            newTimes[offset + i] = times[slot];
+            newTypes[offset + i] = types[slot];
+            newPackages[offset + i] = packages[slot];
+        }
+        times = newTimes;
+        types = newTypes;
+        packages = newPackages;
+        head = 0;
+    }
+
+    /** Drops all events older than the cutoff from the head of the log. */
+    public void removeOlderThan(long cutoff) {
+        while (size > 0 && times[head] < cutoff) {
+            packages[head] = null;
+            head = (head + 1) & (times.length - 1);
+            size--;
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            packages[slot(i)] = null;
+        }
+        head = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,250 @@
+package eu.recentsopener.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * ExclusionMatcher compiles a set of {@link ExclusionRule}s into a
+ * character trie so that all attributes of a package are resolved in a
+ * single walk over its name. Exact and prefix rules are stored on the trie
+ * node at the end of their pattern; glob rules are stored on the node at
+ * the end of their literal part (everything before the first wildcard) and
+ * only the remainder is matched when the walk reaches that node.
+ *
+ * Every flag is decided independently by the most specific rule whose mask
+ * contains it:
+ * <ol>
+ *   <li>an exact rule beats any prefix or glob rule,</li>
+ *   <li>a prefix rule beats any glob rule, and a longer prefix beats a
+ *       shorter one,</li>
+ *   <li>a glob with a longer literal part beats one with a shorter part.</li>
+ * </ol>
+ * Between rules of equal specificity the one added last wins. Flags that no
+ * matching rule decides are cleared.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public final class ExclusionMatcher {
+
+    /** Matcher without any rules; every package resolves to no flags. */
+    public static final ExclusionMatcher EMPTY = new ExclusionMatcher(Arrays.<ExclusionRule>asList());
+
+    /** Glob rule attached to the trie node of its literal part. */
+    private static final class Glob {
+        /** Remainder of the pattern, starting with the first wildcard. */
+        final String tail;
+        final int mask;
+        final int flags;
+
+        Glob(String tail, int mask, int flags) {
+            this.tail = tail;
+            this.mask = mask;
+            this.flags = flags;
+        }
+    }
+
+    private static final class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+        private static final Glob[] NO_GLOBS = new Glob[0];
+
+        /** Child keys in ascending order, parallel to {@link #children}. */
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+        int exactMask;
+        int exactFlags;
+        int prefixMask;
+        int prefixFlags;
+        Glob[] globs = NO_GLOBS;
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node getOrAddChild(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            int insert = -i - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insert);
+            System.arraycopy(children, 0, newChildren, 0, insert);
+            Node node = new Node();
+            newKeys[insert] = c;
+            newChildren[insert] = node;
+            System.arraycopy(keys, insert, newKeys, insert + 1, keys.length - insert);
+            System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+            keys = newKeys;
+            children = newChildren;
+            return node;
+        }
+    }
+
+    private final Node root = new Node();
+    private final int ruleCount;
+
+    /**
+     * Compiles the given rules. Rules later in iteration order win over
+     * earlier rules of the same specificity.
+     */
+    public ExclusionMatcher(Collection<ExclusionRule> rules) {
+        for (ExclusionRule rule : rules) {
+            add(rule);
+        }
+        ruleCount = rules.size();
+    }
+
+    /**
+     * Compiles the rules of the app: the {@link ExclusionRule#BUILTIN_RULES},
+     * protection of the app's own package and the stored exclusion entries,
+     * which are parsed with {@link ExclusionRule#parse(String, int)}.
+     *
+     * @param ownPackage package that must never be closed; may be null
+     * @param entries    stored exclusion entries (package names or patterns)
+     */
+    public static ExclusionMatcher compile(String ownPackage, Collection<String> entries) {
+        List<ExclusionRule> rules = new ArrayList<>(ExclusionRule.BUILTIN_RULES);
+        if (ownPackage != null) {
+            rules.add(ExclusionRule.exact(ownPackage, ExclusionRule.FLAG_NEVER_CLOSE));
+        }
+        // User entries come last so that they win over built-in rules of equal specificity
+        for (String entry : entries) {
+            rules.add(ExclusionRule.parse(entry, ExclusionRule.FLAG_EXCLUDED));
+        }
+        return new ExclusionMatcher(rules);
+    }
+
+    /** Returns the number of rules this matcher was compiled from. */
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    /**
+     * Resolves the flags of a package, a combination of
+     * {@link ExclusionRule#FLAG_EXCLUDED} and {@link ExclusionRule#FLAG_NEVER_CLOSE}.
+     */
+    public int match(String packageName) {
+        // Rules are seen from least to most specific within each kind, so a
+        // later overlay always wins. The kinds are combined at the end.
+        int globMask = 0;
+        int globFlags = 0;
+        int prefixMask = 0;
+        int prefixFlags = 0;
+        Node node = root;
+        int depth = 0;
+        int length = packageName.length();
+        while (true) {
+            if (node.prefixMask != 0) {
+                prefixFlags = overlay(prefixFlags, node.prefixMask, node.prefixFlags);
+                prefixMask |= node.prefixMask;
+            }
+            for (Glob glob : node.globs) {
+                if (globMatches(glob.tail, packageName, depth)) {
+                    globFlags = overlay(globFlags, glob.mask, glob.flags);
+                    globMask |= glob.mask;
+                }
+            }
+            if (depth == length) {
+                break;
+            }
+            Node next = node.child(packageName.charAt(depth));
+            if (next == null) {
+                node = null;
+                break;
+            }
+            node = next;
+            depth++;
+        }
+        int flags = overlay(globFlags, prefixMask, prefixFlags);
+        if (node != null && node.exactMask != 0) {
+            flags = overlay(flags, node.exactMask, node.exactFlags);
+        }
+        return flags;
+    }
+
+    public boolean isExcluded(String packageName) {
+        return (match(packageName) & ExclusionRule.FLAG_EXCLUDED) != 0;
+    }
+
+    public boolean isNeverClose(String packageName) {
+        return (match(packageName) & ExclusionRule.FLAG_NEVER_CLOSE) != 0;
+    }
+
+    private void add(ExclusionRule rule) {
+        String pattern = rule.pattern;
+        int literalEnd = pattern.length();
+        if (rule.kind == ExclusionRule.Kind.GLOB) {
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '*' || c == '?') {
+                    literalEnd = i;
+                    break;
+                }
+            }
+        }
+        Node node = root;
+        for (int i = 0; i < literalEnd; i++) {
+            node = node.getOrAddChild(pattern.charAt(i));
+        }
+        switch (rule.kind) {
+            case EXACT:
+                node.exactFlags = overlay(node.exactFlags, rule.mask, rule.flags);
+                node.exactMask |= rule.mask;
+                break;
+            case PREFIX:
+                node.prefixFlags = overlay(node.prefixFlags, rule.mask, rule.flags);
+                node.prefixMask |= rule.mask;
+                break;
+            case GLOB:
+                Glob[] globs = Arrays.copyOf(node.globs, node.globs.length + 1);
+                globs[globs.length - 1] = new Glob(pattern.substring(literalEnd), rule.mask, rule.flags);
+                node.globs = globs;
+                break;
+        }
+    }
+
+    private static int overlay(int base, int mask, int flags) {
+        return (base & ~mask) | (flags & mask);
+    }
+
+    /**
+     * Matches a glob pattern against the text starting at an offset. Uses the
+     * usual iterative algorithm that backtracks only to the last {@code *}, so
+     * the cost is linear for typical patterns.
+     */
+    private static boolean globMatches(String pattern, String text, int offset) {
+        int p = 0;
+        int t = offset;
+        int starP = -1;
+        int starT = -1;
+        while (t < text.length()) {
+            if (p < pattern.length()) {
+                char c = pattern.charAt(p);
+                if (c == '*') {
+                    starP = p++;
+                    starT = t;
+                    continue;
+                }
+                if (c == '?' || c == text.charAt(t)) {
+                    p++;
+                    t++;
+                    continue;
+                }
+            }
+            if (starP < 0) {
+                return false;
+            }
+            p = starP + 1;
+            t = ++starT;
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+}
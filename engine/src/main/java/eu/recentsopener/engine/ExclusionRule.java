@@ -0,0 +1,105 @@
+package eu.recentsopener.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ExclusionRule describes which packages a rule applies to and which
+ * attributes it decides for them. Rules are compiled into an
+ * {@link ExclusionMatcher}; see there for how overlapping rules are resolved.
+ *
+ * A rule matches package names in one of three ways:
+ * <ul>
+ *   <li>{@link Kind#EXACT}: the package name equals the pattern</li>
+ *   <li>{@link Kind#PREFIX}: the package name starts with the pattern</li>
+ *   <li>{@link Kind#GLOB}: the package name matches the pattern, where
+ *       {@code *} matches any sequence of characters and {@code ?} matches
+ *       exactly one character</li>
+ * </ul>
+ *
+ * Each rule carries a mask of the flags it decides and the values for
+ * those flags. A rule with a flag in its mask but not in its values
+ * explicitly clears that flag, which allows a more specific rule to
+ * re-include a package matched by a broader one.
+ */
+public final class ExclusionRule {
+
+    /** How the pattern is compared against package names. */
+    public enum Kind { EXACT, PREFIX, GLOB }
+
+    /** The package is hidden from the recents list and the last-app switch. */
+    public static final int FLAG_EXCLUDED = 1;
+
+    /** The package must never be closed by the bulk close or force-stop automation. */
+    public static final int FLAG_NEVER_CLOSE = 1 << 1;
+
+    /**
+     * Built-in rules that are not user editable. System settings packages
+     * host the force-stop screen the close automation drives, so they must
+     * never be closed themselves.
+     */
+    public static final List<ExclusionRule> BUILTIN_RULES;
+    static {
+        List<ExclusionRule> rules = new ArrayList<>();
+        rules.add(prefix("com.android.tv.settings", FLAG_NEVER_CLOSE));
+        rules.add(prefix("com.google.android.tv.settings", FLAG_NEVER_CLOSE));
+        rules.add(prefix("com.android.settings", FLAG_NEVER_CLOSE));
+        BUILTIN_RULES = Collections.unmodifiableList(rules);
+    }
+
+    public final Kind kind;
+    public final String pattern;
+    /** Flags decided by this rule. */
+    public final int mask;
+    /** Values of the decided flags; always a subset of {@link #mask}. */
+    public final int flags;
+
+    public ExclusionRule(Kind kind, String pattern, int mask, int flags) {
+        if (kind == null || pattern == null) {
+            throw new IllegalArgumentException("kind and pattern are required");
+        }
+        this.kind = kind;
+        this.pattern = pattern;
+        this.mask = mask;
+        this.flags = flags & mask;
+    }
+
+    /** Creates a rule that sets the given flags for exactly one package. */
+    public static ExclusionRule exact(String packageName, int flags) {
+        return new ExclusionRule(Kind.EXACT, packageName, flags, flags);
+    }
+
+    /** Creates a rule that sets the given flags for all packages with the prefix. */
+    public static ExclusionRule prefix(String prefix, int flags) {
+        return new ExclusionRule(Kind.PREFIX, prefix, flags, flags);
+    }
+
+    /** Creates a rule that sets the given flags for all packages matching the glob. */
+    public static ExclusionRule glob(String glob, int flags) {
+        return new ExclusionRule(Kind.GLOB, glob, flags, flags);
+    }
+
+    /**
+     * Parses a stored exclusion entry into a rule setting the given flags.
+     * Entries without wildcards are exact package names. An entry whose
+     * only wildcard is a trailing {@code *} (e.g. {@code com.example.*}) is
+     * a prefix rule; any other use of {@code *} or {@code ?} makes a glob.
+     */
+    public static ExclusionRule parse(String entry, int flags) {
+        int star = entry.indexOf('*');
+        int question = entry.indexOf('?');
+        if (star < 0 && question < 0) {
+            return exact(entry, flags);
+        }
+        if (question < 0 && star == entry.length() - 1) {
+            return prefix(entry.substring(0, star), flags);
+        }
+        return glob(entry, flags);
+    }
+
+    @Override
+    public String toString() {
+        return kind + ":" + pattern + "[mask=" + mask + ",flags=" + flags + "]";
+    }
+}
@@ -0,0 +1,64 @@
+package eu.recentsopener.engine;
+
+/**
+ * LastAppSelector picks the target of the Alt-Tab switch from the
+ * foreground order of recent apps. The most recent app that is not excluded
+ * is skipped, since it is usually the app the switch is made from (or one
+ * that refreshes in the background); the next app that is neither excluded
+ * nor stopped is the target. If there is none, the first usable fallback
+ * package wins.
+ *
+ * The selector only encodes the choice; where the order, the exclusions and
+ * the stopped flags come from is up to the caller.
+ */
+public final class LastAppSelector {
+
+    /** Yes/no question about a package, e.g. whether it is excluded. */
+    public interface PackageTest {
+        boolean test(String packageName);
+    }
+
+    private LastAppSelector() {
+    }
+
+    /**
+     * Returns the target chosen from the foreground order, or null if the
+     * order holds no usable package after the most recent one.
+     *
+     * @param mru      packages, most recently in the foreground first
+     * @param excluded tells whether a package is hidden from the switch
+     * @param stopped  tells whether a package is stopped; only asked for
+     *                 packages that would otherwise be chosen
+     */
+    public static String select(Iterable<String> mru, PackageTest excluded, PackageTest stopped) {
+        boolean skipped = false;
+        for (String pkg : mru) {
+            if (excluded.test(pkg)) {
+                continue;
+            }
+            if (!skipped) {
+                skipped = true;
+                continue;
+            }
+            // Launching an app that was just force-stopped is undesirable
+            if (stopped.test(pkg)) {
+                continue;
+            }
+            return pkg;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first of the fallback packages that is neither null,
+     * excluded nor stopped, or null if there is none.
+     */
+    public static String firstUsable(PackageTest excluded, PackageTest stopped, String... candidates) {
+        for (String pkg : candidates) {
+            if (pkg != null && !excluded.test(pkg) && !stopped.test(pkg)) {
+                return pkg;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,191 @@
+package eu.recentsopener.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * MruIndex keeps package names in most-recently-used order. It combines a
+ * hash map with an intrusive doubly linked list so that touching, removing
+ * and looking up a package are O(1) and iterating newest first is O(n).
+ * This replaces the previous {@code list.remove(pkg); list.add(pkg)}
+ * pattern followed by {@code Collections.reverse}, which cost O(n) per
+ * event.
+ *
+ * Each entry also remembers the timestamp of the event that last touched
+ * it, which allows trimming entries that fell out of a time window from
+ * the old end of the list.
+ *
+ * Instances are not thread safe; callers synchronise externally.
+ */
+public final class MruIndex implements Iterable<String> {
+
+    /** List node; linked towards newer and older entries. */
+    private static final class Node {
+        final String key;
+        long timestamp;
+        Node newer;
+        Node older;
+
+        Node(String key, long timestamp) {
+            this.key = key;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final HashMap<String, Node> nodes = new HashMap<>();
+    private Node newest;
+    private Node oldest;
+
+    /**
+     * Moves a package to the front of the order, inserting it if necessary,
+     * and records the timestamp of the touching event.
+     *
+     * @return true if the order changed, i.e. the package was not already
+     *         the most recent entry
+     */
+    public boolean touch(String key, long timestamp) {
+        Node node = nodes.get(key);
+        if (node == null) {
+            node = new Node(key, timestamp);
+            nodes.put(key, node);
+            linkNewest(node);
+            return true;
+        }
+        node.timestamp = timestamp;
+        if (node == newest) {
+            return false;
+        }
+        unlink(node);
+        linkNewest(node);
+        return true;
+    }
+
+    /**
+     * Removes a package from the order.
+     *
+     * @return true if the package was present
+     */
+    public boolean remove(String key) {
+        Node node = nodes.remove(key);
+        if (node == null) {
+            return false;
+        }
+        unlink(node);
+        return true;
+    }
+
+    /**
+     * Removes every entry whose timestamp is older than the cutoff. Since
+     * entries are touched in timestamp order, only the old end of the list
+     * has to be inspected.
+     *
+     * @return true if any entry was removed
+     */
+    public boolean removeOlderThan(long cutoff) {
+        boolean removed = false;
+        while (oldest != null && oldest.timestamp < cutoff) {
+            Node node = oldest;
+            nodes.remove(node.key);
+            unlink(node);
+            removed = true;
+        }
+        return removed;
+    }
+
+    public boolean contains(String key) {
+        return nodes.containsKey(key);
+    }
+
+    /**
+     * Returns the timestamp recorded for a package, or -1 if the package is
+     * not in the index.
+     */
+    public long getTimestamp(String key) {
+        Node node = nodes.get(key);
+        return node != null ? node.timestamp : -1L;
+    }
+
+    /** Returns the most recently touched package, or null if empty. */
+    public String getNewest() {
+        return newest != null ? newest.key : null;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    public void clear() {
+        nodes.clear();
+        newest = null;
+        oldest = null;
+    }
+
+    /** Returns a copy of the order with the most recent package first. */
+    public List<String> toListNewestFirst() {
+        List<String> result = new ArrayList<>(nodes.size());
+        for (Node node = newest; node != null; node = node.older) {
+            result.add(node.key);
+        }
+        return result;
+    }
+
+    /**
+     * Iterates the packages from newest to oldest. The index must not be
+     * modified while iterating.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private Node next = newest;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                String key = next.key;
+                next = next.older;
+                return key;
+            }
+        };
+    }
+
+    private void linkNewest(Node node) {
+        node.newer = null;
+        node.older = newest;
+        if (newest != null) {
+            newest.newer = node;
+        }
+        newest = node;
+        if (oldest == null) {
+            oldest = node;
+        }
+    }
+
+    private void unlink(Node node) {
+        if (node.newer != null) {
+            node.newer.older = node.older;
+        } else {
+            newest = node.older;
+        }
+        if (node.older != null) {
+            node.older.newer = node.newer;
+        } else {
+            oldest = node.newer;
+        }
+        node.newer = null;
+        node.older = null;
+    }
+}
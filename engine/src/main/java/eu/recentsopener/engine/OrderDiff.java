@@ -0,0 +1,135 @@
+package eu.recentsopener.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * OrderDiff describes how one ordering of distinct package names turned
+ * into another: which packages were removed, which were inserted and which
+ * moved relative to the others.
+ *
+ * Moves are minimal: the packages kept in place are a longest increasing
+ * subsequence of their old positions, found in O(n log n), and every other
+ * package present in both orders counts as moved. Moving the most recent
+ * app to the front of an otherwise unchanged list is therefore one move,
+ * not a shift of every entry.
+ *
+ * Instances are immutable.
+ */
+public final class OrderDiff {
+    /** Packages of the old order missing from the new one, in old order. */
+    public final List<String> removed;
+    /** Packages of the new order missing from the old one, in new order. */
+    public final List<String> inserted;
+    /** Packages present in both orders that changed place, in new order. */
+    public final List<String> moved;
+
+    private OrderDiff(List<String> removed, List<String> inserted, List<String> moved) {
+        this.removed = Collections.unmodifiableList(removed);
+        this.inserted = Collections.unmodifiableList(inserted);
+        this.moved = Collections.unmodifiableList(moved);
+    }
+
+    /** Returns true if both orders contain the same packages in the same order. */
+    public static boolean isSameOrder(List<String> a, List<String> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).equals(b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Computes the difference between two orders of distinct package names. */
+    public static OrderDiff compute(List<String> oldOrder, List<String> newOrder) {
+        Map<String, Integer> oldIndex = new HashMap<>(oldOrder.size() * 2);
+        for (int i = 0; i < oldOrder.size(); i++) {
+            oldIndex.put(oldOrder.get(i), i);
+        }
+        List<String> inserted = new ArrayList<>();
+        // Old positions of the common packages, in new order
+        int[] positions = new int[newOrder.size()];
+        String[] common = new String[newOrder.size()];
+        int count = 0;
+        Set<String> kept = new HashSet<>(newOrder.size() * 2);
+        for (String pkg : newOrder) {
+            Integer index = oldIndex.get(pkg);
+            if (index == null) {
+                inserted.add(pkg);
+            } else {
+                positions[count] = index;
+                common[count] = pkg;
+                count++;
+                kept.add(pkg);
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (String pkg : oldOrder) {
+            if (!kept.contains(pkg)) {
+                removed.add(pkg);
+            }
+        }
+        boolean[] stays = longestIncreasing(positions, count);
+        List<String> moved = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (!stays[i]) {
+                moved.add(common[i]);
+            }
+        }
+        return new OrderDiff(removed, inserted, moved);
+    }
+
+    /** Returns true if the orders were equal. */
+    public boolean isEmpty() {
+        return removed.isEmpty() && inserted.isEmpty() && moved.isEmpty();
+    }
+
+    /**
+     * Marks the elements of a longest strictly increasing subsequence of the
+     * first {@code count} values (patience sorting with back links).
+     */
+    private static boolean[] longestIncreasing(int[] values, int count) {
+        boolean[] member = new boolean[count];
+        if (count == 0) {
+            return member;
+        }
+        // tails[k]: index of the smallest tail of an increasing run of length k + 1
+        int[] tails = new int[count];
+        int[] previous = new int[count];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length) {
+                length++;
+            }
+        }
+        for (int i = tails[length - 1]; i >= 0; i = previous[i]) {
+            member[i] = true;
+        }
+        return member;
+    }
+
+    @Override
+    public String toString() {
+        return "-" + removed + " +" + inserted + " ~" + moved;
+    }
+}
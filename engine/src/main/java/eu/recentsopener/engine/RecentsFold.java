@@ -0,0 +1,54 @@
+package eu.recentsopener.engine;
+
+/**
+ * RecentsFold folds a stream of usage events into the MRU order of the
+ * recents list: every MOVE_TO_FOREGROUND event of another app moves that
+ * app to the front of an {@link MruIndex}. Events of the app itself and
+ * events without a package are ignored.
+ *
+ * The fold is used both incrementally, one event at a time as new events
+ * arrive, and in bulk to rebuild the order from a whole {@link EventLog}
+ * after older events were backfilled.
+ *
+ * Instances are immutable; the index passed in is not synchronised.
+ */
+public final class RecentsFold {
+    /** Value of {@code UsageEvents.Event.MOVE_TO_FOREGROUND}. */
+    public static final int MOVE_TO_FOREGROUND = 1;
+
+    private final String selfPackage;
+
+    /**
+     * @param selfPackage package whose events are never folded, usually the
+     *                    caller's own package; may be null
+     */
+    public RecentsFold(String selfPackage) {
+        this.selfPackage = selfPackage;
+    }
+
+    /** Returns true if the event moves its package in the recents order. */
+    public boolean accepts(int type, String pkg) {
+        return type == MOVE_TO_FOREGROUND && pkg != null && !pkg.equals(selfPackage);
+    }
+
+    /**
+     * Folds one event into the order.
+     *
+     * @return true if the order changed
+     */
+    public boolean fold(MruIndex order, long time, int type, String pkg) {
+        return accepts(type, pkg) && order.touch(pkg, time);
+    }
+
+    /** Replaces the order with the fold of all events in the log. */
+    public void foldAll(EventLog log, MruIndex order) {
+        order.clear();
+        for (int i = 0; i < log.size(); i++) {
+            String pkg = log.packageAt(i);
+            int type = log.typeAt(i);
+            if (accepts(type, pkg)) {
+                order.touch(pkg, log.timeAt(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package eu.recentsopener.engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * ReplayEventSource serves usage events from a recorded trace instead of
+ * the system. Traces are CSV lines of the form
+ * {@code timestamp,eventType,package}, as written to the UsageEvents
+ * section of the debug report. The timestamp is either milliseconds since
+ * the epoch or a local time formatted as {@code yyyy-MM-dd HH:mm:ss.SSS};
+ * a package of {@code null} stands for an event without package.
+ *
+ * Lines that are not events, such as the headers and the other sections
+ * of a debug report, are skipped, so a whole report can be replayed as it
+ * is; compressed reports are read through a {@code GZIPInputStream}.
+ * Events are kept sorted by timestamp (stable, so events sharing a
+ * timestamp keep the order of the trace).
+ *
+ * Instances are immutable after parsing and may be shared between threads.
+ */
+public final class ReplayEventSource implements UsageEventSource {
+    /** Time format of the debug report. */
+    public static final String REPORT_TIME_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+
+    private final EventLog events;
+
+    private ReplayEventSource(EventLog events) {
+        this.events = events;
+    }
+
+    /**
+     * Parses a trace whose formatted timestamps are local times of the
+     * default time zone.
+     */
+    public static ReplayEventSource parse(Reader reader) throws IOException {
+        return parse(reader, TimeZone.getDefault());
+    }
+
+    /**
+     * Parses a trace.
+     *
+     * @param zone time zone of the device that wrote formatted timestamps
+     */
+    public static ReplayEventSource parse(Reader reader, TimeZone zone) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat(REPORT_TIME_FORMAT, Locale.US);
+        format.setTimeZone(zone);
+        format.setLenient(false);
+        ParsePosition position = new ParsePosition(0);
+        Map<String, String> packageNames = new HashMap<>();
+        List<long[]> parsed = new ArrayList<>();
+        List<String> parsedPackages = new ArrayList<>();
+        boolean sorted = true;
+        long previous = Long.MIN_VALUE;
+
+        BufferedReader in = reader instanceof BufferedReader
+                ? (BufferedReader) reader : new BufferedReader(reader);
+        String line;
+        while ((line = in.readLine()) != null) {
+            int first = line.indexOf(',');
+            int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+            if (second < 0) {
+                continue;
+            }
+            long timestamp = parseTime(line.substring(0, first).trim(), format, position);
+            if (timestamp == Long.MIN_VALUE) {
+                continue;
+            }
+            int type;
+            try {
+                type = Integer.parseInt(line.substring(first + 1, second).trim());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            String pkg = line.substring(second + 1).trim();
+            if (pkg.isEmpty() || pkg.equals("null")) {
+                pkg = null;
+            } else {
+                String existing = packageNames.get(pkg);
+                if (existing == null) {
+                    packageNames.put(pkg, pkg);
+                } else {
+                    pkg = existing;
+                }
+            }
+            parsed.add(new long[] {timestamp, type});
+            parsedPackages.add(pkg);
+            if (timestamp < previous) {
+                sorted = false;
+            }
+            previous = timestamp;
+        }
+
+        Integer[] order = new Integer[parsed.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        if (!sorted) {
+            // Stable, so events sharing a timestamp keep their trace order
+            Arrays.sort(order, (a, b) -> Long.compare(parsed.get(a)[0], parsed.get(b)[0]));
+        }
+        EventLog log = new EventLog();
+        for (int i : order) {
+            long[] event = parsed.get(i);
+            log.add(event[0], (int) event[1], parsedPackages.get(i));
+        }
+        return new ReplayEventSource(log);
+    }
+
+    /**
+     * Returns milliseconds since the epoch, or {@code Long.MIN_VALUE} if the
+     * field is not a timestamp.
+     */
+    private static long parseTime(String field, SimpleDateFormat format, ParsePosition position) {
+        if (field.isEmpty()) {
+            return Long.MIN_VALUE;
+        }
+        boolean digits = true;
+        for (int i = 0; i < field.length(); i++) {
+            if (field.charAt(i) < '0' || field.charAt(i) > '9') {
+                digits = false;
+                break;
+            }
+        }
+        if (digits) {
+            try {
+                return Long.parseLong(field);
+            } catch (NumberFormatException e) {
+                return Long.MIN_VALUE;
+            }
+        }
+        position.setIndex(0);
+        position.setErrorIndex(-1);
+        Date date = format.parse(field, position);
+        if (date == null || position.getIndex() != field.length()) {
+            return Long.MIN_VALUE;
+        }
+        return date.getTime();
+    }
+
+    /** Returns the number of events in the trace. */
+    public int size() {
+        return events.size();
+    }
+
+    /** Returns the timestamp of the oldest event, or -1 if the trace is empty. */
+    public long getFirstTimestamp() {
+        return events.size() > 0 ? events.timeAt(0) : -1L;
+    }
+
+    /** Returns the timestamp of the newest event, or -1 if the trace is empty. */
+    public long getLastTimestamp() {
+        return events.size() > 0 ? events.timeAt(events.size() - 1) : -1L;
+    }
+
+    @Override
+    public void readEvents(long begin, long end, Visitor visitor) {
+        // Binary search for the first event at or after begin
+        int lo = 0;
+        int hi = events.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (events.timeAt(mid) < begin) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < events.size() && events.timeAt(i) < end; i++) {
+            visitor.visit(events.timeAt(i), events.typeAt(i), events.packageAt(i));
+        }
+    }
+}
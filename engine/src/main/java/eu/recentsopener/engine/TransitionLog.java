@@ -0,0 +1,398 @@
+package eu.recentsopener.engine;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TransitionLog is a persistent log of foreground transitions kept in a
+ * memory-mapped ring file. Each transition is a fixed-size record of the
+ * timestamp, an interned package ID and the source that observed it, so an
+ * append is a few writes to mapped memory and reading the history needs no
+ * query to the system at all.
+ *
+ * <p>File layout (big endian):
+ * <pre>
+ *   header  magic:int, version:int, capacity:int, recordSize:int, written:long,
+ *           generation:int, reserved:int
+ *   record  timestamp:long, packageId:int, source:int       (capacity times)
+ * </pre>
+ * {@code written} counts all records ever appended; record {@code n} lives
+ * in slot {@code n % capacity}, so the oldest records are overwritten once
+ * the ring is full. The record is written before the counter, so a record
+ * interrupted by a crash is never visible.
+ *
+ * <p>Package names are interned into IDs through a small side file whose
+ * first line is {@code #generation}, followed by one name per line, the
+ * line number being the ID. It grows when a package is seen for the first
+ * time. Once it holds at least twice as many names as the records still
+ * reference (and at least {@link #MIN_COMPACT_NAMES}), it is compacted:
+ * the referenced names are written to a new file under the next
+ * generation, the records are renumbered and the header takes the new
+ * generation last. A log whose side file does not carry the header's
+ * generation, e.g. after a crash during compaction, is reset.
+ *
+ * <p>Several components may observe the same transition (e.g. the
+ * accessibility service and, later, UsageStats). A transition is therefore
+ * dropped if the log already holds one of the same package that is less
+ * than {@link #DUPLICATE_WINDOW_MS} older, or newer. The records of one
+ * package are therefore in ascending time; records of different packages
+ * may arrive out of order, so readers order packages by their newest
+ * transition.
+ *
+ * <p>All methods are thread safe within one process.
+ */
+public final class TransitionLog implements Closeable {
+    /** Transition reported live, e.g. by the accessibility service. */
+    public static final int SOURCE_LIVE = 1;
+    /** Transition read from usage events. */
+    public static final int SOURCE_USAGE_EVENTS = 2;
+
+    /** Transitions of a package closer together than this are one transition. */
+    public static final long DUPLICATE_WINDOW_MS = 1000L;
+
+    /** Smallest number of interned names at which the side file is compacted. */
+    static final int MIN_COMPACT_NAMES = 256;
+
+    private static final int MAGIC = 0x5253544c; // "RSTL"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 16;
+    private static final int WRITTEN_OFFSET = 16;
+    private static final int GENERATION_OFFSET = 24;
+
+    /** Receives records in the order they were appended. */
+    public interface Visitor {
+        void visit(long timestamp, String packageName, int source);
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final File packageFile;
+    private List<String> packageNames = new ArrayList<>();
+    private final Map<String, Integer> packageIds = new HashMap<>();
+    /** Newest transition timestamp per package ID, or -1. */
+    private long[] latest;
+    /** Number of package IDs with at least one record in the ring. */
+    private int liveIds;
+    private long written;
+    private int generation;
+
+    private TransitionLog(File path, int capacity) throws IOException {
+        this.capacity = capacity;
+        packageFile = new File(path.getPath() + ".packages");
+        file = new RandomAccessFile(path, "rw");
+        try {
+            long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+            boolean valid = file.length() == size;
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            if (valid) {
+                valid = buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                        && buffer.getInt(8) == capacity && buffer.getInt(12) == RECORD_SIZE
+                        && buffer.getLong(WRITTEN_OFFSET) >= 0;
+            }
+            if (valid) {
+                written = buffer.getLong(WRITTEN_OFFSET);
+                generation = buffer.getInt(GENERATION_OFFSET);
+                valid = loadPackageNames();
+            }
+            if (!valid) {
+                // New file, one of another layout or one without its package names: start empty
+                reset(size);
+            }
+            latest = new long[Math.max(64, packageNames.size())];
+            Arrays.fill(latest, -1L);
+            int count = size();
+            for (int i = 0; i < count; i++) {
+                int slot = slotOf(written - count + i);
+                int id = buffer.getInt(slot + 8);
+                if (id >= 0 && id < packageNames.size()) {
+                    noteLatest(id, buffer.getLong(slot));
+                }
+            }
+            if (needsCompaction()) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the log at the given path, creating it if necessary. A file of
+     * another capacity or layout is reset.
+     *
+     * @param capacity number of records kept
+     */
+    public static TransitionLog open(File path, int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        return new TransitionLog(path, capacity);
+    }
+
+    /**
+     * Reads the package names of the current generation. Returns false if
+     * the side file belongs to another generation, or is missing although
+     * the ring holds records.
+     */
+    private boolean loadPackageNames() throws IOException {
+        if (!packageFile.exists()) {
+            return written == 0;
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(packageFile), StandardCharsets.UTF_8))) {
+            if (!("#" + generation).equals(in.readLine())) {
+                return false;
+            }
+            String line;
+            while ((line = in.readLine()) != null) {
+                packageIds.put(line, packageNames.size());
+                packageNames.add(line);
+            }
+        }
+        return true;
+    }
+
+    /** Empties the ring and the package names. */
+    private void reset(long size) throws IOException {
+        for (int i = 0; i < size; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, capacity);
+        buffer.putInt(12, RECORD_SIZE);
+        buffer.putLong(WRITTEN_OFFSET, 0L);
+        buffer.putInt(GENERATION_OFFSET, 0);
+        written = 0;
+        generation = 0;
+        packageNames.clear();
+        packageIds.clear();
+        writePackageNames(packageNames, generation);
+    }
+
+    /**
+     * Appends a transition unless it duplicates one already logged.
+     *
+     * @param source {@link #SOURCE_LIVE} or {@link #SOURCE_USAGE_EVENTS}
+     * @return true if a record was written
+     */
+    public synchronized boolean append(String packageName, long timestamp, int source) throws IOException {
+        Integer id = packageIds.get(packageName);
+        if (id != null && id < latest.length && timestamp < latest[id] + DUPLICATE_WINDOW_MS) {
+            return false;
+        }
+        if (id == null) {
+            id = intern(packageName);
+        }
+        int slot = slotOf(written);
+        if (written >= capacity) {
+            forgetOverwritten(slot);
+        }
+        buffer.putLong(slot, timestamp);
+        buffer.putInt(slot + 8, id);
+        buffer.putInt(slot + 12, source);
+        written++;
+        buffer.putLong(WRITTEN_OFFSET, written);
+        noteLatest(id, timestamp);
+        return true;
+    }
+
+    private int intern(String packageName) throws IOException {
+        if (packageName.indexOf('\n') >= 0 || packageName.startsWith("#")) {
+            throw new IllegalArgumentException("invalid package name");
+        }
+        if (needsCompaction()) {
+            compact();
+        }
+        try (OutputStream out = new FileOutputStream(packageFile, true)) {
+            out.write((packageName + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        int id = packageNames.size();
+        packageNames.add(packageName);
+        packageIds.put(packageName, id);
+        return id;
+    }
+
+    private boolean needsCompaction() {
+        return packageNames.size() >= Math.max(MIN_COMPACT_NAMES, 2 * liveIds);
+    }
+
+    /**
+     * Drops the names no record references any more and renumbers the
+     * records. The new side file is in place before the header takes its
+     * generation, so a crash in between resets the log on the next open
+     * instead of mixing up packages.
+     */
+    private void compact() throws IOException {
+        int[] remap = new int[packageNames.size()];
+        Arrays.fill(remap, -1);
+        List<String> kept = new ArrayList<>();
+        int count = size();
+        for (int i = 0; i < count; i++) {
+            int id = buffer.getInt(slotOf(written - count + i) + 8);
+            if (id >= 0 && id < remap.length && remap[id] < 0) {
+                remap[id] = kept.size();
+                kept.add(packageNames.get(id));
+            }
+        }
+        int next = generation + 1;
+        writePackageNames(kept, next);
+        for (int i = 0; i < count; i++) {
+            int slot = slotOf(written - count + i);
+            int id = buffer.getInt(slot + 8);
+            buffer.putInt(slot + 8, id >= 0 && id < remap.length ? remap[id] : -1);
+        }
+        buffer.putInt(GENERATION_OFFSET, next);
+        generation = next;
+
+        long[] keptLatest = new long[Math.max(64, kept.size())];
+        Arrays.fill(keptLatest, -1L);
+        for (int id = 0; id < remap.length; id++) {
+            if (remap[id] >= 0) {
+                keptLatest[remap[id]] = latest[id];
+            }
+        }
+        latest = keptLatest;
+        liveIds = kept.size();
+        packageNames = kept;
+        packageIds.clear();
+        for (int id = 0; id < kept.size(); id++) {
+            packageIds.put(kept.get(id), id);
+        }
+    }
+
+    /** Replaces the side file with the given names, atomically by renaming. */
+    private void writePackageNames(List<String> names, int forGeneration) throws IOException {
+        File tmp = new File(packageFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            StringBuilder sb = new StringBuilder();
+            sb.append('#').append(forGeneration).append('\n');
+            for (String name : names) {
+                sb.append(name).append('\n');
+            }
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        if (!tmp.renameTo(packageFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("Cannot replace " + packageFile);
+        }
+    }
+
+    /**
+     * Drops the package of the record about to be overwritten from the
+     * in-memory state if it is its only record. The records of a package
+     * are appended in ascending time, so the overwritten one is its oldest
+     * and it is the only one exactly if it is also the newest.
+     */
+    private void forgetOverwritten(int slot) {
+        int id = buffer.getInt(slot + 8);
+        if (id >= 0 && id < latest.length && latest[id] >= 0 && latest[id] == buffer.getLong(slot)) {
+            latest[id] = -1L;
+            liveIds--;
+        }
+    }
+
+    private void noteLatest(int id, long timestamp) {
+        if (id >= latest.length) {
+            int oldLength = latest.length;
+            latest = Arrays.copyOf(latest, Math.max(id + 1, oldLength * 2));
+            Arrays.fill(latest, oldLength, latest.length, -1L);
+        }
+        if (latest[id] < 0) {
+            liveIds++;
+        }
+        if (timestamp > latest[id]) {
+            latest[id] = timestamp;
+        }
+    }
+
+    private int slotOf(long sequence) {
+        return HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+    }
+
+    /** Returns the number of records currently held. */
+    public synchronized int size() {
+        return (int) Math.min(written, capacity);
+    }
+
+    /** Returns the number of interned package names, including unreferenced ones. */
+    synchronized int getPackageNameCount() {
+        return packageNames.size();
+    }
+
+    /**
+     * Returns the time of the newest transition of a package still in the
+     * log, or -1 if there is none.
+     */
+    public synchronized long getLatest(String packageName) {
+        Integer id = packageIds.get(packageName);
+        return id != null && id < latest.length ? latest[id] : -1L;
+    }
+
+    /**
+     * Returns the packages with a transition at or after the cutoff, the one
+     * with the newest transition first.
+     */
+    public synchronized List<String> getMru(long cutoff) {
+        int count = 0;
+        int[] ids = new int[packageNames.size()];
+        for (int id = 0; id < packageNames.size() && id < latest.length; id++) {
+            if (latest[id] >= 0 && latest[id] >= cutoff) {
+                ids[count++] = id;
+            }
+        }
+        // Insertion sort by descending time; the number of recent packages is small
+        for (int i = 1; i < count; i++) {
+            int id = ids[i];
+            int j = i - 1;
+            while (j >= 0 && latest[ids[j]] < latest[id]) {
+                ids[j + 1] = ids[j];
+                j--;
+            }
+            ids[j + 1] = id;
+        }
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(packageNames.get(ids[i]));
+        }
+        return result;
+    }
+
+    /** Passes all records to the visitor, oldest appended first. */
+    public synchronized void forEach(Visitor visitor) {
+        int count = size();
+        for (int i = 0; i < count; i++) {
+            int slot = slotOf(written - count + i);
+            int id = buffer.getInt(slot + 8);
+            if (id >= 0 && id < packageNames.size()) {
+                visitor.visit(buffer.getLong(slot), packageNames.get(id), buffer.getInt(slot + 12));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,28 @@
+package eu.recentsopener.engine;
+
+/**
+ * UsageEventSource supplies usage events by time range. On a device the
+ * events come from {@code UsageStatsManager.queryEvents}; in benchmarks and
+ * JVM tests they are replayed from a recorded trace
+ * ({@link ReplayEventSource}), so the code consuming them runs unchanged on
+ * either.
+ */
+public interface UsageEventSource {
+
+    /** Receives the events of a range in chronological order. */
+    interface Visitor {
+        /**
+         * @param timestamp   wall clock time of the event
+         * @param eventType   one of the {@code UsageEvents.Event} types
+         * @param packageName package of the event; may be null
+         */
+        void visit(long timestamp, int eventType, String packageName);
+    }
+
+    /**
+     * Passes all events with a timestamp in [begin, end) to the visitor in
+     * chronological order. The visitor must not keep references to mutable
+     * state of the source.
+     */
+    void readEvents(long begin, long end, Visitor visitor);
+}
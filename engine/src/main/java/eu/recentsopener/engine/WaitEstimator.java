@@ -0,0 +1,180 @@
+package eu.recentsopener.engine;
+
+import java.util.Arrays;
+
+/**
+ * WaitEstimator learns how long one phase of the close automation takes and
+ * derives how long to wait for it before giving up.
+ *
+ * At most the last {@link #WINDOW} durations of completed phases are kept,
+ * and samples older than {@link #MAX_SAMPLE_AGE_MS} are ignored. The wait is
+ * the 95th percentile of those samples plus a margin of a quarter of it (at
+ * least {@link #MIN_MARGIN_MS}), clamped to the phase's bounds. Until
+ * {@link #MIN_SAMPLES} samples exist the phase's default is used.
+ *
+ * Timeouts are not samples: a page without a Force stop button times out
+ * just like a slow one, so a timeout says little about the device's speed.
+ * They only count towards a backoff instead. After {@link #BACKOFF_AFTER}
+ * consecutive timeouts the wait doubles with every further one, up to the
+ * phase's maximum, so a device that became slower than the learned wait
+ * lets the phase complete again and record its new duration. The first
+ * completion ends the backoff.
+ *
+ * Instances are not thread safe; callers synchronise externally.
+ */
+public final class WaitEstimator {
+    /** Number of samples kept. */
+    public static final int WINDOW = 32;
+    /** Number of samples needed before the learned value is used. */
+    public static final int MIN_SAMPLES = 5;
+    /** Smallest margin added to the percentile. */
+    public static final long MIN_MARGIN_MS = 200L;
+    /** Age after which a sample no longer counts. */
+    public static final long MAX_SAMPLE_AGE_MS = 1000L * 60 * 60 * 24 * 14;
+    /** Consecutive timeouts tolerated before the wait is raised. */
+    public static final int BACKOFF_AFTER = 2;
+
+    private final long defaultMs;
+    private final long minMs;
+    private final long maxMs;
+
+    /** Ring buffer of durations. */
+    private final long[] samples = new long[WINDOW];
+    /** Wall clock time of each sample, parallel to {@link #samples}. */
+    private final long[] sampleTimes = new long[WINDOW];
+    private int count;
+    private int next;
+    private int consecutiveTimeouts;
+
+    /**
+     * @param defaultMs wait used until enough samples exist
+     * @param minMs     shortest wait
+     * @param maxMs     longest wait, also the limit of the backoff
+     */
+    public WaitEstimator(long defaultMs, long minMs, long maxMs) {
+        this.defaultMs = defaultMs;
+        this.minMs = minMs;
+        this.maxMs = maxMs;
+    }
+
+    /** Records how long the phase took when it completed and ends any backoff. */
+    public void record(long durationMs, long now) {
+        add(Math.max(0L, durationMs), now);
+        consecutiveTimeouts = 0;
+    }
+
+    /** Records that the phase did not complete within its wait. */
+    public void recordTimeout() {
+        if (consecutiveTimeouts < Integer.MAX_VALUE) {
+            consecutiveTimeouts++;
+        }
+    }
+
+    /** Returns the number of timeouts since the phase last completed. */
+    public int getConsecutiveTimeouts() {
+        return consecutiveTimeouts;
+    }
+
+    /** Restores the timeout count, e.g. after a restart. */
+    public void setConsecutiveTimeouts(int timeouts) {
+        consecutiveTimeouts = Math.max(0, timeouts);
+    }
+
+    /** Returns how long to wait for the phase before giving up. */
+    public long getTimeout(long now) {
+        long timeout;
+        if (liveSamples(now).length < MIN_SAMPLES) {
+            timeout = defaultMs;
+        } else {
+            long p95 = percentile(95, now);
+            timeout = p95 + Math.max(MIN_MARGIN_MS, p95 / 4);
+        }
+        timeout = Math.max(minMs, Math.min(maxMs, timeout));
+        for (int i = BACKOFF_AFTER; i <= consecutiveTimeouts && timeout < maxMs; i++) {
+            timeout = Math.min(maxMs, timeout * 2);
+        }
+        return timeout;
+    }
+
+    /** Returns the number of samples not older than {@link #MAX_SAMPLE_AGE_MS}. */
+    public int getSampleCount(long now) {
+        return liveSamples(now).length;
+    }
+
+    /**
+     * Returns the given percentile of the recent samples, or -1 if there
+     * are none.
+     */
+    public long percentile(int percent, long now) {
+        long[] sorted = liveSamples(now);
+        int live = sorted.length;
+        if (live == 0) {
+            return -1L;
+        }
+        Arrays.sort(sorted);
+        // Nearest-rank method
+        int rank = (int) Math.ceil(percent / 100.0 * live);
+        return sorted[Math.max(0, Math.min(live - 1, rank - 1))];
+    }
+
+    /**
+     * Returns the samples as {@code duration:time} pairs separated by
+     * commas, oldest first so that {@link #parse} restores the ring order.
+     */
+    public String serialize() {
+        StringBuilder sb = new StringBuilder();
+        int start = count < WINDOW ? 0 : next;
+        for (int k = 0; k < count; k++) {
+            if (k > 0) {
+                sb.append(',');
+            }
+            int slot = (start + k) % WINDOW;
+            sb.append(samples[slot]).append(':').append(sampleTimes[slot]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Adds the samples written by {@link #serialize}. Entries without a
+     * time, written by older versions that stored timeouts as samples, and
+     * corrupt entries are skipped.
+     */
+    public void parse(String stored) {
+        if (stored == null || stored.isEmpty()) {
+            return;
+        }
+        for (String value : stored.split(",")) {
+            int separator = value.indexOf(':');
+            if (separator < 0) {
+                continue;
+            }
+            try {
+                add(Long.parseLong(value.substring(0, separator)),
+                        Long.parseLong(value.substring(separator + 1)));
+            } catch (NumberFormatException ignore) {
+                // skip corrupt samples
+            }
+        }
+    }
+
+    private long[] liveSamples(long now) {
+        long[] live = new long[count];
+        int found = 0;
+        for (int k = 0; k < count; k++) {
+            // A sample from the future means the clock was set back; it still counts
+            if (now - sampleTimes[k] <= MAX_SAMPLE_AGE_MS) {
+                live[found++] = samples[k];
+            }
+        }
+        return found == live.length ? live : Arrays.copyOf(live, found);
+    }
+
+    private void add(long durationMs, long time) {
+        samples[next] = durationMs;
+        sampleTimes[next] = time;
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW) {
+            count++;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package eu.recentsopener.engine;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static eu.recentsopener.engine.ExclusionRule.FLAG_EXCLUDED;
+import static eu.recentsopener.engine.ExclusionRule.FLAG_NEVER_CLOSE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Rule precedence of {@link ExclusionMatcher}: exact over prefix over glob,
+ * longer over shorter, later over earlier, flags decided independently.
+ */
+public class ExclusionMatcherTest {
+
+    private static final int BOTH = FLAG_EXCLUDED | FLAG_NEVER_CLOSE;
+
+    private static ExclusionMatcher matcher(ExclusionRule... rules) {
+        return new ExclusionMatcher(Arrays.asList(rules));
+    }
+
+    /** A rule that decides the flags in the mask and clears all of them. */
+    private static ExclusionRule clear(ExclusionRule.Kind kind, String pattern, int mask) {
+        return new ExclusionRule(kind, pattern, mask, 0);
+    }
+
+    @Test
+    public void emptyMatcherDecidesNothing() {
+        assertEquals(0, ExclusionMatcher.EMPTY.match("com.example.app"));
+        assertEquals(0, ExclusionMatcher.EMPTY.match(""));
+    }
+
+    @Test
+    public void parseChoosesKind() {
+        assertEquals(ExclusionRule.Kind.EXACT, ExclusionRule.parse("com.example", FLAG_EXCLUDED).kind);
+        ExclusionRule prefix = ExclusionRule.parse("com.example.*", FLAG_EXCLUDED);
+        assertEquals(ExclusionRule.Kind.PREFIX, prefix.kind);
+        assertEquals("com.example.", prefix.pattern);
+        assertEquals(ExclusionRule.Kind.GLOB, ExclusionRule.parse("com.*.tv", FLAG_EXCLUDED).kind);
+        assertEquals(ExclusionRule.Kind.GLOB, ExclusionRule.parse("com.example?", FLAG_EXCLUDED).kind);
+    }
+
+    @Test
+    public void kindsMatchTheirPackages() {
+        ExclusionMatcher m = matcher(
+                ExclusionRule.exact("com.exact", FLAG_EXCLUDED),
+                ExclusionRule.prefix("org.prefix.", FLAG_EXCLUDED),
+                ExclusionRule.glob("net.*.tv?", FLAG_EXCLUDED));
+        assertTrue(m.isExcluded("com.exact"));
+        assertFalse(m.isExcluded("com.exact.more"));
+        assertFalse(m.isExcluded("com.exac"));
+        assertTrue(m.isExcluded("org.prefix."));
+        assertTrue(m.isExcluded("org.prefix.app"));
+        assertFalse(m.isExcluded("org.prefix"));
+        assertTrue(m.isExcluded("net.example.tv1"));
+        assertTrue(m.isExcluded("net.a.b.tvx"));
+        assertFalse(m.isExcluded("net.example.tv"));
+        assertFalse(m.isExcluded("net.example.tv12"));
+    }
+
+    @Test
+    public void exactBeatsPrefixBeatsGlob() {
+        // Added from most to least specific, so only specificity can explain the result
+        ExclusionMatcher m = matcher(
+                ExclusionRule.exact("com.example.keep", FLAG_EXCLUDED),
+                clear(ExclusionRule.Kind.PREFIX, "com.example.", FLAG_EXCLUDED),
+                ExclusionRule.glob("com.*", FLAG_EXCLUDED));
+        assertTrue(m.isExcluded("com.example.keep"));
+        assertFalse(m.isExcluded("com.example.other"));
+        assertTrue(m.isExcluded("com.other"));
+    }
+
+    @Test
+    public void exactClearBeatsPrefix() {
+        ExclusionMatcher m = matcher(
+                clear(ExclusionRule.Kind.EXACT, "com.example.keep", FLAG_EXCLUDED),
+                ExclusionRule.prefix("com.example.", FLAG_EXCLUDED));
+        assertFalse(m.isExcluded("com.example.keep"));
+        assertTrue(m.isExcluded("com.example.other"));
+    }
+
+    @Test
+    public void longerPrefixWins() {
+        ExclusionMatcher m = matcher(
+                clear(ExclusionRule.Kind.PREFIX, "com.a.b", FLAG_EXCLUDED),
+                ExclusionRule.prefix("com.a", FLAG_EXCLUDED));
+        assertTrue(m.isExcluded("com.a.x"));
+        assertFalse(m.isExcluded("com.a.b"));
+        assertFalse(m.isExcluded("com.a.b.c"));
+    }
+
+    @Test
+    public void globWithLongerLiteralWins() {
+        ExclusionMatcher m = matcher(
+                clear(ExclusionRule.Kind.GLOB, "com.a.*", FLAG_EXCLUDED),
+                ExclusionRule.glob("com.*", FLAG_EXCLUDED));
+        assertFalse(m.isExcluded("com.a.x"));
+        assertTrue(m.isExcluded("com.b.x"));
+    }
+
+    @Test
+    public void lastRuleWinsOnTie() {
+        ExclusionMatcher setLast = matcher(
+                clear(ExclusionRule.Kind.EXACT, "com.tie", FLAG_EXCLUDED),
+                ExclusionRule.exact("com.tie", FLAG_EXCLUDED));
+        assertTrue(setLast.isExcluded("com.tie"));
+        ExclusionMatcher clearLast = matcher(
+                ExclusionRule.exact("com.tie", FLAG_EXCLUDED),
+                clear(ExclusionRule.Kind.EXACT, "com.tie", FLAG_EXCLUDED));
+        assertFalse(clearLast.isExcluded("com.tie"));
+
+        ExclusionMatcher prefixTie = matcher(
+                ExclusionRule.prefix("com.", FLAG_EXCLUDED),
+                clear(ExclusionRule.Kind.PREFIX, "com.", FLAG_EXCLUDED));
+        assertFalse(prefixTie.isExcluded("com.tie"));
+
+        // Globs with literal parts of equal length
+        ExclusionMatcher globTie = matcher(
+                ExclusionRule.glob("com.*.tv", FLAG_EXCLUDED),
+                clear(ExclusionRule.Kind.GLOB, "com.?x.tv", FLAG_EXCLUDED));
+        assertFalse(globTie.isExcluded("com.ax.tv"));
+        assertTrue(globTie.isExcluded("com.abc.tv"));
+    }
+
+    @Test
+    public void maskClearsOnlyItsFlags() {
+        ExclusionMatcher m = matcher(
+                ExclusionRule.prefix("com.", BOTH),
+                clear(ExclusionRule.Kind.EXACT, "com.excluded.only", FLAG_NEVER_CLOSE),
+                clear(ExclusionRule.Kind.EXACT, "com.protected.only", FLAG_EXCLUDED),
+                clear(ExclusionRule.Kind.EXACT, "com.neither", BOTH));
+        assertEquals(BOTH, m.match("com.other"));
+        assertEquals(FLAG_EXCLUDED, m.match("com.excluded.only"));
+        assertEquals(FLAG_NEVER_CLOSE, m.match("com.protected.only"));
+        assertEquals(0, m.match("com.neither"));
+    }
+
+    @Test
+    public void flagsAreDecidedIndependently() {
+        // The exact rule only decides EXCLUDED; NEVER_CLOSE still comes from the prefix
+        ExclusionMatcher m = matcher(
+                ExclusionRule.prefix("com.", FLAG_NEVER_CLOSE),
+                ExclusionRule.exact("com.app", FLAG_EXCLUDED));
+        assertEquals(BOTH, m.match("com.app"));
+        assertEquals(FLAG_NEVER_CLOSE, m.match("com.other"));
+    }
+
+    @Test
+    public void builtinRulesProtectSettingsWithoutExcludingThem() {
+        ExclusionMatcher m = ExclusionMatcher.compile("eu.recentsopener",
+                Collections.<String>emptySet());
+        assertEquals(FLAG_NEVER_CLOSE, m.match("com.android.tv.settings"));
+        assertEquals(FLAG_NEVER_CLOSE, m.match("com.google.android.tv.settings"));
+        assertEquals(FLAG_NEVER_CLOSE, m.match("com.android.settings"));
+        assertEquals(FLAG_NEVER_CLOSE, m.match("com.android.settings.intelligence"));
+        assertEquals(FLAG_NEVER_CLOSE, m.match("eu.recentsopener"));
+        assertEquals(0, m.match("com.android.vending"));
+        assertEquals(0, m.match("eu.recentsopener.other"));
+    }
+
+    @Test
+    public void userExclusionsDoNotLiftBuiltinProtection() {
+        ExclusionMatcher m = ExclusionMatcher.compile("eu.recentsopener", Arrays.asList(
+                "com.android.tv.settings", "com.android.*", "eu.recentsopener", "org.*.player"));
+        // Excluded by the user and still protected by the built-in prefix
+        assertEquals(BOTH, m.match("com.android.tv.settings"));
+        assertEquals(BOTH, m.match("com.android.settings"));
+        assertEquals(BOTH, m.match("eu.recentsopener"));
+        // The user's prefix excludes other packages without protecting them
+        assertEquals(FLAG_EXCLUDED, m.match("com.android.vending"));
+        assertEquals(FLAG_EXCLUDED, m.match("org.xbmc.player"));
+        // Built-in protection still applies to packages the user did not exclude
+        assertEquals(FLAG_NEVER_CLOSE, m.match("com.google.android.tv.settings"));
+        assertEquals(0, m.match("com.netflix.ninja"));
+    }
+
+    @Test
+    public void compileWithoutOwnPackage() {
+        ExclusionMatcher m = ExclusionMatcher.compile(null, Collections.singleton("com.netflix.ninja"));
+        assertEquals(FLAG_EXCLUDED, m.match("com.netflix.ninja"));
+        assertEquals(ExclusionRule.BUILTIN_RULES.size() + 1, m.getRuleCount());
+    }
+}
@@ -0,0 +1,85 @@
+package eu.recentsopener.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Choice of the Alt-Tab target by {@link LastAppSelector}: the most recent
+ * usable package is skipped, excluded packages never count and stopped
+ * packages are passed over.
+ */
+public class LastAppSelectorTest {
+
+    private static final LastAppSelector.PackageTest NONE = packageName -> false;
+
+    private static LastAppSelector.PackageTest in(String... packages) {
+        Set<String> set = new HashSet<>(Arrays.asList(packages));
+        return set::contains;
+    }
+
+    private static String select(List<String> mru, LastAppSelector.PackageTest excluded,
+                                 LastAppSelector.PackageTest stopped) {
+        return LastAppSelector.select(mru, excluded, stopped);
+    }
+
+    @Test
+    public void skipsMostRecentApp() {
+        assertEquals("b", select(Arrays.asList("a", "b", "c"), NONE, NONE));
+    }
+
+    @Test
+    public void needsTwoUsablePackages() {
+        assertNull(select(Collections.<String>emptyList(), NONE, NONE));
+        assertNull(select(Collections.singletonList("a"), NONE, NONE));
+        assertNull(select(Arrays.asList("a", "b"), in("b"), NONE));
+    }
+
+    @Test
+    public void excludedHeadIsNotTheSkippedApp() {
+        // The launcher in front is excluded, so the app behind it is the one skipped
+        assertEquals("c", select(Arrays.asList("launcher", "b", "c"), in("launcher"), NONE));
+        assertEquals("d", select(Arrays.asList("x", "y", "b", "x2", "d"), in("x", "y", "x2"), NONE));
+    }
+
+    @Test
+    public void stoppedCandidatesArePassedOver() {
+        assertEquals("d", select(Arrays.asList("a", "b", "c", "d"), NONE, in("b", "c")));
+        assertNull(select(Arrays.asList("a", "b", "c"), NONE, in("b", "c")));
+    }
+
+    @Test
+    public void stoppedHeadIsStillSkipped() {
+        // Stopping is only asked for candidates; the app in front counts regardless
+        assertEquals("b", select(Arrays.asList("a", "b", "c"), NONE, in("a")));
+    }
+
+    @Test
+    public void stoppedIsOnlyAskedForCandidates() {
+        List<String> asked = new ArrayList<>();
+        LastAppSelector.PackageTest stopped = packageName -> {
+            asked.add(packageName);
+            return packageName.equals("c");
+        };
+        assertEquals("d", select(Arrays.asList("a", "b", "c", "d", "e"), in("b"), stopped));
+        assertEquals(Arrays.asList("c", "d"), asked);
+    }
+
+    @Test
+    public void fallbackTakesFirstUsableInOrder() {
+        assertEquals("b", LastAppSelector.firstUsable(in("a"), NONE, "a", "b", "c"));
+        assertEquals("c", LastAppSelector.firstUsable(NONE, in("a", "b"), "a", "b", "c"));
+        assertEquals("c", LastAppSelector.firstUsable(in("a"), in("b"), null, "a", "b", "c"));
+        assertEquals("a", LastAppSelector.firstUsable(NONE, NONE, "a", "b"));
+        assertNull(LastAppSelector.firstUsable(in("a"), in("b"), "a", "b", null));
+        assertNull(LastAppSelector.firstUsable(NONE, NONE));
+    }
+}
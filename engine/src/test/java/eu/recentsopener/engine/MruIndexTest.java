@@ -0,0 +1,149 @@
+package eu.recentsopener.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link MruIndex} orders packages exactly like the
+ * {@code list.remove(pkg); list.add(pkg)} loop followed by
+ * {@code Collections.reverse} that it replaced.
+ */
+public class MruIndexTest {
+
+    /** The replaced algorithm: move each package to the end, then reverse. */
+    private static List<String> legacyOrder(List<String> packages) {
+        List<String> order = new ArrayList<>();
+        for (String pkg : packages) {
+            order.remove(pkg);
+            order.add(pkg);
+        }
+        Collections.reverse(order);
+        return order;
+    }
+
+    /**
+     * The replaced window trim: drop every package whose last event is
+     * older than the cutoff, keeping the order of the others.
+     */
+    private static List<String> legacyTrim(List<String> newestFirst, List<String> packages,
+                                           long[] times, long cutoff) {
+        List<String> result = new ArrayList<>();
+        for (String pkg : newestFirst) {
+            long last = -1L;
+            for (int i = 0; i < packages.size(); i++) {
+                if (packages.get(i).equals(pkg)) {
+                    last = times[i];
+                }
+            }
+            if (last >= cutoff) {
+                result.add(pkg);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void emptyIndex() {
+        MruIndex index = new MruIndex();
+        assertTrue(index.isEmpty());
+        assertNull(index.getNewest());
+        assertEquals(-1L, index.getTimestamp("a"));
+        assertEquals(Collections.emptyList(), index.toListNewestFirst());
+    }
+
+    @Test
+    public void touchMovesToFront() {
+        MruIndex index = new MruIndex();
+        assertTrue(index.touch("a", 1));
+        assertTrue(index.touch("b", 2));
+        assertTrue(index.touch("c", 3));
+        assertTrue(index.touch("a", 4));
+        assertFalse(index.touch("a", 5));
+        assertEquals(Arrays.asList("a", "c", "b"), index.toListNewestFirst());
+        assertEquals(5L, index.getTimestamp("a"));
+        assertEquals("a", index.getNewest());
+    }
+
+    @Test
+    public void iteratorMatchesList() {
+        MruIndex index = new MruIndex();
+        for (String pkg : new String[] {"a", "b", "c", "b", "d", "a"}) {
+            index.touch(pkg, 0);
+        }
+        List<String> iterated = new ArrayList<>();
+        for (String pkg : index) {
+            iterated.add(pkg);
+        }
+        assertEquals(index.toListNewestFirst(), iterated);
+    }
+
+    @Test
+    public void removeUnlinksAnyPosition() {
+        MruIndex index = new MruIndex();
+        for (String pkg : new String[] {"a", "b", "c", "d"}) {
+            index.touch(pkg, 0);
+        }
+        assertTrue(index.remove("d"));
+        assertTrue(index.remove("a"));
+        assertFalse(index.remove("a"));
+        assertEquals(Arrays.asList("c", "b"), index.toListNewestFirst());
+        assertTrue(index.remove("b"));
+        assertTrue(index.remove("c"));
+        assertTrue(index.isEmpty());
+        assertNull(index.getNewest());
+    }
+
+    @Test
+    public void recordedSequenceMatchesLegacyOrder() {
+        List<String> packages = Arrays.asList(
+                "com.google.android.youtube.tv", "com.netflix.ninja", "com.android.tv.settings",
+                "com.netflix.ninja", "org.xbmc.kodi", "com.google.android.youtube.tv",
+                "com.plexapp.android", "org.xbmc.kodi", "com.netflix.ninja");
+        MruIndex index = new MruIndex();
+        for (int i = 0; i < packages.size(); i++) {
+            index.touch(packages.get(i), i);
+        }
+        assertEquals(legacyOrder(packages), index.toListNewestFirst());
+    }
+
+    @Test
+    public void randomSequencesMatchLegacyOrder() {
+        Random random = new Random(20240101L);
+        for (int run = 0; run < 200; run++) {
+            int packageCount = 1 + random.nextInt(40);
+            int events = random.nextInt(500);
+            List<String> packages = new ArrayList<>(events);
+            long[] times = new long[events];
+            MruIndex index = new MruIndex();
+            long time = 0;
+            for (int i = 0; i < events; i++) {
+                // Skew towards a few busy packages, like real usage
+                int p = random.nextBoolean() ? random.nextInt(Math.min(packageCount, 4))
+                        : random.nextInt(packageCount);
+                String pkg = "pkg" + p;
+                time += random.nextInt(1000);
+                packages.add(pkg);
+                times[i] = time;
+                index.touch(pkg, time);
+            }
+            List<String> expected = legacyOrder(packages);
+            assertEquals("run " + run, expected, index.toListNewestFirst());
+            assertEquals(expected.size(), index.size());
+
+            long cutoff = time - random.nextInt((int) Math.max(1, time + 1));
+            index.removeOlderThan(cutoff);
+            assertEquals("trimmed run " + run, legacyTrim(expected, packages, times, cutoff),
+                    index.toListNewestFirst());
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package eu.recentsopener.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link OrderDiff} reports removals, insertions and a minimal
+ * set of moves, the latter against a quadratic longest increasing
+ * subsequence.
+ */
+public class OrderDiffTest {
+
+    private static List<String> list(String... packages) {
+        return Arrays.asList(packages);
+    }
+
+    /** Length of the longest strictly increasing subsequence, in O(n^2). */
+    private static int referenceLongestIncreasing(List<Integer> values) {
+        int[] lengths = new int[values.size()];
+        int best = 0;
+        for (int i = 0; i < values.size(); i++) {
+            lengths[i] = 1;
+            for (int j = 0; j < i; j++) {
+                if (values.get(j) < values.get(i) && lengths[j] + 1 > lengths[i]) {
+                    lengths[i] = lengths[j] + 1;
+                }
+            }
+            best = Math.max(best, lengths[i]);
+        }
+        return best;
+    }
+
+    /**
+     * Checks a diff against its orders: removed and inserted are exact, the
+     * packages that stay keep their relative old order and there are as few
+     * moves as a longest increasing subsequence allows.
+     */
+    private static void assertValid(List<String> oldOrder, List<String> newOrder, OrderDiff diff) {
+        List<String> removed = new ArrayList<>();
+        for (String pkg : oldOrder) {
+            if (!newOrder.contains(pkg)) {
+                removed.add(pkg);
+            }
+        }
+        List<String> inserted = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (String pkg : newOrder) {
+            if (oldOrder.contains(pkg)) {
+                positions.add(oldOrder.indexOf(pkg));
+            } else {
+                inserted.add(pkg);
+            }
+        }
+        assertEquals(removed, diff.removed);
+        assertEquals(inserted, diff.inserted);
+
+        Set<String> moved = new HashSet<>(diff.moved);
+        assertEquals("moves are distinct", diff.moved.size(), moved.size());
+        int previous = -1;
+        List<String> movedInNewOrder = new ArrayList<>();
+        for (String pkg : newOrder) {
+            int old = oldOrder.indexOf(pkg);
+            if (old < 0) {
+                continue;
+            }
+            if (moved.contains(pkg)) {
+                movedInNewOrder.add(pkg);
+            } else {
+                assertTrue("kept packages keep their order", old > previous);
+                previous = old;
+            }
+        }
+        assertEquals(movedInNewOrder, diff.moved);
+        assertEquals(positions.size() - referenceLongestIncreasing(positions), diff.moved.size());
+    }
+
+    @Test
+    public void emptyOrders() {
+        OrderDiff diff = OrderDiff.compute(Collections.<String>emptyList(), Collections.<String>emptyList());
+        assertTrue(diff.isEmpty());
+        assertTrue(OrderDiff.isSameOrder(Collections.<String>emptyList(), Collections.<String>emptyList()));
+
+        OrderDiff filled = OrderDiff.compute(Collections.<String>emptyList(), list("a", "b"));
+        assertEquals(list("a", "b"), filled.inserted);
+        assertTrue(filled.moved.isEmpty());
+        OrderDiff emptied = OrderDiff.compute(list("a", "b"), Collections.<String>emptyList());
+        assertEquals(list("a", "b"), emptied.removed);
+        assertTrue(emptied.moved.isEmpty());
+    }
+
+    @Test
+    public void identicalOrders() {
+        List<String> order = list("a", "b", "c", "d");
+        OrderDiff diff = OrderDiff.compute(order, new ArrayList<>(order));
+        assertTrue(diff.isEmpty());
+        assertTrue(OrderDiff.isSameOrder(order, new ArrayList<>(order)));
+        assertFalse(OrderDiff.isSameOrder(order, list("a", "b", "c")));
+        assertFalse(OrderDiff.isSameOrder(order, list("a", "b", "d", "c")));
+    }
+
+    @Test
+    public void moveToFrontIsOneMove() {
+        OrderDiff diff = OrderDiff.compute(list("a", "b", "c", "d", "e"), list("d", "a", "b", "c", "e"));
+        assertEquals(list("d"), diff.moved);
+        assertTrue(diff.removed.isEmpty());
+        assertTrue(diff.inserted.isEmpty());
+        assertFalse(diff.isEmpty());
+    }
+
+    @Test
+    public void moveToBackIsOneMove() {
+        OrderDiff diff = OrderDiff.compute(list("a", "b", "c", "d"), list("b", "c", "d", "a"));
+        assertEquals(list("a"), diff.moved);
+    }
+
+    @Test
+    public void reversedOrderKeepsOne() {
+        List<String> oldOrder = list("a", "b", "c", "d", "e");
+        List<String> newOrder = list("e", "d", "c", "b", "a");
+        OrderDiff diff = OrderDiff.compute(oldOrder, newOrder);
+        assertEquals(4, diff.moved.size());
+        assertValid(oldOrder, newOrder, diff);
+    }
+
+    @Test
+    public void insertsAndRemovesAreNoMoves() {
+        List<String> oldOrder = list("a", "b", "c", "d");
+        List<String> newOrder = list("x", "a", "c", "y", "d");
+        OrderDiff diff = OrderDiff.compute(oldOrder, newOrder);
+        assertEquals(list("b"), diff.removed);
+        assertEquals(list("x", "y"), diff.inserted);
+        assertTrue(diff.moved.isEmpty());
+        assertEquals("-[b] +[x, y] ~[]", diff.toString());
+    }
+
+    @Test
+    public void mixedChanges() {
+        List<String> oldOrder = list("a", "b", "c", "d", "e", "f");
+        List<String> newOrder = list("e", "x", "a", "c", "b", "f", "y");
+        OrderDiff diff = OrderDiff.compute(oldOrder, newOrder);
+        assertEquals(list("d"), diff.removed);
+        assertEquals(list("x", "y"), diff.inserted);
+        assertEquals(2, diff.moved.size());
+        assertValid(oldOrder, newOrder, diff);
+    }
+
+    @Test
+    public void randomOrdersAreMinimal() {
+        Random random = new Random(20240101L);
+        for (int run = 0; run < 300; run++) {
+            List<String> universe = new ArrayList<>();
+            int size = random.nextInt(30);
+            for (int i = 0; i < size; i++) {
+                universe.add("pkg" + i);
+            }
+            List<String> oldOrder = new ArrayList<>();
+            List<String> newOrder = new ArrayList<>();
+            for (String pkg : universe) {
+                if (random.nextInt(4) > 0) {
+                    oldOrder.add(pkg);
+                }
+                if (random.nextInt(4) > 0) {
+                    newOrder.add(pkg);
+                }
+            }
+            Collections.shuffle(oldOrder, random);
+            if (random.nextBoolean()) {
+                Collections.shuffle(newOrder, random);
+            } else {
+                // Mostly unchanged, like consecutive recents lists
+                newOrder = new ArrayList<>(oldOrder);
+                for (int i = random.nextInt(3); i >= 0 && !newOrder.isEmpty(); i--) {
+                    newOrder.add(0, newOrder.remove(random.nextInt(newOrder.size())));
+                }
+            }
+            assertValid(oldOrder, newOrder, OrderDiff.compute(oldOrder, newOrder));
+        }
+    }
+}
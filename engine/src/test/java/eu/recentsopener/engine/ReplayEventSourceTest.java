@@ -0,0 +1,160 @@
+package eu.recentsopener.engine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Replays a debug report excerpt ({@code debug_report.txt}) recorded in
+ * UTC. It mixes formatted and raw epoch timestamps, contains header lines,
+ * blank lines and the other report sections, one event out of order and
+ * one with an invalid date.
+ */
+public class ReplayEventSourceTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /** 2024-01-01 10:00:00.000 UTC. */
+    private static final long T0 = 1704103200000L;
+
+    private static final String SELF = "eu.ras";
+
+    /** All events of the fixture in replay order. */
+    private static final List<String> EXPECTED = Arrays.asList(
+            (T0) + ",1,com.google.android.tvlauncher",
+            (T0 + 1250) + ",1,com.netflix.ninja",
+            (T0 + 1250) + ",23,com.netflix.ninja",
+            (T0 + 2500) + ",2,com.google.android.tvlauncher",
+            (T0 + 4000) + ",1,com.plexapp.android",
+            (T0 + 5007) + ",1,org.xbmc.kodi",
+            (T0 + 5007) + ",2,com.netflix.ninja",
+            (T0 + 10000) + ",1,eu.ras",
+            (T0 + 11000) + ",7,null",
+            (T0 + 12999) + ",1,com.netflix.ninja");
+
+    private static byte[] fixture() throws IOException {
+        try (InputStream in = ReplayEventSourceTest.class.getResourceAsStream("debug_report.txt")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static ReplayEventSource parse(InputStream in, TimeZone zone) throws IOException {
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return ReplayEventSource.parse(reader, zone);
+        }
+    }
+
+    private static List<String> read(UsageEventSource source, long begin, long end) {
+        List<String> events = new ArrayList<>();
+        source.readEvents(begin, end, (timestamp, type, pkg) -> events.add(timestamp + "," + type + "," + pkg));
+        return events;
+    }
+
+    /** Folds the events of the window into the recents order, newest first. */
+    private static List<String> recents(UsageEventSource source, long begin, long end) {
+        RecentsFold fold = new RecentsFold(SELF);
+        MruIndex order = new MruIndex();
+        source.readEvents(begin, end, (timestamp, type, pkg) -> fold.fold(order, timestamp, type, pkg));
+        return order.toListNewestFirst();
+    }
+
+    @Test
+    public void parsesReportWithMixedTimestamps() throws IOException {
+        ReplayEventSource source = parse(new ByteArrayInputStream(fixture()), UTC);
+        assertEquals(EXPECTED.size(), source.size());
+        assertEquals(T0, source.getFirstTimestamp());
+        assertEquals(T0 + 12999, source.getLastTimestamp());
+        // Sorted by time; events sharing a timestamp keep their trace order
+        assertEquals(EXPECTED, read(source, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void formattedTimesUseTheGivenZone() throws IOException {
+        ReplayEventSource source = parse(new ByteArrayInputStream(fixture()),
+                TimeZone.getTimeZone("GMT+01:00"));
+        List<String> events = read(source, Long.MIN_VALUE, Long.MAX_VALUE);
+        // Formatted times move an hour earlier; raw epoch times do not move
+        assertEquals(EXPECTED.size(), events.size());
+        assertEquals((T0 - 3600000L) + ",1,com.google.android.tvlauncher", events.get(0));
+        assertEquals((T0 + 2500) + ",2,com.google.android.tvlauncher", events.get(7));
+    }
+
+    @Test
+    public void replaysGzipCompressedReport() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(fixture());
+        }
+        ReplayEventSource source = parse(
+                new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray())), UTC);
+        assertEquals(EXPECTED, read(source, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void skipsHeadersAndBlankLines() throws IOException {
+        ReplayEventSource source = ReplayEventSource.parse(new StringReader(
+                "Debug report generated at Mon Jan 01 10:05:00 UTC 2024\n\n"
+                        + "Excluded apps: [a, b, c]\n"
+                        + "  \n"
+                        + "UsageEvents (last 300s):\n"
+                        + " 1704103200000 , 1 , com.example \n"
+                        + "1704103200001,x,com.example\n"
+                        + ",1,com.example\n"
+                        + "1704103200002,1,\n"), UTC);
+        assertEquals(Arrays.asList(T0 + ",1,com.example", (T0 + 2) + ",1,null"),
+                read(source, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void emptyTrace() throws IOException {
+        ReplayEventSource source = ReplayEventSource.parse(new StringReader("UsageEvents (last 0s):\n\n"), UTC);
+        assertEquals(0, source.size());
+        assertEquals(-1L, source.getFirstTimestamp());
+        assertEquals(-1L, source.getLastTimestamp());
+        assertEquals(new ArrayList<String>(), read(source, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void readEventsIncludesBeginAndExcludesEnd() throws IOException {
+        ReplayEventSource source = parse(new ByteArrayInputStream(fixture()), UTC);
+        assertEquals(EXPECTED.subList(1, 5), read(source, T0 + 1250, T0 + 5007));
+        assertEquals(EXPECTED.subList(1, 7), read(source, T0 + 1, T0 + 5008));
+        assertEquals(new ArrayList<String>(), read(source, T0 + 5008, T0 + 10000));
+        assertEquals(new ArrayList<String>(), read(source, T0 + 13000, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void windowsFoldIntoRecentsOrder() throws IOException {
+        ReplayEventSource source = parse(new ByteArrayInputStream(fixture()), UTC);
+        // Our own package and events without a package never enter the order
+        assertEquals(Arrays.asList("com.netflix.ninja", "org.xbmc.kodi", "com.plexapp.android",
+                        "com.google.android.tvlauncher"),
+                recents(source, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(Arrays.asList("org.xbmc.kodi", "com.plexapp.android", "com.netflix.ninja",
+                        "com.google.android.tvlauncher"),
+                recents(source, T0, T0 + 12999));
+        assertEquals(Arrays.asList("com.plexapp.android", "com.netflix.ninja"),
+                recents(source, T0 + 1250, T0 + 5007));
+    }
+}
@@ -0,0 +1,181 @@
+package eu.recentsopener.engine;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Persistence of {@link TransitionLog}: deduplication, the ring wrapping
+ * around, reopening with many interned packages and compaction of the
+ * package side file.
+ */
+public class TransitionLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> records(TransitionLog log) {
+        List<String> records = new ArrayList<>();
+        log.forEach((timestamp, packageName, source) -> records.add(timestamp + "," + packageName));
+        return records;
+    }
+
+    private File path() {
+        return new File(folder.getRoot(), "transitions.log");
+    }
+
+    @Test
+    public void dropsDuplicateTransitions() throws IOException {
+        try (TransitionLog log = TransitionLog.open(path(), 16)) {
+            assertTrue(log.append("a", 1000, TransitionLog.SOURCE_LIVE));
+            assertFalse(log.append("a", 1500, TransitionLog.SOURCE_USAGE_EVENTS));
+            assertFalse(log.append("a", 900, TransitionLog.SOURCE_USAGE_EVENTS));
+            assertTrue(log.append("b", 1200, TransitionLog.SOURCE_LIVE));
+            assertTrue(log.append("a", 2000, TransitionLog.SOURCE_LIVE));
+            assertEquals(3, log.size());
+            assertEquals(2000L, log.getLatest("a"));
+            assertEquals(-1L, log.getLatest("c"));
+            assertEquals(Arrays.asList("a", "b"), log.getMru(0));
+            assertEquals(Collections.singletonList("a"), log.getMru(1500));
+        }
+    }
+
+    @Test
+    public void overwrittenPackagesLeaveTheHistory() throws IOException {
+        try (TransitionLog log = TransitionLog.open(path(), 4)) {
+            for (int i = 0; i < 6; i++) {
+                log.append("p" + i, 1000L * (i + 1), TransitionLog.SOURCE_LIVE);
+            }
+            assertEquals(4, log.size());
+            assertEquals(-1L, log.getLatest("p0"));
+            assertEquals(-1L, log.getLatest("p1"));
+            assertEquals(Arrays.asList("p5", "p4", "p3", "p2"), log.getMru(Long.MIN_VALUE));
+            assertEquals(Arrays.asList("3000,p2", "4000,p3", "5000,p4", "6000,p5"), records(log));
+        }
+    }
+
+    @Test
+    public void reopensWithMoreIdsThanTheInitialTable() throws IOException {
+        // 70 packages, then p0..p7 again so the ring only references IDs below 64
+        try (TransitionLog log = TransitionLog.open(path(), 8)) {
+            for (int i = 0; i < 70; i++) {
+                log.append("p" + i, 1000L * (i + 1), TransitionLog.SOURCE_LIVE);
+            }
+            for (int i = 0; i < 8; i++) {
+                log.append("p" + i, 100000L + 1000L * i, TransitionLog.SOURCE_LIVE);
+            }
+        }
+        try (TransitionLog log = TransitionLog.open(path(), 8)) {
+            assertEquals(8, log.size());
+            assertEquals(-1L, log.getLatest("p69"));
+            assertEquals(107000L, log.getLatest("p7"));
+            // IDs of 64 and above are interned again without compaction yet
+            assertTrue(log.append("p69", 200000L, TransitionLog.SOURCE_LIVE));
+            assertTrue(log.append("p65", 201000L, TransitionLog.SOURCE_LIVE));
+            assertFalse(log.append("p65", 201500L, TransitionLog.SOURCE_LIVE));
+            assertEquals(200000L, log.getLatest("p69"));
+            assertEquals(Arrays.asList("p65", "p69", "p7", "p6", "p5", "p4", "p3", "p2"),
+                    log.getMru(Long.MIN_VALUE));
+        }
+        try (TransitionLog log = TransitionLog.open(path(), 8)) {
+            assertEquals(Arrays.asList("p65", "p69", "p7", "p6", "p5", "p4", "p3", "p2"),
+                    log.getMru(Long.MIN_VALUE));
+        }
+    }
+
+    @Test
+    public void compactsPackageTable() throws IOException {
+        int count = TransitionLog.MIN_COMPACT_NAMES * 3;
+        try (TransitionLog log = TransitionLog.open(path(), 8)) {
+            for (int i = 0; i < count; i++) {
+                log.append("p" + i, 1000L * (i + 1), TransitionLog.SOURCE_LIVE);
+            }
+            // The table is compacted before it grows past the threshold
+            assertTrue(log.getPackageNameCount() <= TransitionLog.MIN_COMPACT_NAMES);
+            List<String> expected = new ArrayList<>();
+            for (int i = count - 1; i >= count - 8; i--) {
+                expected.add("p" + i);
+            }
+            assertEquals(expected, log.getMru(Long.MIN_VALUE));
+        }
+        try (TransitionLog log = TransitionLog.open(path(), 8)) {
+            assertEquals(8, log.size());
+            assertEquals(1000L * count, log.getLatest("p" + (count - 1)));
+            assertEquals(-1L, log.getLatest("p0"));
+            assertEquals(1000L * (count - 7) + ",p" + (count - 8), records(log).get(0));
+        }
+    }
+
+    @Test
+    public void resetsOnCapacityChange() throws IOException {
+        try (TransitionLog log = TransitionLog.open(path(), 8)) {
+            log.append("a", 1000, TransitionLog.SOURCE_LIVE);
+        }
+        try (TransitionLog log = TransitionLog.open(path(), 16)) {
+            assertEquals(0, log.size());
+            assertEquals(-1L, log.getLatest("a"));
+            assertEquals(0, log.getPackageNameCount());
+        }
+    }
+
+    @Test
+    public void resetsWhenPackageTableIsFromAnotherGeneration() throws IOException {
+        try (TransitionLog log = TransitionLog.open(path(), 8)) {
+            log.append("a", 1000, TransitionLog.SOURCE_LIVE);
+            log.append("b", 2000, TransitionLog.SOURCE_LIVE);
+        }
+        try (OutputStream out = new FileOutputStream(path().getPath() + ".packages")) {
+            out.write("#7\nb\na\n".getBytes(StandardCharsets.UTF_8));
+        }
+        try (TransitionLog log = TransitionLog.open(path(), 8)) {
+            assertEquals(0, log.size());
+            assertEquals(Collections.emptyList(), log.getMru(Long.MIN_VALUE));
+            assertTrue(log.append("c", 3000, TransitionLog.SOURCE_LIVE));
+        }
+    }
+
+    @Test
+    public void resetsWhenPackageTableIsMissing() throws IOException {
+        try (TransitionLog log = TransitionLog.open(path(), 8)) {
+            log.append("a", 1000, TransitionLog.SOURCE_LIVE);
+        }
+        assertTrue(new File(path().getPath() + ".packages").delete());
+        try (TransitionLog log = TransitionLog.open(path(), 8)) {
+            assertEquals(0, log.size());
+            assertEquals(-1L, log.getLatest("a"));
+        }
+    }
+
+    @Test
+    public void ignoresRecordsWithUnknownIds() throws IOException {
+        try (TransitionLog log = TransitionLog.open(path(), 8)) {
+            log.append("a", 1000, TransitionLog.SOURCE_LIVE);
+            log.append("b", 2000, TransitionLog.SOURCE_LIVE);
+        }
+        // Point the second record at an ID the package table does not hold
+        try (RandomAccessFile raw = new RandomAccessFile(path(), "rw")) {
+            raw.seek(32 + 16 + 8);
+            raw.writeInt(1000);
+        }
+        try (TransitionLog log = TransitionLog.open(path(), 8)) {
+            assertEquals(Collections.singletonList("1000,a"), records(log));
+            assertEquals(Collections.singletonList("a"), log.getMru(Long.MIN_VALUE));
+            assertTrue(log.append("b", 3000, TransitionLog.SOURCE_LIVE));
+        }
+    }
+}
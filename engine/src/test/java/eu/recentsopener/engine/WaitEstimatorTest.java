@@ -0,0 +1,157 @@
+package eu.recentsopener.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Learned waits of {@link WaitEstimator}: percentile and bounds, sample
+ * expiry, the timeout backoff and recovery of a device that became slower.
+ */
+public class WaitEstimatorTest {
+
+    private static final long NOW = 1704103200000L;
+
+    /** Bounds of the DIALOG_CLOSE phase. */
+    private static WaitEstimator estimator() {
+        return new WaitEstimator(1000L, 300L, 3000L);
+    }
+
+    /**
+     * Runs one attempt of a phase that takes the given time: it completes
+     * if that is within the current wait and times out otherwise.
+     *
+     * @return true if the attempt timed out
+     */
+    private static boolean attempt(WaitEstimator estimator, long durationMs, long now) {
+        if (durationMs <= estimator.getTimeout(now)) {
+            estimator.record(durationMs, now);
+            return false;
+        }
+        estimator.recordTimeout();
+        return true;
+    }
+
+    @Test
+    public void usesDefaultUntilEnoughSamples() {
+        WaitEstimator estimator = estimator();
+        for (int i = 1; i < WaitEstimator.MIN_SAMPLES; i++) {
+            estimator.record(100L, NOW);
+            assertEquals(1000L, estimator.getTimeout(NOW));
+        }
+        estimator.record(100L, NOW);
+        // p95 of 100 ms plus the minimum margin
+        assertEquals(300L, estimator.getTimeout(NOW));
+    }
+
+    @Test
+    public void waitIsPercentilePlusMarginWithinBounds() {
+        WaitEstimator estimator = estimator();
+        for (int i = 1; i <= 20; i++) {
+            estimator.record(i * 100L, NOW);
+        }
+        assertEquals(1900L, estimator.percentile(95, NOW));
+        assertEquals(1000L, estimator.percentile(50, NOW));
+        assertEquals(1900L + 475L, estimator.getTimeout(NOW));
+
+        WaitEstimator slow = estimator();
+        for (int i = 0; i < 10; i++) {
+            slow.record(5000L, NOW);
+        }
+        assertEquals(3000L, slow.getTimeout(NOW));
+    }
+
+    @Test
+    public void oldSamplesExpire() {
+        WaitEstimator estimator = estimator();
+        for (int i = 0; i < 10; i++) {
+            estimator.record(2000L, NOW);
+        }
+        long later = NOW + WaitEstimator.MAX_SAMPLE_AGE_MS + 1;
+        assertEquals(0, estimator.getSampleCount(later));
+        assertEquals(-1L, estimator.percentile(95, later));
+        assertEquals(1000L, estimator.getTimeout(later));
+    }
+
+    @Test
+    public void timeoutsBackOffUpToTheMaximum() {
+        WaitEstimator estimator = estimator();
+        for (int i = 0; i < 10; i++) {
+            estimator.record(400L, NOW);
+        }
+        assertEquals(600L, estimator.getTimeout(NOW));
+        // Timeouts are no samples and never shorten the wait
+        estimator.recordTimeout();
+        assertEquals(600L, estimator.getTimeout(NOW));
+        assertEquals(10, estimator.getSampleCount(NOW));
+        estimator.recordTimeout();
+        assertEquals(1200L, estimator.getTimeout(NOW));
+        estimator.recordTimeout();
+        assertEquals(2400L, estimator.getTimeout(NOW));
+        estimator.recordTimeout();
+        assertEquals(3000L, estimator.getTimeout(NOW));
+        for (int i = 0; i < 100; i++) {
+            estimator.recordTimeout();
+        }
+        assertEquals(3000L, estimator.getTimeout(NOW));
+        // A completion ends the backoff
+        estimator.record(400L, NOW);
+        assertEquals(0, estimator.getConsecutiveTimeouts());
+        assertEquals(600L, estimator.getTimeout(NOW));
+    }
+
+    @Test
+    public void recoversAfterDeviceSlowsDown() {
+        WaitEstimator estimator = estimator();
+        long now = NOW;
+        for (int i = 0; i < WaitEstimator.WINDOW; i++) {
+            assertFalse(attempt(estimator, 400L, now++));
+        }
+        assertEquals(600L, estimator.getTimeout(now));
+
+        // The phase now takes longer than the learned wait on every attempt
+        int timeouts = 0;
+        int lastTimeout = -1;
+        for (int i = 0; i < 200; i++) {
+            if (attempt(estimator, 1500L, now++)) {
+                timeouts++;
+                lastTimeout = i;
+            }
+        }
+        // The backoff lets it complete, the slow samples raise the wait
+        // and from then on it no longer times out
+        assertTrue("timeouts " + timeouts, timeouts < 20);
+        assertTrue("last timeout " + lastTimeout, lastTimeout < 50);
+        assertEquals(1500L, estimator.percentile(95, now));
+        assertEquals(1500L + 375L, estimator.getTimeout(now));
+        assertEquals(0, estimator.getConsecutiveTimeouts());
+    }
+
+    @Test
+    public void serializeRestoresSamplesInOrder() {
+        WaitEstimator estimator = estimator();
+        for (int i = 0; i < WaitEstimator.WINDOW + 5; i++) {
+            estimator.record(i, NOW + i);
+        }
+        WaitEstimator restored = estimator();
+        restored.parse(estimator.serialize());
+        assertEquals(estimator.serialize(), restored.serialize());
+        assertEquals(WaitEstimator.WINDOW, restored.getSampleCount(NOW));
+        // The next sample overwrites the oldest one in both
+        estimator.record(999L, NOW);
+        restored.record(999L, NOW);
+        assertEquals(estimator.serialize(), restored.serialize());
+    }
+
+    @Test
+    public void parseSkipsLegacyAndCorruptEntries() {
+        WaitEstimator estimator = estimator();
+        estimator.parse("700,800:" + NOW + ",x:1,900:y,,1000:" + NOW);
+        assertEquals("800:" + NOW + ",1000:" + NOW, estimator.serialize());
+        estimator.parse(null);
+        estimator.parse("");
+        assertEquals(2, estimator.getSampleCount(NOW));
+    }
+}